@@ -0,0 +1,30 @@
+package com.lafaspot.logfast.benchmarks;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.LogContext;
+
+/**
+ * LogContext used by all the benchmarks, it mimics the serial format used by production contexts.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+@Immutable
+public class BenchmarkContext extends LogContext {
+
+    /**
+     * @param name
+     *            Look up log context name
+     */
+    public BenchmarkContext(final String name) {
+        super(name);
+    }
+
+    @Override
+    public String getSerial() {
+        return "{sledid=1291298/" + getName() + "}";
+    }
+}
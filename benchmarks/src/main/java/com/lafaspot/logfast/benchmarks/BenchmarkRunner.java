@@ -0,0 +1,38 @@
+package com.lafaspot.logfast.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the logfast benchmarks at 1, 4, 16 and 64 threads with the GC profiler enabled, so every report carries the allocation rate and the
+ * normalized bytes allocated per operation. One JSON report is written per thread count under target.
+ *
+ * @author lafa
+ *
+ */
+public final class BenchmarkRunner {
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+    private static final String DEFAULT_INCLUDE = "com\\.lafaspot\\.logfast\\.benchmarks\\..*";
+
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * @param args
+     *            optional regular expression with the benchmarks to run, all benchmarks run by default
+     * @throws RunnerException
+     *             failure running the benchmarks
+     */
+    public static void main(final String[] args) throws RunnerException {
+        final String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        for (final int threads : THREADS) {
+            final Options options = new OptionsBuilder().include(include).threads(threads).addProfiler(GCProfiler.class)
+                            .resultFormat(ResultFormatType.JSON).result("target/jmh-result-" + threads + "-threads.json").build();
+            new Runner(options).run();
+        }
+    }
+}
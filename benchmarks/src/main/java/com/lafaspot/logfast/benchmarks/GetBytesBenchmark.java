@@ -0,0 +1,107 @@
+package com.lafaspot.logfast.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lafaspot.logfast.logging.LogDataUtil;
+import com.lafaspot.logfast.logging.LogManager;
+import com.lafaspot.logfast.logging.Logger;
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+
+/**
+ * LogManager.getBytes over a manager holding LogPage.DEFAULT_SIZE partially filled pages, this is the cost of a dump on a live server.
+ *
+ * @author lafa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetBytesBenchmark {
+    // records per logger, about half of a page
+    private static final int RECORDS = 5000;
+
+    /**
+     * Channel that drops the bytes, so only the cost of the export is measured.
+     */
+    private static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(final ByteBuffer src) {
+            final int length = src.remaining();
+            src.position(src.limit());
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private LogManager manager;
+    private Logger[] loggers;
+
+    /**
+     * Fills the pages that are dumped by every operation.
+     */
+    @Setup
+    public void setup() {
+        manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE);
+        final LogDataUtil data = new LogDataUtil().set(GetBytesBenchmark.class, "requestId", Long.valueOf(RECORDS));
+        // keep the loggers reachable so their pages stay active
+        loggers = new Logger[LogPage.DEFAULT_SIZE];
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i] = manager.getLogger(new BenchmarkContext("email=" + i + "@lafaspot.com"));
+            for (int j = 0; j < RECORDS; j++) {
+                loggers[i].info(data, null);
+            }
+        }
+    }
+
+    /**
+     * @return the dump, returned so it is not optimized away
+     */
+    @Benchmark
+    public byte[] getBytes() {
+        return manager.getBytes();
+    }
+
+    /**
+     * @return the records of a single context name, returned so it is not optimized away
+     */
+    @Benchmark
+    public byte[] getBytesByName() {
+        return manager.getBytes("email=0@lafaspot.com");
+    }
+
+    /**
+     * @return bytes streamed to a channel that discards them
+     * @throws IOException
+     *             never
+     */
+    @Benchmark
+    public long writeTo() throws IOException {
+        return manager.writeTo(DISCARD);
+    }
+}
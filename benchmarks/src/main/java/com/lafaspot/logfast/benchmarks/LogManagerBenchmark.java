@@ -0,0 +1,77 @@
+package com.lafaspot.logfast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lafaspot.logfast.logging.LogDataUtil;
+import com.lafaspot.logfast.logging.LogManager;
+import com.lafaspot.logfast.logging.Logger;
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+
+/**
+ * LogManager.allocPage under rotation. Every operation returns the logger page and logs one record, so each call goes through allocPage and
+ * the page clean up done by the manager.
+ *
+ * @author lafa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogManagerBenchmark {
+    private LogManager manager;
+
+    /**
+     * Creates the shared manager.
+     */
+    @Setup
+    public void setup() {
+        manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE);
+    }
+
+    /**
+     * Per thread logger and log data.
+     *
+     * @author lafa
+     *
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private Logger logger;
+        private LogDataUtil data;
+
+        /**
+         * @param benchmark
+         *            the benchmark state that owns the LogManager
+         */
+        @Setup
+        public void setup(final LogManagerBenchmark benchmark) {
+            logger = benchmark.manager.getLogger(new BenchmarkContext("email=" + Thread.currentThread().getId() + "@lafaspot.com"));
+            data = new LogDataUtil().set(LogManagerBenchmark.class, "requestId", Long.valueOf(Thread.currentThread().getId()));
+        }
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void allocPage(final ThreadState state) {
+        state.logger.flush();
+        state.logger.info(state.data, null);
+    }
+}
@@ -0,0 +1,76 @@
+package com.lafaspot.logfast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lafaspot.logfast.logging.LogContext;
+import com.lafaspot.logfast.logging.LogDataUtil;
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.LogPageRef;
+
+/**
+ * LogPage.log with and without a Throwable, measured without the Logger and LogManager around it. Full pages are reset in place so the
+ * benchmark measures the encoding and not the page allocation.
+ *
+ * @author lafa
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogPageBenchmark {
+    // 1 Megabyte, same as the pages allocated by the LogManager
+    private static final int PAGE_SIZE = 1 * 1024 * 1024;
+
+    private LogPage page;
+    private LogContext context;
+    private LogDataUtil data;
+    private Exception exception;
+
+    /**
+     * Creates the page and the data to log.
+     */
+    @Setup
+    public void setup() {
+        page = new LogPage(1, PAGE_SIZE, LogPageRef.NULL);
+        context = new BenchmarkContext("email=" + Thread.currentThread().getId() + "@lafaspot.com");
+        data = new LogDataUtil().set(LogPageBenchmark.class, "requestId", Long.valueOf(Thread.currentThread().getId()));
+        exception = new Exception("benchmark");
+    }
+
+    /**
+     * Log without exception.
+     */
+    @Benchmark
+    public void log() {
+        if (page.isFull()) {
+            page.setNotActive();
+        }
+        page.log(context, Level.INFO.getNumeric(), data, null, true);
+    }
+
+    /**
+     * Log with exception.
+     */
+    @Benchmark
+    public void logWithThrowable() {
+        if (page.isFull()) {
+            page.setNotActive();
+        }
+        page.log(context, Level.INFO.getNumeric(), data, exception, true);
+    }
+}
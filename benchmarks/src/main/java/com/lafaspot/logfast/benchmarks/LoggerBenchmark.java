@@ -0,0 +1,137 @@
+package com.lafaspot.logfast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lafaspot.logfast.logging.LogDataUtil;
+import com.lafaspot.logfast.logging.LogManager;
+import com.lafaspot.logfast.logging.Logger;
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+
+/**
+ * Logger.info and Logger.debug with the level enabled and disabled. Every thread owns its logger, as the Logger is not thread safe, while all of
+ * them share the same LogManager. The shared variants log through a single ConcurrentLogger.
+ *
+ * @author lafa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerBenchmark {
+    private LogManager manager;
+    private Logger sharedLogger;
+
+    /**
+     * Creates the shared manager and the shared logger.
+     */
+    @Setup
+    public void setup() {
+        manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE);
+        sharedLogger = manager.getConcurrentLogger(new BenchmarkContext("email=shared@lafaspot.com"));
+    }
+
+    /**
+     * Per thread logger and log data.
+     *
+     * @author lafa
+     *
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private Logger logger;
+        private LogDataUtil data;
+        private Exception exception;
+        private long count;
+
+        /**
+         * @param benchmark
+         *            the benchmark state that owns the LogManager
+         */
+        @Setup
+        public void setup(final LoggerBenchmark benchmark) {
+            logger = benchmark.manager.getLogger(new BenchmarkContext("email=" + Thread.currentThread().getId() + "@lafaspot.com"));
+            data = new LogDataUtil().set(LoggerBenchmark.class, "requestId", Long.valueOf(Thread.currentThread().getId()));
+            exception = new Exception("benchmark");
+        }
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void infoEnabled(final ThreadState state) {
+        state.logger.info(state.data, null);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void infoEnabledWithException(final ThreadState state) {
+        state.logger.info(state.data, state.exception);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void infoTemplate(final ThreadState state) {
+        state.logger.info("requestId={} count={}", "benchmark", state.count++);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void infoShared(final ThreadState state) {
+        sharedLogger.info(state.data, null);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void infoTemplateShared(final ThreadState state) {
+        sharedLogger.info("requestId={} count={}", "benchmark", state.count++);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void debugDisabled(final ThreadState state) {
+        state.logger.debug(state.data, null);
+    }
+
+    /**
+     * @param state
+     *            thread state
+     */
+    @Benchmark
+    public void debugDisabledGuarded(final ThreadState state) {
+        if (state.logger.isDebug()) {
+            state.logger.debug(state.data, null);
+        }
+    }
+}
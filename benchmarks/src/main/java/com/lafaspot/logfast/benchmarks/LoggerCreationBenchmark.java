@@ -0,0 +1,95 @@
+package com.lafaspot.logfast.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lafaspot.logfast.logging.LogContext;
+import com.lafaspot.logfast.logging.LogManager;
+import com.lafaspot.logfast.logging.Logger;
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+
+/**
+ * A logger per request at a high creation rate. Every operation creates a logger, logs one record and drops the logger, with or without a
+ * flush. The pages of the dropped loggers are taken back through phantom references by the reclaim thread. The baseline is a logger with the
+ * finalize method loggers used to have, the GC profiler of BenchmarkRunner shows the collection count and time of the loggers going through the
+ * finalizer queue.
+ *
+ * @author lafa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggerCreationBenchmark {
+    private LogManager manager;
+    private BenchmarkContext context;
+
+    /**
+     * Creates the shared manager.
+     */
+    @Setup
+    public void setup() {
+        manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE);
+        context = new BenchmarkContext("email=created@lafaspot.com");
+    }
+
+    /**
+     * @return the logger, dropped by the caller
+     */
+    @Benchmark
+    public Logger createAndDrop() {
+        final Logger logger = manager.getLogger(context);
+        logger.info("request", null);
+        return logger;
+    }
+
+    /**
+     * @return the logger, flushed and dropped by the caller
+     */
+    @Benchmark
+    public Logger createAndFlush() {
+        final Logger logger = manager.getLogger(context);
+        logger.info("request", null);
+        logger.flush();
+        return logger;
+    }
+
+    /**
+     * @return the finalizable logger, dropped by the caller
+     */
+    @Benchmark
+    public Logger createAndFinalize() {
+        final Logger logger = new FinalizedLogger(context, manager);
+        logger.info("request", null);
+        return logger;
+    }
+
+    /**
+     * Logger returning its page in a finalizer, the baseline of createAndDrop.
+     */
+    private static final class FinalizedLogger extends Logger {
+        FinalizedLogger(final LogContext context, final LogManager manager) {
+            super(context, Level.INFO, manager);
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            super.finalize();
+            flush();
+        }
+    }
+}
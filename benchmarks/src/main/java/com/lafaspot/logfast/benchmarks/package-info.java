@@ -0,0 +1,7 @@
+/**
+ * JMH benchmarks for the logfast hot paths. Build with mvn package and run java -jar benchmarks/target/benchmarks.jar.
+ *
+ * @author lafa
+ *
+ */
+package com.lafaspot.logfast.benchmarks;
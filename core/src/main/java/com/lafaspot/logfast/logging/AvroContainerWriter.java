@@ -0,0 +1,173 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.PageBuffer;
+
+/**
+ * Writes pages as an Avro Object Container File of LogPage.SCHEMA_STR, with the deflate codec and one data block per page. Pages in any format
+ * are expanded to LogRecords and compressed by tasks of a ForkJoinPool, the blocks are written in page order.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+final class AvroContainerWriter {
+    private static final byte[] MAGIC = { 'O', 'b', 'j', 1 };
+    private static final int SYNC_SIZE = 16;
+    private static final String SCHEMA_KEY = "avro.schema";
+    private static final String CODEC_KEY = "avro.codec";
+    private static final String CODEC = "deflate";
+    private static final int HEADER_SIZE = 2048;
+    // block count and size varints
+    private static final int BLOCK_HEADER_SIZE = 20;
+    private static final int MIN_OUTPUT_SIZE = 64;
+    // blocks compressed ahead of the writer, per pool thread
+    private static final int BLOCKS_PER_THREAD = 2;
+
+    private final ForkJoinPool pool;
+    private final int level;
+    private final byte[] sync = new byte[SYNC_SIZE];
+
+    /**
+     * @param pool
+     *            the pool compressing the blocks
+     * @param level
+     *            the Deflater compression level
+     */
+    AvroContainerWriter(final ForkJoinPool pool, final int level) {
+        this.pool = pool;
+        this.level = level;
+        final UUID uuid = UUID.randomUUID();
+        ByteBuffer.wrap(sync).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * @param pages
+     *            the pages, held by the caller
+     * @param release
+     *            releases a page once its block is encoded, every page is released before write returns
+     * @param out
+     *            the container file, not closed by this call
+     * @return number of bytes written
+     * @throws IOException
+     *             failure writing to the stream or malformed page
+     */
+    long write(final List<LogPage> pages, final Consumer<LogPage> release, final OutputStream out) throws IOException {
+        final PageBuffer header = new PageBuffer(HEADER_SIZE);
+        header.write(MAGIC);
+        // file metadata, an Avro map of bytes
+        header.writeLong(2);
+        header.writeString(SCHEMA_KEY);
+        header.writeString(LogPage.SCHEMA_STR);
+        header.writeString(CODEC_KEY);
+        header.writeString(CODEC);
+        header.writeLong(0);
+        header.write(sync);
+        out.write(header.toByteArray());
+        long written = header.size();
+
+        final Deque<ForkJoinTask<Block>> inFlight = new ArrayDeque<ForkJoinTask<Block>>();
+        final int window = Math.max(1, pool.getParallelism() * BLOCKS_PER_THREAD);
+        int submitted = 0;
+        try {
+            while (submitted < pages.size()) {
+                final LogPage page = pages.get(submitted);
+                inFlight.add(pool.submit(() -> encode(page, release)));
+                submitted++;
+                if (inFlight.size() >= window) {
+                    written += writeBlock(inFlight.poll().join(), out);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                written += writeBlock(inFlight.poll().join(), out);
+            }
+        } finally {
+            // the tasks release their page, wait for them rather than cancel so no page is left held
+            for (final ForkJoinTask<Block> task : inFlight) {
+                task.quietlyJoin();
+            }
+            for (int i = submitted; i < pages.size(); i++) {
+                release.accept(pages.get(i));
+            }
+        }
+        return written;
+    }
+
+    private long writeBlock(final Block block, final OutputStream out) throws IOException {
+        if (block.error != null) {
+            throw block.error;
+        }
+        if (block.count == 0) {
+            return 0;
+        }
+        final PageBuffer blockHeader = new PageBuffer(BLOCK_HEADER_SIZE);
+        blockHeader.writeLong(block.count);
+        blockHeader.writeLong(block.length);
+        out.write(blockHeader.toByteArray());
+        out.write(block.data, 0, block.length);
+        out.write(sync);
+        return blockHeader.size() + block.length + sync.length;
+    }
+
+    /**
+     * Expand and compress a page, runs on the pool. The page is released once expanded, in the finally of the task.
+     */
+    private Block encode(final LogPage page, final Consumer<LogPage> release) {
+        final Block block = new Block();
+        final PageBuffer fragments;
+        try {
+            final ByteBuffer bytes = page.getCommittedBytes();
+            fragments = new PageBuffer(Math.max(MIN_OUTPUT_SIZE, bytes.remaining()));
+            block.count = new LogDecoder().toFragments(bytes, fragments);
+        } catch (final IOException e) {
+            block.error = e;
+            return block;
+        } finally {
+            release.accept(page);
+        }
+        final byte[] input = fragments.toByteArray();
+        final Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            byte[] output = new byte[Math.max(MIN_OUTPUT_SIZE, input.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length << 1);
+                }
+                length += deflater.deflate(output, length, output.length - length);
+            }
+            block.data = output;
+            block.length = length;
+        } finally {
+            deflater.end();
+        }
+        return block;
+    }
+
+    /**
+     * Compressed block of a page.
+     */
+    private static final class Block {
+        private int count;
+        private byte[] data;
+        private int length;
+        private IOException error;
+    }
+}
@@ -0,0 +1,86 @@
+package com.lafaspot.logfast.logging;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.SharedPageWriter.Scratch;
+import com.lafaspot.logfast.logging.internal.LogArguments;
+import com.lafaspot.logfast.logging.internal.LogPageRef;
+
+/**
+ * Logger shared by many threads, for applications with more threads than the pages they can afford, as a Logger holds a page of up to 1
+ * Megabyte. Every thread reserves a frame of the shared page without locks and encodes the record straight into it, see SharedPageWriter.
+ *
+ * The pages are always version 1 pages. The flight recorder is not triggered by this logger and the legacy slf4j call is not made.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class ConcurrentLogger extends Logger {
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final LogContext context;
+    private final LogMetrics metrics;
+    private final SharedPageWriter writer;
+
+    /**
+     * @param context
+     *            the LogContext for the logger instance
+     * @param level
+     *            default Level for this logger instance
+     * @param manager
+     *            the manager instance that owns this logger instance
+     */
+    protected ConcurrentLogger(final LogContext context, final Level level, final LogManager manager) {
+        super(context, level, manager);
+        this.context = context;
+        metrics = manager.metrics();
+        writer = new SharedPageWriter(manager, context);
+        // the writer does not refer to this logger, its page is returned once the logger is unreachable
+        manager.track(this, writer);
+    }
+
+    @Override
+    void log(final int level, final Object data, final Throwable e) {
+        if (isLevel(level) && context != null && data != null && admit(level)) {
+            final long start = metrics.startLogCall();
+            try {
+                writer.log(SCRATCH.get(), context, level, data, e);
+            } finally {
+                metrics.recordLogCall(start);
+            }
+        }
+    }
+
+    @Override
+    LogArguments arguments() {
+        return SCRATCH.get().arguments();
+    }
+
+    @Override
+    void logTemplate(final int level, final String template, final LogArguments args) {
+        if (context != null && template != null) {
+            final long start = metrics.startLogCall();
+            try {
+                writer.logTemplate(SCRATCH.get(), context, level, template, args);
+            } finally {
+                metrics.recordLogCall(start);
+            }
+        }
+        args.reset();
+    }
+
+    /**
+     * Write the count of the dropped records and return the shared page to the manager, the threads still writing it get a new page.
+     */
+    @Override
+    public void flush() {
+        writeDropped();
+        writer.flush();
+    }
+
+    @Override
+    protected LogPageRef getCurrentPage() {
+        return writer.getPageRef();
+    }
+}
@@ -0,0 +1,91 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Sink appending the pages to a file, every batch of pages is a single gathering write. The file has the format of LogManager.getBytes.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class FileLogSink implements LogSink {
+    private final Path file;
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * @param file
+     *            the file, created if missing, appended otherwise
+     * @throws IOException
+     *             failure opening the file
+     */
+    public FileLogSink(final Path file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    @Override
+    public void write(final List<ByteBuffer> pages) throws IOException {
+        final ByteBuffer[] buffers = pages.toArray(new ByteBuffer[pages.size()]);
+        long remaining = 0;
+        for (final ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        if (!channel.isOpen()) {
+            // the file could not be opened again after the last rollover
+            open();
+        }
+        if (size > 0 && isRollover(size + remaining)) {
+            channel.close();
+            try {
+                rollover(file);
+            } finally {
+                // the current file again if the rollover failed, the next batch retries it
+                open();
+            }
+        }
+        while (remaining > 0) {
+            final long written = channel.write(buffers);
+            size += written;
+            remaining -= written;
+        }
+    }
+
+    /**
+     * @param newSize
+     *            size of the file after the next batch
+     * @return true to start a new file before the batch, false by default
+     */
+    protected boolean isRollover(final long newSize) {
+        return false;
+    }
+
+    /**
+     * Move away the closed file before a new file is created.
+     *
+     * @param current
+     *            the file
+     * @throws IOException
+     *             failure moving the file
+     */
+    protected void rollover(final Path current) throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
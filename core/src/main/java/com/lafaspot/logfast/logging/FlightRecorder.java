@@ -0,0 +1,87 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+
+/**
+ * Flight recorder settings of a LogManager, hands the page chain of a logger to the sink when a record at or above the trigger level is logged.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+final class FlightRecorder {
+    private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(FlightRecorder.class);
+
+    private final LogManager manager;
+    private final int triggerLevel;
+    private final LogSink sink;
+    private final Executor executor;
+
+    /**
+     * @param manager
+     *            the manager taking the pages back
+     * @param triggerLevel
+     *            records at or above this level trigger a dump
+     * @param sink
+     *            the sink receiving the pages
+     * @param executor
+     *            the executor calling the sink
+     */
+    FlightRecorder(final LogManager manager, final Level triggerLevel, final LogSink sink, final Executor executor) {
+        this.manager = manager;
+        this.triggerLevel = triggerLevel.getNumeric();
+        this.sink = sink;
+        this.executor = executor;
+    }
+
+    /**
+     * @param level
+     *            level of a record
+     * @return true if the record triggers a dump
+     */
+    boolean isTrigger(final int level) {
+        return level <= triggerLevel;
+    }
+
+    /**
+     * Hand held pages to the sink, the pages are released after the sink returns.
+     *
+     * @param context
+     *            context of the logger
+     * @param pages
+     *            the held pages
+     * @param views
+     *            the bytes of the pages to dump, oldest first
+     */
+    void dump(final LogContext context, final List<LogPage> pages, final List<ByteBuffer> views) {
+        try {
+            executor.execute(() -> {
+                try {
+                    sink.write(context, views);
+                } catch (final IOException e) {
+                    LOG.warn("Flight recorder dump failed for " + context.getName(), e);
+                } finally {
+                    release(pages);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            release(pages);
+            LOG.warn("Flight recorder dump dropped for " + context.getName(), e);
+        }
+    }
+
+    private void release(final List<LogPage> pages) {
+        for (final LogPage page : pages) {
+            manager.release(page);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.lafaspot.logfast.logging;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.TokenBucket;
+
+/**
+ * Levels of a manager: the default level and the overrides by context name and by context name prefix, with the rate limits by context name and
+ * the sampling by level. Every change bumps a stamp, the loggers compare the stamp with the stamp of their level to pick up the change on their
+ * next log call, see Logger.isLevel.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+final class LevelRegistry {
+    /**
+     * Stamp increment of a change, larger than the difference of any two levels so a stale logger level never disables a record.
+     */
+    static final int STAMP_STEP = 16;
+
+    private final Map<String, Level> names = new ConcurrentHashMap<String, Level>();
+    private final Map<String, Level> prefixes = new ConcurrentHashMap<String, Level>();
+    private final Map<String, TokenBucket> rateLimits = new ConcurrentHashMap<String, TokenBucket>();
+    // Probability to keep a record, by level, null to keep every record.
+    private volatile double[] sampling;
+    private volatile Level level;
+    private volatile int stamp;
+
+    /**
+     * @param level
+     *            the default level
+     */
+    LevelRegistry(final Level level) {
+        this.level = level;
+    }
+
+    /**
+     * @return the stamp of the current levels
+     */
+    int stamp() {
+        return stamp;
+    }
+
+    /**
+     * @return the default level
+     */
+    Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level
+     *            the default level
+     */
+    synchronized void setLevel(final Level level) {
+        this.level = level;
+        stamp += STAMP_STEP;
+    }
+
+    /**
+     * @param name
+     *            the context name
+     * @param level
+     *            the level of the contexts with this name, null to remove the override
+     */
+    synchronized void setNameLevel(final String name, final Level level) {
+        put(names, name, level);
+    }
+
+    /**
+     * @param prefix
+     *            the context name prefix
+     * @param level
+     *            the level of the contexts whose name starts with the prefix, null to remove the override
+     */
+    synchronized void setPrefixLevel(final String prefix, final Level level) {
+        put(prefixes, prefix, level);
+    }
+
+    /**
+     * @param name
+     *            the context name
+     * @param recordsPerSecond
+     *            records per second of the loggers of the contexts with this name, 0 to remove the limit
+     * @param burst
+     *            max records logged at once
+     */
+    synchronized void setRateLimit(final String name, final double recordsPerSecond, final int burst) {
+        if (recordsPerSecond > 0) {
+            rateLimits.put(name, new TokenBucket(recordsPerSecond, burst));
+        } else {
+            rateLimits.remove(name);
+        }
+        stamp += STAMP_STEP;
+    }
+
+    /**
+     * @param name
+     *            the context name, null if none
+     * @return the rate limit shared by the loggers of the contexts with this name, null if none
+     */
+    TokenBucket rateLimitOf(final String name) {
+        return name == null ? null : rateLimits.get(name);
+    }
+
+    /**
+     * @param level
+     *            the level of the records
+     * @param probability
+     *            probability to keep a record of this level, 1 to keep every record
+     */
+    synchronized void setSampling(final Level level, final double probability) {
+        final double[] levels = new double[Logger.TRACEINT + 1];
+        if (sampling == null) {
+            Arrays.fill(levels, 1);
+        } else {
+            System.arraycopy(sampling, 0, levels, 0, levels.length);
+        }
+        levels[level.getNumeric()] = Math.max(0, Math.min(1, probability));
+        boolean all = true;
+        for (final double keep : levels) {
+            all &= keep >= 1;
+        }
+        sampling = all ? null : levels;
+        stamp += STAMP_STEP;
+    }
+
+    /**
+     * @return the probability to keep a record, by level, null to keep every record
+     */
+    double[] sampling() {
+        return sampling;
+    }
+
+    private void put(final Map<String, Level> levels, final String key, final Level level) {
+        if (level == null) {
+            levels.remove(key);
+        } else {
+            levels.put(key, level);
+        }
+        stamp += STAMP_STEP;
+    }
+
+    /**
+     * @param name
+     *            the context name, null if none
+     * @param loggerLevel
+     *            the level set on the logger, null to use the default level
+     * @return the level of the name override, else of the longest matching prefix override, else the logger level or the default level
+     */
+    int levelOf(final String name, final Level loggerLevel) {
+        if (name != null) {
+            final Level named = names.get(name);
+            if (named != null) {
+                return named.getNumeric();
+            }
+            String longest = null;
+            for (final String prefix : prefixes.keySet()) {
+                if (name.startsWith(prefix) && (longest == null || prefix.length() > longest.length())) {
+                    longest = prefix;
+                }
+            }
+            final Level prefixed = longest == null ? null : prefixes.get(longest);
+            if (prefixed != null) {
+                return prefixed.getNumeric();
+            }
+        }
+        return loggerLevel == null ? level.getNumeric() : loggerLevel.getNumeric();
+    }
+}
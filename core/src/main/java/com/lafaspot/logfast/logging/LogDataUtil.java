@@ -1,7 +1,11 @@
 package com.lafaspot.logfast.logging;
 
+import java.io.IOException;
+
 import javax.annotation.concurrent.NotThreadSafe;
 
+import com.lafaspot.logfast.logging.internal.StringLogWriter;
+
 /**
  * Utility class used to facilitate logging.
  *
@@ -9,9 +13,12 @@ import javax.annotation.concurrent.NotThreadSafe;
  *
  */
 @NotThreadSafe
-public class LogDataUtil {
+public class LogDataUtil implements Loggable {
 
-    private static final Object SEPARATOR = " ";
+    private static final char SEPARATOR = ' ';
+    // Class.toString prefixes
+    private static final String INTERFACE_PREFIX = "interface ";
+    private static final String CLASS_PREFIX = "class ";
     private Class<?> clazz;
     private Object[] arguments;
 
@@ -30,16 +37,28 @@ public class LogDataUtil {
     }
 
     @Override
-    public String toString() {
-        final StringBuffer str = new StringBuffer();
-        str.append(clazz.toString());
+    public void writeTo(final LogWriter writer) throws IOException {
+        // same text as clazz.toString, without building it
+        if (clazz.isInterface()) {
+            writer.append(INTERFACE_PREFIX);
+        } else if (!clazz.isPrimitive()) {
+            writer.append(CLASS_PREFIX);
+        }
+        writer.append(clazz.getName());
         for (final Object obj : arguments) {
-            str.append(SEPARATOR);
-            if (obj != null) {
-                str.append(obj.toString());
-            } else {
-                str.append("null");
-            }
+            writer.append(SEPARATOR);
+            writer.append(obj);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder str = new StringBuilder();
+        try {
+            writeTo(new StringLogWriter(str));
+        } catch (final IOException e) {
+            // should never happen, StringLogWriter does not throw
+            throw new IllegalStateException(e);
         }
         return str.toString();
     }
@@ -0,0 +1,388 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.internal.LogArguments;
+import com.lafaspot.logfast.logging.internal.PageBuffer;
+import com.lafaspot.logfast.logging.internal.PageEncoding;
+import com.lafaspot.logfast.logging.internal.TemplateFormatter;
+
+/**
+ * Decoder for the bytes returned by LogManager.getBytes, it reads all page formats, see PageFormat, and can expand them back to plain LogRecord
+ * fragments of LogPage.SCHEMA_STR for the Avro tools.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class LogDecoder {
+    private static final long SEVEN_BITS = 0x7FL;
+    private static final int CONTINUATION_BIT = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int MAX_VARLONG_SHIFT = 63;
+    private static final int INITIAL_FRAGMENTS_SIZE = 4096;
+    private static final long BYTE_MASK = 0xFFL;
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final int KNOWN_FLAGS = PageEncoding.FLAG_TIMESTAMPS | PageEncoding.FLAG_NANOS;
+
+    private final Record record = new Record();
+    private final List<String> contexts = new ArrayList<String>();
+    private final List<String> templates = new ArrayList<String>();
+    private final List<String> stacks = new ArrayList<String>();
+    private final LogArguments arguments = new LogArguments();
+    private final StringBuilder message = new StringBuilder();
+    // header of the current version 2 page
+    private long flags;
+    private long baseMillis;
+    private ByteBuffer in;
+
+    /**
+     * Receives the decoded records.
+     *
+     * @author lafa
+     *
+     */
+    public interface RecordHandler {
+        /**
+         * @param record
+         *            the decoded record, the instance is reused for the next record
+         * @throws IOException
+         *             failure handling the record
+         */
+        void onRecord(Record record) throws IOException;
+    }
+
+    /**
+     * A decoded LogRecord.
+     *
+     * @author lafa
+     *
+     */
+    @NotThreadSafe
+    public static class Record {
+        private String name;
+        private int level;
+        private String data;
+        private String eMessages;
+        private String eStackTrace;
+        private long timestampNanos;
+
+        /**
+         * @return the LogContext serial
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the level numeric value
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        /**
+         * @return the logged data
+         */
+        public String getData() {
+            return data;
+        }
+
+        /**
+         * @return the exception messages or null
+         */
+        public String getExceptionMessages() {
+            return eMessages;
+        }
+
+        /**
+         * @return the exception stack trace or null
+         */
+        public String getExceptionStackTrace() {
+            return eStackTrace;
+        }
+
+        /**
+         * @return the time of the record in milliseconds since the epoch, 0 if the page has no timestamps, see TimestampPrecision
+         */
+        public long getTimestamp() {
+            return Math.floorDiv(timestampNanos, NANOS_PER_MILLI);
+        }
+
+        /**
+         * @return the time of the record in nanoseconds since the epoch, a multiple of a millisecond unless the page precision is
+         *         TimestampPrecision.NANOS, 0 if the page has no timestamps
+         */
+        public long getTimestampNanos() {
+            return timestampNanos;
+        }
+    }
+
+    /**
+     * @param bytes
+     *            pages in any format
+     * @param handler
+     *            called for every record
+     * @throws IOException
+     *             malformed or truncated pages
+     */
+    public void decode(final byte[] bytes, final RecordHandler handler) throws IOException {
+        decode(ByteBuffer.wrap(bytes), handler);
+    }
+
+    /**
+     * @param bytes
+     *            pages in any format, the bytes from position to limit are decoded
+     * @param handler
+     *            called for every record
+     * @throws IOException
+     *             malformed or truncated pages
+     */
+    public void decode(final ByteBuffer bytes, final RecordHandler handler) throws IOException {
+        in = bytes.duplicate();
+        contexts.clear();
+        templates.clear();
+        stacks.clear();
+        flags = 0;
+        try {
+            while (in.hasRemaining()) {
+                final long tag = readLong();
+                if (tag >= 0) {
+                    // version 1 record, the tag is the length of the name
+                    record.name = readString(tag);
+                    record.timestampNanos = 0;
+                    readFields();
+                    handler.onRecord(record);
+                } else if (tag == PageEncoding.ENTRY_PAGE) {
+                    readHeader();
+                } else if (tag == PageEncoding.ENTRY_CONTEXT) {
+                    contexts.add(readString(readLong()));
+                } else if (tag == PageEncoding.ENTRY_RECORD) {
+                    readTimestamp();
+                    record.name = lookup(contexts, readLong());
+                    readFields();
+                    handler.onRecord(record);
+                } else if (tag == PageEncoding.ENTRY_TEMPLATE) {
+                    templates.add(readString(readLong()));
+                } else if (tag == PageEncoding.ENTRY_STACK) {
+                    stacks.add(readString(readLong()));
+                } else if (tag == PageEncoding.ENTRY_TEMPLATE_RECORD) {
+                    readTimestamp();
+                    record.name = lookup(contexts, readLong());
+                    readTemplateFields();
+                    handler.onRecord(record);
+                } else {
+                    throw new IOException("Unknown page entry " + tag + " at " + in.position());
+                }
+            }
+        } finally {
+            in = null;
+        }
+    }
+
+    /**
+     * Expand pages in any format to plain LogRecord fragments of LogPage.SCHEMA_STR, readable by the Avro tools.
+     *
+     * @param bytes
+     *            pages in any format
+     * @return the LogRecord fragments
+     * @throws IOException
+     *             malformed or truncated pages
+     */
+    public byte[] toFragments(final byte[] bytes) throws IOException {
+        final PageBuffer out = new PageBuffer(Math.max(INITIAL_FRAGMENTS_SIZE, bytes.length));
+        toFragments(ByteBuffer.wrap(bytes), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes
+     *            pages in any format, the bytes from position to limit are decoded
+     * @param out
+     *            where to write the LogRecord fragments
+     * @return number of records
+     * @throws IOException
+     *             malformed or truncated pages
+     */
+    int toFragments(final ByteBuffer bytes, final PageBuffer out) throws IOException {
+        return toFragments(bytes, out, null);
+    }
+
+    /**
+     * @param bytes
+     *            pages in any format, the bytes from position to limit are decoded
+     * @param out
+     *            where to write the LogRecord fragments
+     * @param names
+     *            the context serials of the records to write, null for all the records
+     * @return number of records
+     * @throws IOException
+     *             malformed or truncated pages
+     */
+    int toFragments(final ByteBuffer bytes, final PageBuffer out, final Predicate<String> names) throws IOException {
+        final int[] count = new int[1];
+        decode(bytes, new RecordHandler() {
+            @Override
+            public void onRecord(final Record rec) throws IOException {
+                if (names != null && !names.test(rec.name)) {
+                    return;
+                }
+                out.writeString(rec.name);
+                out.writeLong(rec.level);
+                out.writeString(rec.data);
+                writeNullable(out, rec.eMessages);
+                writeNullable(out, rec.eStackTrace);
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+
+    private static void writeNullable(final PageBuffer out, final String value) throws IOException {
+        if (value == null) {
+            out.writeLong(PageEncoding.NULL_BRANCH);
+        } else {
+            out.writeLong(PageEncoding.STRING_BRANCH);
+            out.writeString(value);
+        }
+    }
+
+    private void readHeader() throws IOException {
+        final long version = readLong();
+        if (version != PageEncoding.VERSION_2) {
+            throw new IOException("Unsupported page version " + version);
+        }
+        flags = readLong();
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IOException("Unsupported page flags " + flags);
+        }
+        baseMillis = (flags & PageEncoding.FLAG_TIMESTAMPS) != 0 ? readLong() : 0;
+        contexts.clear();
+        templates.clear();
+        stacks.clear();
+    }
+
+    private void readTimestamp() throws IOException {
+        if ((flags & PageEncoding.FLAG_NANOS) != 0) {
+            record.timestampNanos = baseMillis * NANOS_PER_MILLI + readLong();
+        } else if ((flags & PageEncoding.FLAG_TIMESTAMPS) != 0) {
+            record.timestampNanos = (baseMillis + readLong()) * NANOS_PER_MILLI;
+        } else {
+            record.timestampNanos = 0;
+        }
+    }
+
+    private void readFields() throws IOException {
+        record.level = (int) readLong();
+        record.data = readString(readLong());
+        record.eMessages = readNullable(readLong());
+        final long branch = readLong();
+        if (branch == PageEncoding.STACK_BRANCH) {
+            record.eStackTrace = lookup(stacks, readLong());
+        } else {
+            record.eStackTrace = readNullable(branch);
+        }
+    }
+
+    private void readTemplateFields() throws IOException {
+        record.level = (int) readLong();
+        final String template = lookup(templates, readLong());
+        final long count = readLong();
+        if (count < 0 || count > in.remaining()) {
+            throw new EOFException("Truncated log page, " + count + " arguments");
+        }
+        arguments.reset();
+        try {
+            for (long i = 0; i < count; i++) {
+                readArgument();
+            }
+            record.data = TemplateFormatter.format(message, template, arguments).toString();
+        } finally {
+            arguments.reset();
+            message.setLength(0);
+        }
+        record.eMessages = null;
+        record.eStackTrace = null;
+    }
+
+    private void readArgument() throws IOException {
+        final long type = readLong();
+        if (type == PageEncoding.ARG_NULL) {
+            arguments.add((Object) null);
+        } else if (type == PageEncoding.ARG_LONG) {
+            arguments.add(readLong());
+        } else if (type == PageEncoding.ARG_DOUBLE) {
+            if (in.remaining() < Long.BYTES) {
+                throw new EOFException("Truncated log page, double at " + in.position());
+            }
+            long bits = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                bits |= (in.get() & BYTE_MASK) << (i * Byte.SIZE);
+            }
+            arguments.add(Double.longBitsToDouble(bits));
+        } else if (type == PageEncoding.ARG_BOOLEAN) {
+            arguments.add(Boolean.valueOf(readLong() != 0));
+        } else if (type == PageEncoding.ARG_STRING) {
+            arguments.add(readString(readLong()));
+        } else {
+            throw new IOException("Unknown argument type " + type);
+        }
+    }
+
+    private String readNullable(final long branch) throws IOException {
+        if (branch == PageEncoding.NULL_BRANCH) {
+            return null;
+        }
+        if (branch != PageEncoding.STRING_BRANCH) {
+            throw new IOException("Invalid union branch " + branch);
+        }
+        return readString(readLong());
+    }
+
+    private static String lookup(final List<String> dictionary, final long id) throws IOException {
+        if (id < 0 || id >= dictionary.size()) {
+            throw new IOException("Unknown dictionary id " + id);
+        }
+        return dictionary.get((int) id);
+    }
+
+    private String readString(final long length) throws IOException {
+        if (length < 0 || length > in.remaining()) {
+            throw new EOFException("Truncated log page, string of " + length + " bytes");
+        }
+        final int len = (int) length;
+        final String str;
+        if (in.hasArray()) {
+            str = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+            in.position(in.position() + len);
+        } else {
+            final byte[] bytes = new byte[len];
+            in.get(bytes);
+            str = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return str;
+    }
+
+    private long readLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (!in.hasRemaining() || shift > MAX_VARLONG_SHIFT) {
+                throw new EOFException("Truncated log page, varint at " + in.position());
+            }
+            b = in.get();
+            value |= (b & SEVEN_BITS) << shift;
+            shift += VARINT_SHIFT;
+        } while ((b & CONTINUATION_BIT) != 0);
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,169 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.MpscArrayQueue;
+
+/**
+ * Drain thread of a LogManager. Logger threads hand their full pages through a lock free queue and never wait, the drain thread writes them to
+ * the sink in batches and gives them back to the manager to be reused.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+final class LogDrain implements Runnable {
+    private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(LogDrain.class);
+    // pages per sink write
+    private static final int BATCH_SIZE = 64;
+    // wait of the drain thread when the queue is empty
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final LogManager manager;
+    private final LogSink sink;
+    private final MpscArrayQueue<LogPage> queue;
+    private final Thread thread;
+    private volatile boolean running = true;
+    // offers past the running check, the drain thread waits for them before it exits
+    private final AtomicInteger offering = new AtomicInteger();
+    private final AtomicLong drainedPages = new AtomicLong();
+    private final AtomicLong droppedPages = new AtomicLong();
+
+    /**
+     * @param manager
+     *            the manager reusing the drained pages
+     * @param sink
+     *            the sink of the pages
+     * @param capacity
+     *            max number of pages waiting for the drain thread
+     */
+    LogDrain(final LogManager manager, final LogSink sink, final int capacity) {
+        this.manager = manager;
+        this.sink = sink;
+        queue = new MpscArrayQueue<LogPage>(capacity);
+        thread = new Thread(this, "logfast-drain");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Start the drain thread.
+     */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Called by the logger threads, never blocks.
+     *
+     * @param page
+     *            a page with records, not used by its logger any more
+     * @return false if the queue is full, the page is not drained
+     */
+    boolean offer(final LogPage page) {
+        offering.getAndIncrement();
+        try {
+            if (!running || !queue.offer(page)) {
+                droppedPages.getAndIncrement();
+                return false;
+            }
+            return true;
+        } finally {
+            offering.getAndDecrement();
+        }
+    }
+
+    /**
+     * Write the pages waiting in the queue, stop the drain thread and close the sink.
+     *
+     * @throws InterruptedException
+     *             interrupted while waiting for the drain thread
+     */
+    void stop() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    @Override
+    public void run() {
+        final List<LogPage> batch = new ArrayList<LogPage>(BATCH_SIZE);
+        final List<ByteBuffer> views = new ArrayList<ByteBuffer>(BATCH_SIZE);
+        boolean flushed = true;
+        // a page offered while stopping is in the queue before its offer ends, it is written and reused
+        while (running || offering.get() != 0 || !queue.isEmpty()) {
+            LogPage page;
+            while (batch.size() < BATCH_SIZE && (page = queue.poll()) != null) {
+                batch.add(page);
+                views.add(page.getCommittedBytes());
+            }
+            if (batch.isEmpty()) {
+                if (!flushed) {
+                    flush();
+                    flushed = true;
+                }
+                LockSupport.parkNanos(this, IDLE_NANOS);
+                continue;
+            }
+            try {
+                sink.write(views);
+                drainedPages.getAndAdd(batch.size());
+            } catch (final IOException | RuntimeException e) {
+                // a failing sink drops the batch, the drain goes on
+                droppedPages.getAndAdd(batch.size());
+                LOG.warn("Log drain failed to write " + batch.size() + " pages", e);
+            } finally {
+                for (final LogPage drained : batch) {
+                    manager.recycle(drained);
+                }
+                batch.clear();
+                views.clear();
+                flushed = false;
+            }
+        }
+        flush();
+        try {
+            sink.close();
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Log drain failed to close the sink", e);
+        }
+    }
+
+    private void flush() {
+        try {
+            sink.flush();
+        } catch (final IOException | RuntimeException e) {
+            LOG.warn("Log drain failed to flush the sink", e);
+        }
+    }
+
+    /**
+     * @return pages written to the sink
+     */
+    long getDrainedPages() {
+        return drainedPages.get();
+    }
+
+    /**
+     * @return pages not written, queue full or sink failure
+     */
+    long getDroppedPages() {
+        return droppedPages.get();
+    }
+
+    /**
+     * @return pages waiting for the drain thread
+     */
+    int getQueuedPages() {
+        return queue.size();
+    }
+}
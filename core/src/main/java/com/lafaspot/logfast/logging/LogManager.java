@@ -1,17 +1,34 @@
 package com.lafaspot.logfast.logging;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
+import java.util.zip.Deflater;
 
 import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.CoarseClock;
 import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.LogPagePool;
 import com.lafaspot.logfast.logging.internal.LogPageRef;
+import com.lafaspot.logfast.logging.internal.LogSlab;
+import com.lafaspot.logfast.logging.internal.PageBuffer;
+import com.lafaspot.logfast.logging.internal.PageRegistry;
 
 /**
  * Log Manager.
@@ -21,19 +38,67 @@ import com.lafaspot.logfast.logging.internal.LogPageRef;
  */
 @ThreadSafe
 public class LogManager {
-    // 1 Megabyte
-    private static final int SIZE = 1 * 1024 * 1024;
+    // 1 Megabyte, size of the largest pages, of the off heap pages and of the shared pages.
+    static final int MAX_PAGE_SIZE = 1 * 1024 * 1024;
+    // 4 Kilobytes, size of the smallest pages.
+    private static final int MIN_PAGE_BYTES = 4 * 1024;
 
-    private Level level;
+    // Default level and the overrides by context name, picked up by the existing loggers.
+    private final LevelRegistry levels;
 
-    private final Set<LogPageRef> pages;
+    // Live pages, striped by allocating thread.
+    private final PageRegistry pages;
+
+    // Context name to the pages written by the loggers of the contexts with this name, in page order.
+    private final ConcurrentHashMap<String, Set<LogPageRef>> pagesByName = new ConcurrentHashMap<String, Set<LogPageRef>>();
 
     private boolean isLegacy;
 
+    private volatile PageFormat pageFormat = PageFormat.V1;
+
+    private volatile TimestampPrecision timestampPrecision = TimestampPrecision.MILLIS;
+    // guarded by this
+    private boolean clockRetained;
+    private boolean closed;
+
+    // Size of the first page of a logger, doubled on every rotation up to MAX_PAGE_SIZE.
+    private volatile int minPageSize = MIN_PAGE_BYTES;
+
+    private volatile FlightRecorder flightRecorder;
+
+    private volatile LogDrain drain;
+
+    // Loggers of the shared pages mode hold no page, see setSharedPages.
+    private volatile boolean sharedPages;
+
+    // Shared pages, one per registry shard, picked like the registry shards by the calling thread.
+    private final SharedPageWriter[] stripes;
+    private final int stripeShift;
+
+    // pages of stopped drains
+    private final AtomicLong drainedPages = new AtomicLong(0);
+
+    private final AtomicLong droppedPages = new AtomicLong(0);
+
     private final int maxSize;
 
-    private static final int MAX_LOGGER_PAGES = 3;
+    // Budget of the page bytes, 0 when the pages are only bounded by their number.
+    private final long maxBytes;
+
+    // Bytes of the pages owned by the manager, held by the loggers, pooled, queued for the drain or read by the flight recorder.
+    private final AtomicLong ownedBytes = new AtomicLong(0);
+
+    private final AtomicLong evictedPages = new AtomicLong(0);
+
+    // Full pages kept in the chain of a logger page.
+    static final int MAX_LOGGER_PAGES = 3;
     private static final int MIN_PAGE_SIZE = 0;
+    // Pages per gathering write.
+    private static final int GATHER_PAGES = 16;
+    // Copy buffer of writeTo(OutputStream) for off heap pages.
+    private static final int COPY_CHUNK_SIZE = 64 * 1024;
+    // Pages tested by a cleanup.
+    private static final int CLEAN_VISITS = 256;
 
     private final PagePredicate cleanUnused = new PagePredicate();
 
@@ -43,6 +108,21 @@ public class LogManager {
 
     private final AtomicLong lastPageSize = new AtomicLong(0);
 
+    private final AtomicLong recycledPages = new AtomicLong(0);
+
+    // Free lists of reset pages, one per page size from MIN_PAGE_BYTES to MAX_PAGE_SIZE, each bounded by the max number of active pages.
+    private final LogPagePool[] pagePools;
+
+    // Off heap page slots, null when pages are allocated on the heap.
+    private final LogSlab slab;
+
+    // Loggers holding pages, until they are flushed or unreachable.
+    private final Set<LoggerRef> trackedLoggers = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong reclaimedLoggers = new AtomicLong(0);
+
+    private final LogMetrics metrics = new LogMetrics(this);
+
     /**
      * Create a log manager instance with level set to Level.INFO.
      */
@@ -59,29 +139,352 @@ public class LogManager {
      *            page size, mininum value is 10 pages
      */
     public LogManager(final Level level, final int size) {
-        this.level = level;
+        this(level, size, 0);
+    }
+
+    /**
+     * Create a log manager that keeps the page bytes off heap. The off heap memory is allocated once by this constructor, as one or more direct
+     * slabs carved into 1 Megabyte page slots, so the log history does not count against the Java heap. When all slots are in use new pages are
+     * not available and log calls are dropped until a page is returned.
+     *
+     * @param level
+     *            log level
+     * @param size
+     *            page size, mininum value is 10 pages
+     * @param offHeapBytes
+     *            bytes allocated off heap for the pages, 0 to keep the pages on the heap
+     */
+    public LogManager(final Level level, final int size, final long offHeapBytes) {
+        this(level, size, offHeapBytes, 0);
+    }
+
+    /**
+     * Create a log manager bounded by a budget of page bytes. The bytes of every page are accounted from the creation of the page until it is
+     * dropped, and no page is created over the budget: the oldest pages are evicted instead, in page order, without waiting for the garbage
+     * collector. The page of an idle logger is taken back at once, a page being written is evicted from the dump and taken back when its logger
+     * logs again. When no page can be taken back the log calls are dropped. Heap pages do not grow in this mode, a record larger than a 1 Megabyte
+     * page is dropped like with off heap pages.
+     *
+     * @param level
+     *            log level
+     * @param size
+     *            page size, mininum value is 10 pages
+     * @param offHeapBytes
+     *            bytes allocated off heap for the pages, 0 to keep the pages on the heap
+     * @param maxBytes
+     *            max bytes of the pages owned by the manager, the size of every page, 0 for no budget
+     */
+    public LogManager(final Level level, final int size, final long offHeapBytes, final long maxBytes) {
+        levels = new LevelRegistry(level);
+        this.maxBytes = maxBytes;
         isLegacy = false;
         if (size < MIN_PAGE_SIZE) {
             this.maxSize = MIN_PAGE_SIZE;
         } else {
             this.maxSize = size;
         }
-        pages = new ConcurrentSkipListSet<LogPageRef>();
+        pages = new PageRegistry();
+        stripes = new SharedPageWriter[pages.shardCount()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new SharedPageWriter(this, null);
+        }
+        stripeShift = Long.SIZE - Integer.numberOfTrailingZeros(stripes.length);
+        pagePools = new LogPagePool[sizeClass(MAX_PAGE_SIZE) + 1];
+        for (int i = 0; i < pagePools.length; i++) {
+            pagePools[i] = new LogPagePool(this.maxSize);
+        }
+        if (offHeapBytes > 0) {
+            slab = new LogSlab(offHeapBytes, MAX_PAGE_SIZE);
+        } else {
+            slab = null;
+        }
     }
 
     /**
+     * @return the budget of page bytes, 0 for no budget
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Default level of the loggers, the existing loggers pick it up on their next log call unless their level was set by Logger.setLevel.
+     *
      * @param level
      *            log level
      */
     public void setLevel(final Level level) {
-        this.level = level;
+        levels.setLevel(level);
     }
 
     /**
      * @return log level
      */
     public Level getLevel() {
-        return level;
+        return levels.getLevel();
+    }
+
+    /**
+     * Level of the loggers of the contexts with this name, for instance DEBUG for a single customer. It overrides the prefix levels, the default
+     * level and the level set by Logger.setLevel, the existing loggers pick it up on their next log call.
+     *
+     * @param contextName
+     *            the context name
+     * @param level
+     *            the level, null to remove the override
+     */
+    public void setLevel(final String contextName, final Level level) {
+        levels.setNameLevel(contextName, level);
+    }
+
+    /**
+     * Level of the loggers of the contexts whose name starts with the prefix, the longest matching prefix wins. It overrides the default level
+     * and the level set by Logger.setLevel, the existing loggers pick it up on their next log call.
+     *
+     * @param contextNamePrefix
+     *            the context name prefix
+     * @param level
+     *            the level, null to remove the override
+     */
+    public void setLevelByPrefix(final String contextNamePrefix, final Level level) {
+        levels.setPrefixLevel(contextNamePrefix, level);
+    }
+
+    /**
+     * Rate limit of the records of the contexts with this name, a token bucket shared by all their loggers, so a hot context does not fill the
+     * pages and evict the history of the other contexts. The records over the limit are dropped before they reach a page, their number is
+     * logged with the next record kept or when the logger is flushed. The existing loggers pick it up on their next log call.
+     *
+     * @param contextName
+     *            the context name
+     * @param recordsPerSecond
+     *            records per second, 0 to remove the limit
+     * @param burst
+     *            max records logged at once
+     */
+    public void setRateLimit(final String contextName, final double recordsPerSecond, final int burst) {
+        levels.setRateLimit(contextName, recordsPerSecond, burst);
+    }
+
+    /**
+     * Sampling of the records of a level, every record is kept or dropped at random with the probability. The number of dropped records is
+     * logged with the next record kept or when the logger is flushed. The existing loggers pick it up on their next log call.
+     *
+     * @param level
+     *            the level of the records
+     * @param probability
+     *            probability to keep a record, 1 by default
+     */
+    public void setSampling(final Level level, final double probability) {
+        levels.setSampling(level, probability);
+    }
+
+    /**
+     * Record the latency of the log calls writing a record in the metrics, it reads the clock twice per record.
+     *
+     * @param latencyTracking
+     *            true to record the latency of the log calls, false by default
+     */
+    public void setLatencyTracking(final boolean latencyTracking) {
+        metrics.setLatencyTracking(latencyTracking);
+    }
+
+    /**
+     * @return the runtime metrics of this manager
+     */
+    public LogMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Register the metrics of this manager in the platform MBean server, as com.lafaspot.logfast:type=LogManager,name=the name.
+     *
+     * @param name
+     *            the name of this manager
+     * @return the name of the MXBean
+     * @throws JMException
+     *             failure registering the MXBean, for instance a manager already registered with this name
+     */
+    public ObjectName registerMXBean(final String name) throws JMException {
+        final ObjectName objectName = mxBeanName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        return objectName;
+    }
+
+    /**
+     * @param name
+     *            the name given to registerMXBean
+     * @throws JMException
+     *             failure unregistering the MXBean, for instance no manager registered with this name
+     */
+    public void unregisterMXBean(final String name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(mxBeanName(name));
+    }
+
+    private static ObjectName mxBeanName(final String name) throws JMException {
+        return new ObjectName("com.lafaspot.logfast:type=LogManager,name=" + ObjectName.quote(name));
+    }
+
+    /**
+     * @return true if the pages are off heap
+     */
+    public boolean isOffHeap() {
+        return slab != null;
+    }
+
+    /**
+     * @return the levels of the loggers
+     */
+    LevelRegistry levels() {
+        return levels;
+    }
+
+    /**
+     * Format of the pages allocated after this call, pages already in use keep their format.
+     *
+     * @param pageFormat
+     *            page format, PageFormat.V1 by default
+     */
+    public void setPageFormat(final PageFormat pageFormat) {
+        this.pageFormat = pageFormat;
+        updateClock();
+    }
+
+    /**
+     * @return the format of new pages
+     */
+    public PageFormat getPageFormat() {
+        return pageFormat;
+    }
+
+    /**
+     * Precision of the record timestamps of the version 2 pages allocated after this call. The pages keep a base timestamp and the records a
+     * varint delta.
+     *
+     * @param timestampPrecision
+     *            timestamp precision, TimestampPrecision.MILLIS by default
+     */
+    public void setTimestampPrecision(final TimestampPrecision timestampPrecision) {
+        this.timestampPrecision = timestampPrecision;
+        updateClock();
+    }
+
+    /**
+     * The clock thread of the millisecond timestamps runs while a manager writes them, see TimestampPrecision.MILLIS.
+     */
+    private synchronized void updateClock() {
+        final boolean needed = !closed && pageFormat == PageFormat.V2 && timestampPrecision == TimestampPrecision.MILLIS;
+        if (needed != clockRetained) {
+            clockRetained = needed;
+            if (needed) {
+                CoarseClock.retain();
+            } else {
+                CoarseClock.release();
+            }
+        }
+    }
+
+    /**
+     * Stop the drain and release the clock thread of the timestamps. The loggers keep logging to the pages, the records then read the system
+     * clock.
+     *
+     * @throws InterruptedException
+     *             interrupted while waiting for the drain thread
+     */
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            updateClock();
+        }
+        stopDrain();
+    }
+
+    /**
+     * @return the timestamp precision of new pages
+     */
+    public TimestampPrecision getTimestampPrecision() {
+        return timestampPrecision;
+    }
+
+    /**
+     * Size of the first page of the loggers created after this call. A logger writing more gets larger pages, the size doubles on every rotation
+     * up to 1 Megabyte, so a logger writing a few records holds a small page. A record larger than a fixed size page of the budget mode moves
+     * the logger to a 1 Megabyte page. Off heap pages and shared pages are always 1 Megabyte.
+     *
+     * @param minPageSize
+     *            size of the first page, rounded up to a power of 2 between 4 Kilobytes, the default, and 1 Megabyte
+     */
+    public void setMinPageSize(final int minPageSize) {
+        final int size = Math.max(MIN_PAGE_BYTES, Math.min(MAX_PAGE_SIZE, minPageSize));
+        this.minPageSize = Integer.highestOneBit(size) == size ? size : Integer.highestOneBit(size) << 1;
+    }
+
+    /**
+     * @return the size of the first page of new loggers
+     */
+    public int getMinPageSize() {
+        return slab == null ? minPageSize : MAX_PAGE_SIZE;
+    }
+
+    /**
+     * @param pageSize
+     *            size of the full page of a logger
+     * @return the size of the next page of the logger
+     */
+    static int nextPageSize(final int pageSize) {
+        return Math.min(MAX_PAGE_SIZE, pageSize << 1);
+    }
+
+    /**
+     * Flight recorder mode. The loggers keep a chain of their recent pages, the current page and up to 3 full pages, and when a record at or
+     * above the trigger level is logged the chain is handed to the sink by the executor. Later triggers of the same logger hand only the records
+     * logged since the previous dump, version 2 pages are handed whole as the records need the page dictionary. Full pages stay in memory until
+     * they fall off the chain.
+     *
+     * @param triggerLevel
+     *            records at or above this level trigger a dump, for instance Level.ERROR
+     * @param sink
+     *            the destination of the pages
+     * @param executor
+     *            the executor calling the sink, the logger thread only pins the pages
+     */
+    public void setFlightRecorder(final Level triggerLevel, final LogSink sink, final Executor executor) {
+        flightRecorder = new FlightRecorder(this, triggerLevel, sink, executor);
+    }
+
+    /**
+     * Stop the flight recorder mode.
+     */
+    public void clearFlightRecorder() {
+        flightRecorder = null;
+    }
+
+    /**
+     * @return the flight recorder settings, null if off
+     */
+    FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     * Shared pages mode, for applications creating a logger per task, like a logger per virtual thread. The loggers created after this call hold
+     * no page: every processor stripe has a page shared by all the loggers, the records are encoded in a buffer lent by the stripe and appended
+     * without locks, see ConcurrentLogger. The loggers cost no page, no thread local and never block. The shared pages are version 1 pages and
+     * stay in the dump until they are full, getBytes(contextName) finds them by the names of the contexts of their records and returns only the
+     * records of the name.
+     *
+     * @param sharedPages
+     *            true for loggers writing to the shared pages, false by default
+     */
+    public void setSharedPages(final boolean sharedPages) {
+        this.sharedPages = sharedPages;
+    }
+
+    /**
+     * @return true if the new loggers write to the shared pages
+     */
+    public boolean isSharedPages() {
+        return sharedPages;
     }
 
     /**
@@ -92,30 +495,279 @@ public class LogManager {
      * @return the logger instance
      */
     public Logger getLogger(final LogContext context) {
-        return new Logger(context, level, this);
+        if (sharedPages) {
+            return new StripedLogger(context, levels.getLevel(), this);
+        }
+        return new Logger(context, levels.getLevel(), this);
+    }
+
+    /**
+     * @return the shared page writer of the stripe of the calling thread
+     */
+    SharedPageWriter stripe() {
+        return stripes[PageRegistry.shardOf(Thread.currentThread(), stripeShift)];
+    }
+
+    /**
+     * Factory of loggers shared by many threads, see ConcurrentLogger. The threads append their records to a single page instead of a page per
+     * logger.
+     *
+     * @param context
+     *            the context for this logger instance
+     * @return the logger instance
+     */
+    public Logger getConcurrentLogger(final LogContext context) {
+        return new ConcurrentLogger(context, levels.getLevel(), this);
     }
 
     /**
-     * Package protected.
+     * Package protected. The page is held by the logger until returnPage or releaseLease.
      *
      * @param logger
      *            logger
      * @param context
      *            context
-     * @return page
+     * @param chainPage
+     *            full page kept in the chain of the new page, null if none
+     * @param pageSize
+     *            size of the page, see nextPageSize
+     * @return page, null if no page is available
+     */
+    LogPage allocPage(final Logger logger, final LogContext context, final LogPage chainPage, final int pageSize) {
+        return allocPage(logger, context, chainPage, pageFormat, pageSize);
+    }
+
+    /**
+     * Package protected. The page is held by the logger until returnPage or releaseLease.
+     *
+     * @param logger
+     *            logger
+     * @param context
+     *            context, null for a page shared by many contexts
+     * @param chainPage
+     *            full page kept in the chain of the new page, null if none
+     * @param format
+     *            format of the page, version 1 for the pages of a null context
+     * @param pageSize
+     *            size of the page, a power of 2 up to MAX_PAGE_SIZE, off heap pages are always MAX_PAGE_SIZE
+     * @return page, null if no page is available
+     */
+    LogPage allocPage(final Logger logger, final LogContext context, final LogPage chainPage, final PageFormat format, final int pageSize) {
+        final long start = System.nanoTime();
+        try {
+            long lastSize = lastPageSize.get();
+            long currentSize = createdPages.get();
+            long size = currentSize - lastSize;
+            if (size > maxSize && (lastPageSize.compareAndSet(lastSize, currentSize))) {
+                cleanPages();
+            }
+            final LogPage page = obtainPage(slab == null ? pageSize : MAX_PAGE_SIZE);
+            if (page == null) {
+                // No free off heap slot or no room in the budget, no LogPage no logs.
+                return null;
+            }
+            LogPageRef nextPageRef = LogPageRef.NULL;
+            if (chainPage != null) {
+                chainPage.retain();
+                nextPageRef = new LogPageRef(chainPage);
+            }
+            page.setActive(createdPages.incrementAndGet(), nextPageRef);
+            page.setFormat(format.getVersion(), timestampPrecision.getFlags());
+            final LogPage fallen = page.removePageRefAboveLimit(MAX_LOGGER_PAGES).take();
+            if (fallen != null) {
+                metrics.recordEviction(LogMetrics.CHAIN_LIMIT);
+                release(fallen);
+            }
+            final LogPageRef pageRef = context == null ? LogPageRef.shared(page) : new LogPageRef(page, context.getName());
+            page.setPageRef(pageRef);
+            pages.add(pageRef);
+            if (context != null) {
+                index(pageRef, context.getName());
+            }
+            return page;
+        } finally {
+            metrics.recordAllocPage(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Package protected. Track a logger holding pages, its pages are returned when it becomes unreachable without a flush.
+     *
+     * @param logger
+     *            the logger
+     * @param writer
+     *            the shared pages of the logger, null if the logger holds its own page
+     * @return the reference to update with the page of the logger and to untrack on flush
+     */
+    LoggerRef track(final Logger logger, final SharedPageWriter writer) {
+        final LoggerRef loggerRef = new LoggerRef(logger, writer, this);
+        trackedLoggers.add(loggerRef);
+        return loggerRef;
+    }
+
+    /**
+     * Package protected. The logger returned its pages.
+     *
+     * @param loggerRef
+     *            the reference returned by track
+     */
+    void untrack(final LoggerRef loggerRef) {
+        trackedLoggers.remove(loggerRef);
+    }
+
+    /**
+     * Package protected. Take back the pages of a logger found unreachable by the garbage collector, called by the reclaim thread instead of by
+     * a finalizer.
+     *
+     * @param loggerRef
+     *            the reference returned by track
+     */
+    void reclaim(final LoggerRef loggerRef) {
+        if (trackedLoggers.remove(loggerRef)) {
+            loggerRef.reclaim();
+            reclaimedLoggers.getAndIncrement();
+        }
+    }
+
+    /**
+     * Package protected. Index a page by the name of the context of its records.
+     *
+     * @param pageRef
+     *            the page
+     * @param contextName
+     *            the name of the context of records of the page
+     */
+    void index(final LogPageRef pageRef, final String contextName) {
+        // add under compute, to not race with the removal of the last page of the name
+        pagesByName.compute(contextName, (name, named) -> {
+            final Set<LogPageRef> set = named == null ? new ConcurrentSkipListSet<LogPageRef>() : named;
+            set.add(pageRef);
+            return set;
+        });
+        if (pageRef.isShared() && pageRef.get() == null) {
+            // removed from the dump while the name was added
+            removeFromIndex(pageRef, contextName);
+        }
+    }
+
+    /**
+     * A pooled page of the size, or a new page when the budget has room, or a page freed by dropping the pooled pages of other sizes and then
+     * by evicting the oldest pages.
+     */
+    private LogPage obtainPage(final int pageSize) {
+        final LogPagePool pagePool = pagePools[sizeClass(pageSize)];
+        LogPage page = pagePool.acquire();
+        while (page == null && !reserve(pageSize)) {
+            if (!dropPooledPage() && !evictPages()) {
+                return null;
+            }
+            page = pagePool.acquire();
+        }
+        if (page != null) {
+            recycledPages.getAndIncrement();
+            return page;
+        }
+        page = newPage(pageSize);
+        if (page == null) {
+            ownedBytes.getAndAdd(-pageSize);
+        }
+        return page;
+    }
+
+    /**
+     * Account the bytes of a new page.
+     *
+     * @return false if the page does not fit in the budget
+     */
+    private boolean reserve(final int pageSize) {
+        long owned;
+        do {
+            owned = ownedBytes.get();
+            if (maxBytes > 0 && owned + pageSize > maxBytes) {
+                return false;
+            }
+        } while (!ownedBytes.compareAndSet(owned, owned + pageSize));
+        return true;
+    }
+
+    /**
+     * Drop a pooled page, the largest first, to give its bytes back to the budget.
+     *
+     * @return false if the pools are empty
+     */
+    private boolean dropPooledPage() {
+        for (int i = pagePools.length - 1; i >= 0; i--) {
+            final LogPage page = pagePools[i].acquire();
+            if (page != null) {
+                drop(page);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return index of the pool of the pages of this size
+     */
+    private static int sizeClass(final int pageSize) {
+        return Integer.numberOfTrailingZeros(pageSize) - Integer.numberOfTrailingZeros(MIN_PAGE_BYTES);
+    }
+
+    /**
+     * Evict the oldest pages, in page order, until one of them is released by its last holder.
+     *
+     * @return false if no page was released
      */
-    LogPageRef allocPage(final Logger logger, final LogContext context) {
-        long lastSize = lastPageSize.get();
-        long currentSize = createdPages.get();
-        long size = currentSize - lastSize;
-        if (size > maxSize && (lastPageSize.compareAndSet(lastSize, currentSize))) {
-            cleanPages();
+    private boolean evictPages() {
+        for (final LogPageRef pageRef : pages) {
+            if (pages.remove(pageRef)) {
+                removeFromIndex(pageRef);
+                deletedPages.getAndIncrement();
+                final LogPage page = pageRef.take();
+                if (page != null) {
+                    evictedPages.getAndIncrement();
+                    metrics.recordEviction(LogMetrics.BYTE_BUDGET);
+                    // take the page of an idle logger, a page being written is returned by its logger on the next record
+                    final boolean leased = page.releaseLease(pageRef.getPageIdentifier());
+                    boolean released = release(page);
+                    if (leased) {
+                        released = release(page);
+                    }
+                    if (released) {
+                        return true;
+                    }
+                }
+            }
         }
-        final LogPage page = new LogPage(createdPages.incrementAndGet(), SIZE, logger.getCurrentPage());
-        page.removePageRefAboveLimit(MAX_LOGGER_PAGES);
-        LogPageRef pageRef = new LogPageRef(page);
-        pages.add(pageRef);
-        return pageRef;
+        return false;
+    }
+
+    private void removeFromIndex(final LogPageRef pageRef) {
+        final String contextName = pageRef.getContextName();
+        if (contextName != null) {
+            removeFromIndex(pageRef, contextName);
+        }
+        for (final String sharedName : pageRef.getSharedContextNames()) {
+            removeFromIndex(pageRef, sharedName);
+        }
+    }
+
+    private void removeFromIndex(final LogPageRef pageRef, final String contextName) {
+        pagesByName.computeIfPresent(contextName, (name, named) -> {
+            named.remove(pageRef);
+            return named.isEmpty() ? null : named;
+        });
+    }
+
+    private LogPage newPage(final int pageSize) {
+        if (slab != null) {
+            return slab.allocPage(0, LogPageRef.NULL);
+        }
+        if (maxBytes > 0) {
+            // a fixed size page, it keeps the size accounted in the budget
+            return new LogPage(0, ByteBuffer.allocate(pageSize), -1, LogPageRef.NULL);
+        }
+        return new LogPage(0, pageSize, LogPageRef.NULL);
     }
 
     private class PagePredicate implements Predicate<LogPageRef> {
@@ -126,7 +778,8 @@ public class LogManager {
             if (page != null && !page.isFull()) {
                 return false;
             }
-            pageRef.clear();
+            release(pageRef.take());
+            removeFromIndex(pageRef);
             deletedPages.getAndIncrement();
             return true;
         }
@@ -147,23 +800,28 @@ public class LogManager {
             if (page != null && page.getIdentifier() > minPageId) {
                 return false;
             }
-            pageRef.clear();
+            if (page != null) {
+                metrics.recordEviction(LogMetrics.PAGE_LIMIT);
+            }
+            release(pageRef.take());
+            removeFromIndex(pageRef);
             deletedPages.getAndIncrement();
             return true;
         }
     }
 
     private void cleanPages() {
-        pages.removeIf(cleanUnused);
+        // bounded work on the logging thread, the next cleanup resumes where this one stopped
+        pages.sweep(cleanUnused, CLEAN_VISITS);
         long size = createdPages.get() - deletedPages.get();
         if (size >= maxSize) {
-            // No more memory release 50% of the active pages
-            pages.removeIf(new PageRemoveByIdPredicate(createdPages.get() - (maxSize / 2)));
+            // No more memory release 50% of the active pages, the oldest ones lead every shard
+            pages.removeOldest(new PageRemoveByIdPredicate(createdPages.get() - (maxSize / 2)));
         }
     }
 
     /**
-     * Package protected.
+     * Package protected. The page is not used by the logger after this call, so it goes back to the page pool.
      *
      * @param logger
      *            logger
@@ -173,7 +831,121 @@ public class LogManager {
      *            page
      */
     public void returnPage(final Logger logger, final LogContext context, final LogPageRef currentPageRef) {
-        currentPageRef.clear();
+        returnPage(currentPageRef.get(), currentPageRef);
+    }
+
+    /**
+     * The page leaves the dump and is not used by the logger after this call.
+     *
+     * @param page
+     *            page held by the logger, null if none
+     * @param pageRef
+     *            reference of the page
+     */
+    void returnPage(final LogPage page, final LogPageRef pageRef) {
+        if (page != null) {
+            release(pageRef.take());
+            releaseLease(page, pageRef);
+        }
+        if (pageRef != null) {
+            // the taken reference stays in the page list until the next cleanup, not in the index
+            removeFromIndex(pageRef);
+        }
+    }
+
+    /**
+     * The page is not used by the logger after this call, it stays in the dump.
+     *
+     * @param page
+     *            page held by the logger
+     * @param pageRef
+     *            reference of the page
+     */
+    void releaseLease(final LogPage page, final LogPageRef pageRef) {
+        // an evicted page was already released by the manager
+        if (page.releaseLease(pageRef.getPageIdentifier())) {
+            release(page);
+        }
+    }
+
+    /**
+     * Release a hold of a page. A page released by its last holder is drained or reused, and releases the page of its chain.
+     *
+     * @param page
+     *            the page, null if none
+     * @return true if the page was released by its last holder
+     */
+    boolean release(final LogPage page) {
+        if (page == null || !page.release()) {
+            return false;
+        }
+        LogPage released = page;
+        while (released != null) {
+            metrics.recordReleased(released.getCommittedSize(), released.getPageSize());
+            final LogPage previous = released.detachNextPage().take();
+            final LogDrain currentDrain = drain;
+            if (currentDrain == null || released.isEmpty() || !currentDrain.offer(released)) {
+                recycle(released);
+            }
+            // else the drain thread recycles the page once written
+            released = previous != null && previous.release() ? previous : null;
+        }
+        return true;
+    }
+
+    /**
+     * Reuse a page no longer read by anyone.
+     *
+     * @param page
+     *            the page
+     */
+    void recycle(final LogPage page) {
+        if (!pagePools[sizeClass(page.getPageSize())].release(page)) {
+            drop(page);
+        }
+    }
+
+    private void drop(final LogPage page) {
+        ownedBytes.getAndAdd(-page.getPageSize());
+        if (slab != null) {
+            slab.free(page);
+        }
+    }
+
+    /**
+     * Start a drain thread writing the pages of the loggers to the sink, instead of dropping them. Full pages, and the pages of flushed loggers,
+     * are handed to the drain thread through a lock free queue, the logger threads never block, when the queue is full the page is dropped. The
+     * drain thread writes the pages in batches of up to 64 pages and then reuses them. The pages of the loggers in flight recorder mode are
+     * drained when they fall off the chain of their logger.
+     *
+     * @param sink
+     *            the sink, closed by stopDrain
+     * @param capacity
+     *            max number of pages waiting for the drain thread
+     */
+    public synchronized void startDrain(final LogSink sink, final int capacity) {
+        if (drain != null) {
+            throw new IllegalStateException("Drain already started.");
+        }
+        final LogDrain newDrain = new LogDrain(this, sink, capacity);
+        newDrain.start();
+        drain = newDrain;
+    }
+
+    /**
+     * Write the pages waiting for the drain thread, stop it and close its sink. The pages returned after this call are dropped.
+     *
+     * @throws InterruptedException
+     *             interrupted while waiting for the drain thread
+     */
+    public synchronized void stopDrain() throws InterruptedException {
+        final LogDrain oldDrain = drain;
+        if (oldDrain != null) {
+            drain = null;
+            oldDrain.stop();
+            drainedPages.getAndAdd(oldDrain.getDrainedPages());
+            droppedPages.getAndAdd(oldDrain.getDroppedPages());
+        }
     }
 
     /**
@@ -187,18 +959,235 @@ public class LogManager {
      * @return page bytes in atom
      */
     public byte[] getBytes() {
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        for (LogPageRef pageRef : pages) {
-            LogPage page = pageRef.get();
-            if (page != null) {
-                try {
-                    out.write(page.getBytes());
-                } catch (IOException e) {
-                    // Ignore
+        return toByteArray(pages);
+    }
+
+    /**
+     * Records of the loggers of the contexts with the given name, see LogContext.getName. Only the pages of these loggers are read, the other
+     * pages are not touched. The records of the name are copied out of the shared pages, see setSharedPages.
+     *
+     * @param contextName
+     *            the name of the LogContext
+     * @return page bytes in atom, empty if no page of this name is live
+     */
+    public byte[] getBytes(final String contextName) {
+        final Set<LogPageRef> named = pagesByName.get(contextName);
+        return named == null ? new byte[0] : toByteArray(named, contextName);
+    }
+
+    private byte[] toByteArray(final Iterable<LogPageRef> pageRefs) {
+        return toByteArray(pageRefs, null);
+    }
+
+    /**
+     * Copy the pages straight into an array of the dump size, the only copy of the dump. The pages are held until copied.
+     */
+    private byte[] toByteArray(final Iterable<LogPageRef> pageRefs, final String contextName) {
+        final List<LogPage> held = new ArrayList<LogPage>();
+        try {
+            final List<ByteBuffer> views = new ArrayList<ByteBuffer>();
+            long size = 0;
+            for (final LogPageRef pageRef : pageRefs) {
+                final LogPage page = retain(pageRef);
+                if (page != null) {
+                    held.add(page);
+                    final ByteBuffer view = contextName != null && pageRef.isShared() ? recordsOf(page, pageRef, contextName)
+                                    : page.getCommittedBytes();
+                    size += view.remaining();
+                    views.add(view);
+                }
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Dump of " + size + " bytes does not fit in an array, use writeTo.");
+            }
+            final byte[] bytes = new byte[(int) size];
+            int offset = 0;
+            for (final ByteBuffer view : views) {
+                final int length = view.remaining();
+                view.get(bytes, offset, length);
+                offset += length;
+            }
+            return bytes;
+        } finally {
+            for (final LogPage page : held) {
+                release(page);
+            }
+        }
+    }
+
+    /**
+     * Hold the page of a reference while its bytes are read, so a concurrent return, eviction or drain does not reuse it. Call release once
+     * read.
+     *
+     * @return the page, null if the reference was cleared or the page was reused since
+     */
+    private LogPage retain(final LogPageRef pageRef) {
+        final LogPage page = pageRef.get();
+        if (page == null || !page.tryRetain()) {
+            return null;
+        }
+        if (page.getIdentifier() != pageRef.getPageIdentifier()) {
+            // released by its last holder and given to another logger
+            release(page);
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * The records of the contexts of a name in a shared page.
+     */
+    private static ByteBuffer recordsOf(final LogPage page, final LogPageRef pageRef, final String contextName) {
+        final PageBuffer out = new PageBuffer(COPY_CHUNK_SIZE);
+        try {
+            new LogDecoder().toFragments(page.getCommittedBytes(), out, serial -> contextName.equals(pageRef.getSharedContextName(serial)));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Malformed shared page " + pageRef.getPageIdentifier(), e);
+        }
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    /**
+     * Stream the pages, the same bytes as getBytes, to a blocking channel. The page bytes are written in place, with gathering writes of up to 16
+     * pages when the channel supports them.
+     *
+     * @param channel
+     *            a blocking channel, like a FileChannel or a SocketChannel in blocking mode
+     * @return number of bytes written
+     * @throws IOException
+     *             failure writing to the channel
+     */
+    public long writeTo(final WritableByteChannel channel) throws IOException {
+        final ByteBuffer[] batch = new ByteBuffer[GATHER_PAGES];
+        final LogPage[] held = new LogPage[GATHER_PAGES];
+        long written = 0;
+        int count = 0;
+        try {
+            for (final LogPageRef pageRef : pages) {
+                final LogPage page = retain(pageRef);
+                if (page != null) {
+                    held[count] = page;
+                    batch[count++] = page.getCommittedBytes();
+                    if (count == batch.length) {
+                        written += write(channel, batch, count);
+                        count = release(held, count);
+                    }
+                }
+            }
+            written += write(channel, batch, count);
+        } finally {
+            release(held, count);
+        }
+        return written;
+    }
+
+    private int release(final LogPage[] held, final int count) {
+        for (int i = 0; i < count; i++) {
+            release(held[i]);
+            held[i] = null;
+        }
+        return 0;
+    }
+
+    private static long write(final WritableByteChannel channel, final ByteBuffer[] batch, final int count) throws IOException {
+        long written = 0;
+        if (channel instanceof GatheringByteChannel) {
+            int first = 0;
+            while (first < count) {
+                written += ((GatheringByteChannel) channel).write(batch, first, count - first);
+                while (first < count && !batch[first].hasRemaining()) {
+                    batch[first++] = null;
+                }
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (batch[i].hasRemaining()) {
+                    written += channel.write(batch[i]);
                 }
+                batch[i] = null;
             }
         }
-        return out.toByteArray();
+        return written;
+    }
+
+    /**
+     * Stream the pages, the same bytes as getBytes, to an output stream. Heap pages are written in place, off heap pages through a 64 Kilobytes
+     * buffer.
+     *
+     * @param out
+     *            the output stream, not closed by this call
+     * @return number of bytes written
+     * @throws IOException
+     *             failure writing to the stream
+     */
+    public long writeTo(final OutputStream out) throws IOException {
+        byte[] chunk = null;
+        long written = 0;
+        for (final LogPageRef pageRef : pages) {
+            final LogPage page = retain(pageRef);
+            if (page == null) {
+                continue;
+            }
+            try {
+                final ByteBuffer view = page.getCommittedBytes();
+                written += view.remaining();
+                if (view.hasArray()) {
+                    out.write(view.array(), view.arrayOffset() + view.position(), view.remaining());
+                } else {
+                    if (chunk == null) {
+                        chunk = new byte[COPY_CHUNK_SIZE];
+                    }
+                    while (view.hasRemaining()) {
+                        final int length = Math.min(chunk.length, view.remaining());
+                        view.get(chunk, 0, length);
+                        out.write(chunk, 0, length);
+                    }
+                }
+            } finally {
+                release(page);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Export the pages as a self describing Avro Object Container File of LogPage.SCHEMA_STR, one deflate block per page, compressed by the
+     * common ForkJoinPool.
+     *
+     * @param out
+     *            the container file, not closed by this call
+     * @return number of bytes written
+     * @throws IOException
+     *             failure writing to the stream
+     */
+    public long writeContainerTo(final OutputStream out) throws IOException {
+        return writeContainerTo(out, ForkJoinPool.commonPool(), Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Export the pages as a self describing Avro Object Container File of LogPage.SCHEMA_STR, one deflate block per page. The blocks are
+     * compressed in parallel by the pool and written in page order, pages in any format are written as LogRecords.
+     *
+     * @param out
+     *            the container file, not closed by this call
+     * @param pool
+     *            the pool compressing the blocks
+     * @param compressionLevel
+     *            the Deflater compression level, 0 to 9
+     * @return number of bytes written
+     * @throws IOException
+     *             failure writing to the stream
+     */
+    public long writeContainerTo(final OutputStream out, final ForkJoinPool pool, final int compressionLevel) throws IOException {
+        final List<LogPage> held = new ArrayList<LogPage>();
+        for (final LogPageRef pageRef : pages) {
+            final LogPage page = retain(pageRef);
+            if (page != null) {
+                held.add(page);
+            }
+        }
+        // the writer releases every page once encoded
+        return new AvroContainerWriter(pool, compressionLevel).write(held, this::release, out);
     }
 
     /**
@@ -211,7 +1200,9 @@ public class LogManager {
     /**
      * @param isLegacy
      *            call slf4j
+     * @deprecated the slf4j call is made by the logger thread, use startDrain with a Slf4jLogSink to replay the records on the drain thread
      */
+    @Deprecated
     public void setLegacy(final boolean isLegacy) {
         this.isLegacy = isLegacy;
     }
@@ -251,6 +1242,83 @@ public class LogManager {
         public long createdPages() {
             return manager.createdPages.get();
         }
+
+        /**
+         * @return free off heap page slots, 0 when the pages are on the heap
+         */
+        public long freeOffHeapPages() {
+            return manager.slab == null ? 0 : manager.slab.freeSlots();
+        }
+
+        /**
+         * @return number of context names with pages in the index
+         */
+        public long indexedNames() {
+            return manager.pagesByName.size();
+        }
+
+        /**
+         * @return pages written by the drain sink
+         */
+        public long drainedPages() {
+            final LogDrain drain = manager.drain;
+            return manager.drainedPages.get() + (drain == null ? 0 : drain.getDrainedPages());
+        }
+
+        /**
+         * @return pages not written by the drain, queue full or sink failure
+         */
+        public long droppedPages() {
+            final LogDrain drain = manager.drain;
+            return manager.droppedPages.get() + (drain == null ? 0 : drain.getDroppedPages());
+        }
+
+        /**
+         * @return pages waiting for the drain thread
+         */
+        public long queuedPages() {
+            final LogDrain drain = manager.drain;
+            return drain == null ? 0 : drain.getQueuedPages();
+        }
+
+        /**
+         * @return bytes of the pages owned by the manager, held by the loggers, pooled, queued for the drain or read by the flight recorder
+         */
+        public long ownedBytes() {
+            return manager.ownedBytes.get();
+        }
+
+        /**
+         * @return pages evicted to keep the page bytes in the budget
+         */
+        public long evictedPages() {
+            return manager.evictedPages.get();
+        }
+
+        /**
+         * @return pages waiting in the page pools to be reused
+         */
+        public long pooledPages() {
+            long pooled = 0;
+            for (final LogPagePool pagePool : manager.pagePools) {
+                pooled += pagePool.size();
+            }
+            return pooled;
+        }
+
+        /**
+         * @return loggers whose pages were taken back after they became unreachable without a flush
+         */
+        public long reclaimedLoggers() {
+            return manager.reclaimedLoggers.get();
+        }
+
+        /**
+         * @return created pages that reused a page from the page pool
+         */
+        public long recycledPages() {
+            return manager.recycledPages.get();
+        }
     }
 
     /**
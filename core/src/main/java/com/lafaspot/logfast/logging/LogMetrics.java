@@ -0,0 +1,238 @@
+package com.lafaspot.logfast.logging;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LatencyHistogram;
+
+/**
+ * Runtime metrics of a LogManager, recorded without locks: striped counters for the records and the pages, and log-linear histograms for the
+ * latencies. The counters are always on, the latency of the log calls is only recorded when LogManager.setLatencyTracking is on, as it reads the
+ * clock twice per record.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class LogMetrics implements LogMetricsMXBean {
+    /**
+     * Eviction of live pages over the max number of pages of the manager.
+     */
+    public static final int PAGE_LIMIT = 0;
+    /**
+     * Eviction of the oldest pages to stay in the byte budget of the manager.
+     */
+    public static final int BYTE_BUDGET = 1;
+    /**
+     * Full pages falling off the chain of a logger in flight recorder mode.
+     */
+    public static final int CHAIN_LIMIT = 2;
+
+    private static final String[] CAUSES = { "PAGE_LIMIT", "BYTE_BUDGET", "CHAIN_LIMIT" };
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+    private final LogManager manager;
+    private final LongAdder[] records = newAdders(Logger.TRACEINT + 1);
+    private final LongAdder[] bytes = newAdders(Logger.TRACEINT + 1);
+    private final LongAdder droppedRecords = new LongAdder();
+    private final LongAdder[] evictions = newAdders(CAUSES.length);
+    private final LongAdder releasedBytes = new LongAdder();
+    private final LongAdder releasedPageBytes = new LongAdder();
+    private final LatencyHistogram allocPageLatency = new LatencyHistogram();
+    private final LatencyHistogram logCallLatency = new LatencyHistogram();
+    private volatile boolean latencyTracking;
+
+    /**
+     * @param manager
+     *            the manager of the metrics
+     */
+    LogMetrics(final LogManager manager) {
+        this.manager = manager;
+    }
+
+    private static LongAdder[] newAdders(final int length) {
+        final LongAdder[] adders = new LongAdder[length];
+        for (int i = 0; i < length; i++) {
+            adders[i] = new LongAdder();
+        }
+        return adders;
+    }
+
+    /**
+     * @param latencyTracking
+     *            true to record the latency of the log calls
+     */
+    void setLatencyTracking(final boolean latencyTracking) {
+        this.latencyTracking = latencyTracking;
+    }
+
+    /**
+     * @return the start of a log call for recordLogCall, 0 when the latency is not tracked
+     */
+    long startLogCall() {
+        return latencyTracking ? System.nanoTime() : 0;
+    }
+
+    /**
+     * @param start
+     *            the value returned by startLogCall
+     */
+    void recordLogCall(final long start) {
+        if (start != 0) {
+            logCallLatency.record(System.nanoTime() - start);
+        }
+    }
+
+    void recordAllocPage(final long nanos) {
+        allocPageLatency.record(nanos);
+    }
+
+    void recordWritten(final int level, final int recordBytes) {
+        records[level].increment();
+        bytes[level].add(recordBytes);
+    }
+
+    void recordDropped() {
+        droppedRecords.increment();
+    }
+
+    void recordEviction(final int cause) {
+        evictions[cause].increment();
+    }
+
+    void recordReleased(final int committedBytes, final int pageBytes) {
+        releasedBytes.add(committedBytes);
+        releasedPageBytes.add(pageBytes);
+    }
+
+    /**
+     * @param level
+     *            the level
+     * @return records written to the pages at this level
+     */
+    public long getRecords(final Level level) {
+        return records[level.getNumeric()].sum();
+    }
+
+    /**
+     * @param level
+     *            the level
+     * @return bytes of the records written to the pages at this level
+     */
+    public long getBytes(final Level level) {
+        return bytes[level.getNumeric()].sum();
+    }
+
+    /**
+     * @param cause
+     *            PAGE_LIMIT, BYTE_BUDGET or CHAIN_LIMIT
+     * @return pages evicted for this cause
+     */
+    public long getEvictions(final int cause) {
+        return evictions[cause].sum();
+    }
+
+    /**
+     * @return the histogram of the allocPage latencies
+     */
+    public LatencyHistogram allocPageLatency() {
+        return allocPageLatency;
+    }
+
+    /**
+     * @return the histogram of the log call latencies
+     */
+    public LatencyHistogram logCallLatency() {
+        return logCallLatency;
+    }
+
+    @Override
+    public Map<String, Long> getRecordsByLevel() {
+        return byLevel(records);
+    }
+
+    @Override
+    public Map<String, Long> getBytesByLevel() {
+        return byLevel(bytes);
+    }
+
+    @Override
+    public long getDroppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    @Override
+    public double getPageFillRatio() {
+        final long pageBytes = releasedPageBytes.sum();
+        return pageBytes == 0 ? 0 : (double) releasedBytes.sum() / pageBytes;
+    }
+
+    @Override
+    public Map<String, Long> getEvictionsByCause() {
+        final Map<String, Long> byCause = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < CAUSES.length; i++) {
+            byCause.put(CAUSES[i], evictions[i].sum());
+        }
+        return Collections.unmodifiableMap(byCause);
+    }
+
+    @Override
+    public long getHeapBytes() {
+        return manager.isOffHeap() ? 0 : manager.stats().ownedBytes();
+    }
+
+    @Override
+    public long getOwnedBytes() {
+        return manager.stats().ownedBytes();
+    }
+
+    @Override
+    public long getActivePages() {
+        return manager.stats().activePages();
+    }
+
+    @Override
+    public long getCreatedPages() {
+        return manager.stats().createdPages();
+    }
+
+    @Override
+    public long getDroppedPages() {
+        return manager.stats().droppedPages();
+    }
+
+    @Override
+    public Map<String, Long> getAllocPageLatency() {
+        return summary(allocPageLatency);
+    }
+
+    @Override
+    public Map<String, Long> getLogCallLatency() {
+        return summary(logCallLatency);
+    }
+
+    private static Map<String, Long> byLevel(final LongAdder[] adders) {
+        final Map<String, Long> byLevel = new LinkedHashMap<String, Long>();
+        for (final Level level : Level.values()) {
+            byLevel.put(level.name(), adders[level.getNumeric()].sum());
+        }
+        return Collections.unmodifiableMap(byLevel);
+    }
+
+    private static Map<String, Long> summary(final LatencyHistogram histogram) {
+        final Map<String, Long> summary = new LinkedHashMap<String, Long>();
+        summary.put("count", histogram.getCount());
+        summary.put("mean", histogram.getMean());
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            summary.put(PERCENTILE_NAMES[i], histogram.getValueAtPercentile(PERCENTILES[i]));
+        }
+        summary.put("max", histogram.getMax());
+        return Collections.unmodifiableMap(summary);
+    }
+}
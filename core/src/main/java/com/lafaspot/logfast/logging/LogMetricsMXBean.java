@@ -0,0 +1,72 @@
+package com.lafaspot.logfast.logging;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a LogManager, see LogManager.registerMXBean. The latencies are in nanoseconds, by statistic: count, mean, p50, p90,
+ * p99, p999 and max.
+ *
+ * @author lafa
+ *
+ */
+public interface LogMetricsMXBean {
+    /**
+     * @return records written to the pages, by level name
+     */
+    Map<String, Long> getRecordsByLevel();
+
+    /**
+     * @return bytes of the records written to the pages, by level name
+     */
+    Map<String, Long> getBytesByLevel();
+
+    /**
+     * @return records dropped because no page was available or the record did not fit in a page
+     */
+    long getDroppedRecords();
+
+    /**
+     * @return committed bytes over page bytes of the pages released by their last holder
+     */
+    double getPageFillRatio();
+
+    /**
+     * @return pages of history dropped before their logger returned them, by cause: PAGE_LIMIT, BYTE_BUDGET and CHAIN_LIMIT
+     */
+    Map<String, Long> getEvictionsByCause();
+
+    /**
+     * @return bytes of the heap pages owned by the manager
+     */
+    long getHeapBytes();
+
+    /**
+     * @return bytes of the pages owned by the manager, on or off heap
+     */
+    long getOwnedBytes();
+
+    /**
+     * @return current active pages
+     */
+    long getActivePages();
+
+    /**
+     * @return pages created since the start
+     */
+    long getCreatedPages();
+
+    /**
+     * @return pages dropped because the drain queue was full
+     */
+    long getDroppedPages();
+
+    /**
+     * @return latency of LogManager.allocPage
+     */
+    Map<String, Long> getAllocPageLatency();
+
+    /**
+     * @return latency of the log calls writing a record, when LogManager.setLatencyTracking is on
+     */
+    Map<String, Long> getLogCallLatency();
+}
@@ -0,0 +1,57 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Destination of the pages written out of memory, by the drain thread, see LogManager.startDrain, or by the flight recorder, see
+ * LogManager.setFlightRecorder. It is called by the drain thread or the executor of the flight recorder, never by the logger threads.
+ *
+ * @author lafa
+ *
+ */
+public interface LogSink extends Closeable {
+    /**
+     * @param pages
+     *            the bytes of a batch of pages, from position to limit, in the format of LogManager.getBytes. The buffers are views of the pages
+     *            and are valid only during this call.
+     * @throws IOException
+     *             failure writing the pages, logged and ignored
+     */
+    void write(List<ByteBuffer> pages) throws IOException;
+
+    /**
+     * Pages of a flight recorder dump, written with write(pages) by default.
+     *
+     * @param context
+     *            context of the logger that logged the trigger record
+     * @param pages
+     *            the bytes of the recent pages of the logger, oldest first, see write(pages)
+     * @throws IOException
+     *             failure writing the pages, logged and ignored
+     */
+    default void write(final LogContext context, final List<ByteBuffer> pages) throws IOException {
+        write(pages);
+    }
+
+    /**
+     * Called by the drain thread when it has no more pages to write.
+     *
+     * @throws IOException
+     *             failure flushing the pages
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * Called once the drain thread is stopped.
+     *
+     * @throws IOException
+     *             failure closing the sink
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,80 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+
+/**
+ * Writer given to Loggable objects. The page writer encodes the text as UTF-8 straight into the log page, numbers are written without creating a
+ * String.
+ *
+ * @author lafa
+ *
+ */
+public interface LogWriter extends Appendable {
+    @Override
+    LogWriter append(CharSequence csq) throws IOException;
+
+    @Override
+    LogWriter append(CharSequence csq, int start, int end) throws IOException;
+
+    @Override
+    LogWriter append(char c) throws IOException;
+
+    /**
+     * @param value
+     *            the value, written as Long.toString
+     * @return itself
+     * @throws IOException
+     *             the page has no room left
+     */
+    LogWriter append(long value) throws IOException;
+
+    /**
+     * @param value
+     *            the value, written as Double.toString
+     * @return itself
+     * @throws IOException
+     *             the page has no room left
+     */
+    default LogWriter append(final double value) throws IOException {
+        return append(Double.toString(value));
+    }
+
+    /**
+     * @param value
+     *            the value, written as Boolean.toString
+     * @return itself
+     * @throws IOException
+     *             the page has no room left
+     */
+    default LogWriter append(final boolean value) throws IOException {
+        return append(value ? "true" : "false");
+    }
+
+    /**
+     * @param value
+     *            a Loggable is written with writeTo, boxed integral numbers, doubles and booleans unboxed, other objects with toString and null as
+     *            "null"
+     * @return itself
+     * @throws IOException
+     *             the page has no room left
+     */
+    default LogWriter append(final Object value) throws IOException {
+        if (value instanceof Loggable) {
+            ((Loggable) value).writeTo(this);
+            return this;
+        }
+        if (value instanceof CharSequence) {
+            return append((CharSequence) value);
+        }
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return append(((Number) value).longValue());
+        }
+        if (value instanceof Double) {
+            return append(((Double) value).doubleValue());
+        }
+        if (value instanceof Boolean) {
+            return append(((Boolean) value).booleanValue());
+        }
+        return append(String.valueOf(value));
+    }
+}
@@ -0,0 +1,22 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+
+/**
+ * Log data that writes itself into the log page. The Logger calls writeTo instead of toString, so the data is encoded straight into the page
+ * buffer without building a String.
+ *
+ * @author lafa
+ *
+ */
+public interface Loggable {
+    /**
+     * Write the text of this object, the same text toString would return.
+     *
+     * @param writer
+     *            the page writer, valid only during this call
+     * @throws IOException
+     *             the page has no room left, let it propagate so the record is logged on a new page
+     */
+    void writeTo(LogWriter writer) throws IOException;
+}
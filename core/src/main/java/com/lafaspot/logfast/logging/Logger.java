@@ -1,9 +1,20 @@
 package com.lafaspot.logfast.logging;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 import javax.annotation.concurrent.NotThreadSafe;
 
+import com.lafaspot.logfast.logging.internal.CoarseClock;
+import com.lafaspot.logfast.logging.internal.LogArguments;
 import com.lafaspot.logfast.logging.internal.LogPage;
 import com.lafaspot.logfast.logging.internal.LogPageRef;
+import com.lafaspot.logfast.logging.internal.PageEncoding;
+import com.lafaspot.logfast.logging.internal.TemplateFormatter;
+import com.lafaspot.logfast.logging.internal.TokenBucket;
 
 /**
  * Logger is a implementation to be used in multi-threaded application. The main goal of this Logger is to reduce log contention between threads and
@@ -25,6 +36,12 @@ public class Logger {
     static final int DEBUGINT = 5;
     static final int TRACEINT = 6;
 
+    // record logged before the first record kept after records dropped by the rate limits or the sampling, or on flush
+    private static final String DROPPED_TEMPLATE = "{} records dropped by the rate limit or the sampling";
+    // record logged after the last repeat of a record, with the number of repeats and the time of the first record and of the last repeat
+    private static final String REPEAT_TEMPLATE = "previous record repeated {} times from {} to {}";
+    private static final AtomicLongFieldUpdater<Logger> DROPPED_RECORDS = AtomicLongFieldUpdater.newUpdater(Logger.class, "droppedRecords");
+
     /**
      * The class defines the various log levels at which the data needs to be logged.
      *
@@ -109,27 +126,133 @@ public class Logger {
         private int numeric;
     }
 
+    // slf4j logger of the legacy mode, null otherwise
     private final org.slf4j.Logger logger;
     private final LogManager manager;
     private LogPageRef currentPageRef;
+    // page held by this logger, until it is returned or evicted
+    private LogPage currentPage;
+    private long currentPageId;
+    // size of the next page, it grows with every full page
+    private int nextPageSize;
+    // tracks the page for the manager while the logger holds one, null otherwise
+    private LoggerRef loggerRef;
     private final LogContext context;
     private final boolean legacy;
-    private volatile int curLevel;
+    // pages can be evicted by the manager, the writes are guarded by the page lease
+    private final boolean guarded;
+    private final LevelRegistry levels;
+    private final LogMetrics metrics;
+    // level set by setLevel, null to follow the default level of the manager
+    private volatile Level loggerLevel;
+    // level minus the stamp of the manager levels it was resolved with, see isLevel
+    private volatile int levelGate;
+    private volatile int levelStamp;
+    // rate limit of the logger and of its context name, and sampling by level, null if none
+    private volatile TokenBucket rateLimit;
+    private volatile TokenBucket contextRateLimit;
+    private volatile double[] sampling;
+    // records dropped by the rate limits or the sampling, logged with the next record kept or on flush
+    private volatile long droppedRecords;
+    // repeats of the last record counted instead of written, null if off
+    private RepeatFilter repeatFilter;
     private final boolean isDumpStackOn;
+    // arguments of the template log calls, reused, created by the first template call
+    private LogArguments arguments;
+    // arguments of the repeat records, written while the arguments of the caller are in use
+    private LogArguments repeatArguments;
+    // last page and bytes handed to the flight recorder
+    private long dumpedPageId;
+    private int dumpedBytes;
 
     /**
      * @return log level
      */
     public int getLevel() {
-        return curLevel;
+        final int stamp = levels.stamp();
+        return stamp == levelStamp ? levelGate + stamp : refreshLevel(stamp);
     }
 
     /**
+     * Level of this logger instead of the default level of the manager, the context name and prefix levels of the manager still override it.
+     *
      * @param level
      *            log level
      */
     public void setLevel(final Level level) {
-        curLevel = level.getNumeric();
+        loggerLevel = level;
+        refreshLevel(levels.stamp());
+    }
+
+    /**
+     * Rate limit of this logger, in addition to the rate limit of its context name, see LogManager.setRateLimit.
+     *
+     * @param recordsPerSecond
+     *            records per second, 0 to remove the limit
+     * @param burst
+     *            max records logged at once
+     */
+    public void setRateLimit(final double recordsPerSecond, final int burst) {
+        rateLimit = recordsPerSecond > 0 ? new TokenBucket(recordsPerSecond, burst) : null;
+    }
+
+    /**
+     * Repeat window of this logger. A record equal to the last record written, same level, String data or template with primitive or String
+     * arguments, and exception class, within the window after that record is counted instead of written. The count is written with the time
+     * of the first record and of the last repeat as a record of the same level, before the next record that is not counted, the first record
+     * after the window included, or on flush. ConcurrentLogger and the loggers of the shared pages mode do not count repeats.
+     *
+     * @param millis
+     *            milliseconds after a record during which its repeats are counted, 0 to write every record
+     */
+    public void setRepeatWindow(final long millis) {
+        writeRepeats();
+        repeatFilter = millis > 0 ? new RepeatFilter(millis) : null;
+    }
+
+    /**
+     * @return true if the record is a repeat of the last record, counted instead of written
+     */
+    private boolean isRepeat(final int level, final Object data, final LogArguments args, final Throwable e) {
+        final RepeatFilter filter = repeatFilter;
+        final long now = CoarseClock.currentTimeMillis();
+        if (data instanceof String && filter.isRepeat(level, (String) data, args, e, now)) {
+            return true;
+        }
+        writeRepeats();
+        filter.remember(level, data, args, e, now);
+        return false;
+    }
+
+    /**
+     * Write the repeats of the last record not written yet.
+     */
+    private void writeRepeats() {
+        final RepeatFilter filter = repeatFilter;
+        if (filter != null && filter.getRepeats() > 0) {
+            if (repeatArguments == null) {
+                repeatArguments = new LogArguments();
+            }
+            final LogArguments repeats = repeatArguments.add(filter.getRepeats()).add(filter.getFirst()).add(filter.getLast());
+            filter.clearRepeats();
+            writeTemplate(filter.getLevel(), REPEAT_TEMPLATE, repeats);
+            repeats.reset();
+        }
+    }
+
+    /**
+     * Resolve the level, the context rate limit and the sampling of the logger with the manager levels of this stamp.
+     *
+     * @return the level
+     */
+    private int refreshLevel(final int stamp) {
+        final String name = context == null ? null : context.getName();
+        final int level = levels.levelOf(name, loggerLevel);
+        contextRateLimit = levels.rateLimitOf(name);
+        sampling = levels.sampling();
+        levelGate = level - stamp;
+        levelStamp = stamp;
+        return level;
     }
 
     /**
@@ -143,28 +266,96 @@ public class Logger {
      *            the manager instance that owns this logger instance
      */
     protected Logger(final LogContext context, final Level level, final LogManager manager) {
-        logger = org.slf4j.LoggerFactory.getLogger(context.getName());
         this.manager = manager;
         this.context = context;
         legacy = manager.isLegacy();
-        curLevel = level.getNumeric();
+        logger = legacy ? org.slf4j.LoggerFactory.getLogger(context.getName()) : null;
+        guarded = manager.getMaxBytes() > 0;
+        levels = manager.levels();
+        metrics = manager.metrics();
+        // a level other than the default level of the manager is the level of this logger
+        loggerLevel = level == levels.getLevel() ? null : level;
+        refreshLevel(levels.stamp());
         isDumpStackOn = manager.isDumpStackOn();
         currentPageRef = LogPageRef.NULL;
+        nextPageSize = manager.getMinPageSize();
     }
 
     private void rotate() {
-        LogPage page = currentPageRef.get();
-        if (page == null) {
-            currentPageRef = manager.allocPage(this, context);
-            page = currentPageRef.get();
+        final LogPage page = currentPage;
+        if (page != null && currentPageRef.get() == null) {
+            // removed from the dump by the manager
+            manager.returnPage(page, currentPageRef);
+            setPage(manager.allocPage(this, context, null, nextPageSize));
+        } else if (page == null) {
+            setPage(manager.allocPage(this, context, null, nextPageSize));
+        } else if (page.isFull()) {
+            nextPageSize = LogManager.nextPageSize(page.getPageSize());
+            if (manager.getFlightRecorder() != null) {
+                // keep the full page in the chain of the new page, for the flight recorder
+                final LogPage next = manager.allocPage(this, context, page, nextPageSize);
+                manager.releaseLease(page, currentPageRef);
+                setPage(next);
+            } else {
+                manager.returnPage(page, currentPageRef);
+                setPage(manager.allocPage(this, context, null, nextPageSize));
+            }
         }
+    }
+
+    private void setPage(final LogPage page) {
+        currentPage = page;
+        currentPageRef = page == null ? LogPageRef.NULL : page.getPageRef();
+        currentPageId = currentPageRef.getPageIdentifier();
+        if (page != null && loggerRef == null) {
+            loggerRef = manager.track(this, null);
+        }
+        if (loggerRef != null) {
+            loggerRef.setPage(page, currentPageRef);
+        }
+    }
+
+    /**
+     * @return the page to write the next record to, null if no page is available. In guarded mode the write must be followed by endWrite.
+     */
+    private LogPage beginWrite() {
+        rotate();
+        LogPage page = currentPage;
+        if (page != null && guarded && !page.enterWrite(currentPageId)) {
+            // evicted by the manager, the page is not ours any more
+            setPage(null);
+            rotate();
+            page = currentPage;
+            if (page != null && !page.enterWrite(currentPageId)) {
+                setPage(null);
+                page = null;
+            }
+        }
+        return page;
+    }
 
-        if (page != null && page.isFull()) {
-            manager.returnPage(this, context, currentPageRef);
-            currentPageRef = manager.allocPage(this, context);
+    private void endWrite(final LogPage page) {
+        if (guarded && page != null) {
+            page.exitWrite(currentPageId);
         }
     }
 
+    /**
+     * The record did not fit in the fixed size page, the page is full or the record is larger than the empty page.
+     *
+     * @return the page to retry the record on, null if no page is available
+     */
+    private LogPage retryWrite(final LogPage page) {
+        endWrite(page);
+        if (!page.isFull() && page.getPageSize() < LogManager.MAX_PAGE_SIZE) {
+            // move to the largest page, the empty page goes back to the pool
+            nextPageSize = LogManager.MAX_PAGE_SIZE;
+            manager.returnPage(page, currentPageRef);
+            setPage(null);
+        }
+        return beginWrite();
+    }
+
     /**
      * @param data
      *            log data object
@@ -225,20 +416,753 @@ public class Logger {
         log(Logger.TRACEINT, data, e);
     }
 
-    private void log(final int level, final Object data, final Throwable e) {
-        if (level <= curLevel && context != null && data != null) {
-            rotate();
+    /**
+     * Log a record, the level is not checked by the callers.
+     */
+    void log(final int level, final Object data, final Throwable e) {
+        if (isLevel(level) && context != null && data != null && admit(level) && (repeatFilter == null || !isRepeat(level, data, null, e))) {
+            final long start = metrics.startLogCall();
             // No LogPage no logs. Be fast in case LogPages are not available.
-            LogPage page = currentPageRef.get();
+            LogPage page = beginWrite();
             if (page != null) {
                 if (legacy) {
                     if (logger.isDebugEnabled()) {
                         logger.debug(context.toString() + " " + data.toString(), e);
                     }
                 }
-                page.log(context, level, data, e, isDumpStackOn);
+                try {
+                    int committed = page.getCommittedSize();
+                    boolean written = page.log(context, level, data, e, isDumpStackOn);
+                    if (!written) {
+                        // fixed size page without room for the record, retry once on a new page
+                        page = retryWrite(page);
+                        if (page != null) {
+                            committed = page.getCommittedSize();
+                            written = page.log(context, level, data, e, isDumpStackOn);
+                        }
+                    }
+                    written(page, written, level, committed);
+                    // the chain is handed while the page is guarded
+                    trigger(level);
+                } finally {
+                    endWrite(page);
+                }
+            } else {
+                metrics.recordDropped();
+            }
+            metrics.recordLogCall(start);
+        }
+    }
+
+    // Message templates, the {} placeholders are replaced by the arguments when the page is read. The fixed arity forms keep a disabled level
+    // from allocating a varargs array, the primitive forms from boxing. The first argument is never part of the varargs to keep calls like
+    // info(message, null) resolving to info(Object, Throwable).
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void fatal(final String template, final long a) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void fatal(final String template, final long a, final long b) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void fatal(final String template, final double a, final long b) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void fatal(final String template, final Object a, final long b) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void fatal(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void fatal(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void fatal(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.FATALINT) && admit(Logger.FATALINT)) {
+            logTemplate(Logger.FATALINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void error(final String template, final long a) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void error(final String template, final long a, final long b) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void error(final String template, final double a, final long b) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void error(final String template, final Object a, final long b) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void error(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void error(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void error(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.ERRORINT) && admit(Logger.ERRORINT)) {
+            logTemplate(Logger.ERRORINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void warn(final String template, final long a) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void warn(final String template, final long a, final long b) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void warn(final String template, final double a, final long b) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void warn(final String template, final Object a, final long b) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void warn(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void warn(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void warn(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.WARNINT) && admit(Logger.WARNINT)) {
+            logTemplate(Logger.WARNINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void info(final String template, final long a) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void info(final String template, final long a, final long b) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void info(final String template, final double a, final long b) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void info(final String template, final Object a, final long b) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void info(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void info(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void info(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.INFOINT) && admit(Logger.INFOINT)) {
+            logTemplate(Logger.INFOINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void debug(final String template, final long a) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void debug(final String template, final long a, final long b) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void debug(final String template, final double a, final long b) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void debug(final String template, final Object a, final long b) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void debug(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void debug(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void debug(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.DEBUGINT) && admit(Logger.DEBUGINT)) {
+            logTemplate(Logger.DEBUGINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            argument
+     */
+    public void trace(final String template, final long a) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void trace(final String template, final long a, final long b) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void trace(final String template, final double a, final long b) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void trace(final String template, final Object a, final long b) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     */
+    public void trace(final String template, final Object a, final Object b) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).add(b));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param b
+     *            second argument
+     * @param c
+     *            third argument
+     */
+    public void trace(final String template, final Object a, final Object b, final Object c) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).add(b).add(c));
+        }
+    }
+
+    /**
+     * @param template
+     *            message template
+     * @param a
+     *            first argument
+     * @param more
+     *            other arguments
+     */
+    public void trace(final String template, final Object a, final Object... more) {
+        if (isLevel(Logger.TRACEINT) && admit(Logger.TRACEINT)) {
+            logTemplate(Logger.TRACEINT, template, arguments().add(a).addAll(more));
+        }
+    }
+
+    /**
+     * @return the arguments of the next template call, reset
+     */
+    LogArguments arguments() {
+        if (arguments == null) {
+            arguments = new LogArguments();
+        }
+        arguments.reset();
+        return arguments;
+    }
+
+    /**
+     * Log a template record, the level is checked by the callers. The arguments are reset by this call.
+     */
+    void logTemplate(final int level, final String template, final LogArguments args) {
+        if (repeatFilter == null || template == null || !isRepeat(level, template, args, null)) {
+            writeTemplate(level, template, args);
+        }
+        args.reset();
+    }
+
+    private void writeTemplate(final int level, final String template, final LogArguments args) {
+        if (context != null && template != null) {
+            final long start = metrics.startLogCall();
+            // No LogPage no logs. Be fast in case LogPages are not available.
+            LogPage page = beginWrite();
+            if (page != null) {
+                if (legacy) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(TemplateFormatter.format(new StringBuilder(context.toString()).append(' '), template, args).toString());
+                    }
+                }
+                try {
+                    int committed = page.getCommittedSize();
+                    boolean written = page.log(context, level, template, args);
+                    if (!written) {
+                        // fixed size page without room for the record, retry once on a new page
+                        page = retryWrite(page);
+                        if (page != null) {
+                            committed = page.getCommittedSize();
+                            written = page.log(context, level, template, args);
+                        }
+                    }
+                    written(page, written, level, committed);
+                    // the chain is handed while the page is guarded
+                    trigger(level);
+                } finally {
+                    endWrite(page);
+                }
+            } else {
+                metrics.recordDropped();
+            }
+            metrics.recordLogCall(start);
+        }
+    }
+
+    /**
+     * Count the record in the metrics.
+     *
+     * @param page
+     *            the page of the record, null if no page was available
+     * @param written
+     *            true if the record is in the page
+     * @param level
+     *            the level of the record
+     * @param committed
+     *            committed bytes of the page before the record
+     */
+    private void written(final LogPage page, final boolean written, final int level, final int committed) {
+        if (written) {
+            metrics.recordWritten(level, page.getCommittedSize() - committed);
+        } else {
+            metrics.recordDropped();
+        }
+    }
+
+    private void trigger(final int level) {
+        final FlightRecorder recorder = manager.getFlightRecorder();
+        if (recorder != null && recorder.isTrigger(level)) {
+            dumpChain(recorder);
+        }
+    }
+
+    /**
+     * Hand the page chain, up to the bytes handed by the previous dump, to the flight recorder.
+     */
+    private void dumpChain(final FlightRecorder recorder) {
+        final List<LogPage> chain = new ArrayList<LogPage>(LogManager.MAX_LOGGER_PAGES + 1);
+        LogPage page = currentPage;
+        while (page != null && chain.size() <= LogManager.MAX_LOGGER_PAGES) {
+            final long pageId = page.getIdentifier();
+            if (pageId < dumpedPageId) {
+                break;
+            }
+            chain.add(page);
+            if (pageId == dumpedPageId) {
+                break;
+            }
+            page = page.getNextPage().get();
+        }
+        if (chain.isEmpty()) {
+            return;
+        }
+        final List<ByteBuffer> views = new ArrayList<ByteBuffer>(chain.size());
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            final LogPage chainPage = chain.get(i);
+            chainPage.retain();
+            final ByteBuffer view = chainPage.getCommittedBytes();
+            // version 2 records need the page dictionary, hand the whole page again
+            if (chainPage.getIdentifier() == dumpedPageId && chainPage.getFormat() == PageEncoding.VERSION_1) {
+                view.position(Math.min(dumpedBytes, view.limit()));
             }
+            views.add(view);
         }
+        dumpedPageId = chain.get(0).getIdentifier();
+        dumpedBytes = views.get(views.size() - 1).limit();
+        recorder.dump(context, chain, views);
     }
 
     /**
@@ -283,26 +1207,77 @@ public class Logger {
         return isLevel(Logger.TRACEINT);
     }
 
-    private boolean isLevel(final int level) {
-        return level <= curLevel;
+    /**
+     * Apply the sampling and the rate limits to an enabled record, without locks. The first record kept after dropped records is preceded by a
+     * record with the number of dropped records.
+     *
+     * @param level
+     *            the level of the record
+     * @return true if the record is kept
+     */
+    boolean admit(final int level) {
+        final double[] keep = sampling;
+        final TokenBucket loggerLimit = rateLimit;
+        final TokenBucket contextLimit = contextRateLimit;
+        if ((keep != null && ThreadLocalRandom.current().nextDouble() >= keep[level]) || (loggerLimit != null && !loggerLimit.tryAcquire())) {
+            DROPPED_RECORDS.incrementAndGet(this);
+            return false;
+        }
+        if (contextLimit != null && !contextLimit.tryAcquire()) {
+            // the record is not logged, the token of the logger is not spent
+            if (loggerLimit != null) {
+                loggerLimit.refund();
+            }
+            DROPPED_RECORDS.incrementAndGet(this);
+            return false;
+        }
+        writeDropped();
+        return true;
+    }
+
+    /**
+     * Write the number of records dropped since the last record kept, called before the next record kept and when the logger returns its page,
+     * so the count is not lost when no record follows.
+     */
+    void writeDropped() {
+        if (droppedRecords > 0) {
+            final long dropped = DROPPED_RECORDS.getAndSet(this, 0);
+            if (dropped > 0) {
+                // called before the arguments of the record kept are added
+                logTemplate(Logger.WARNINT, DROPPED_TEMPLATE, arguments().add(dropped));
+            }
+        }
+    }
+
+    /**
+     * A disabled level costs a single compare: the gate plus the current stamp is the level of the logger while the stamp is unchanged, and
+     * exceeds every level once the manager levels change, so the level is resolved again.
+     *
+     * @param level
+     *            the level of a record
+     * @return true if level is on
+     */
+    boolean isLevel(final int level) {
+        final int stamp = levels.stamp();
+        return level <= levelGate + stamp && (stamp == levelStamp || level <= refreshLevel(stamp));
     }
 
     /**
      * Call this in case the logger is not going to be used any more or for a long time.
      */
     public void flush() {
-        manager.returnPage(this, context, currentPageRef);
-        currentPageRef = LogPageRef.NULL;
+        writeDropped();
+        writeRepeats();
+        manager.returnPage(currentPage, currentPageRef);
+        setPage(null);
+        if (loggerRef != null) {
+            manager.untrack(loggerRef);
+            loggerRef = null;
+        }
     }
 
     protected LogPageRef getCurrentPage() {
         return currentPageRef;
     }
 
-    @Override
-    protected void finalize() throws Throwable {
-        super.finalize();
-        flush();
-    }
-
 }
@@ -0,0 +1,84 @@
+package com.lafaspot.logfast.logging;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.LogPageRef;
+
+/**
+ * Phantom reference of a logger holding a page, enqueued by the garbage collector once the logger is unreachable so the manager takes the page
+ * back, see LogManager.reclaim. The reference keeps the page of the logger, never the logger itself. A daemon thread shared by the managers
+ * waits for the unreachable loggers, the logger threads never poll the queue.
+ *
+ * @author lafa
+ *
+ */
+final class LoggerRef extends PhantomReference<Logger> {
+    private static final org.slf4j.Logger LOG = org.slf4j.LoggerFactory.getLogger(LoggerRef.class);
+    // Loggers of all the managers found unreachable by the garbage collector.
+    private static final ReferenceQueue<Logger> UNREACHABLE = new ReferenceQueue<Logger>();
+
+    static {
+        final Thread reclaimer = new Thread(LoggerRef::reclaimUnreachable, "logfast-reclaim");
+        reclaimer.setDaemon(true);
+        reclaimer.start();
+    }
+
+    private final LogManager manager;
+    // Page held by the logger, only written by the logger thread until the logger is unreachable.
+    private LogPage page;
+    private LogPageRef pageRef = LogPageRef.NULL;
+    // Shared pages of a ConcurrentLogger, null for the loggers holding a page.
+    private final SharedPageWriter writer;
+
+    /**
+     * @param logger
+     *            the logger
+     * @param writer
+     *            the shared pages of the logger, null if none
+     * @param manager
+     *            the manager of the pages
+     */
+    LoggerRef(final Logger logger, final SharedPageWriter writer, final LogManager manager) {
+        super(logger, UNREACHABLE);
+        this.writer = writer;
+        this.manager = manager;
+    }
+
+    /**
+     * @param page
+     *            the page of the logger, null if none
+     * @param pageRef
+     *            the reference of the page
+     */
+    void setPage(final LogPage page, final LogPageRef pageRef) {
+        this.page = page;
+        this.pageRef = pageRef;
+    }
+
+    private static void reclaimUnreachable() {
+        while (true) {
+            try {
+                final LoggerRef loggerRef = (LoggerRef) UNREACHABLE.remove();
+                loggerRef.manager.reclaim(loggerRef);
+            } catch (final InterruptedException e) {
+                return;
+            } catch (final RuntimeException e) {
+                LOG.warn("Failed to reclaim the pages of an unreachable logger", e);
+            }
+        }
+    }
+
+    /**
+     * Return the pages of the unreachable logger, like Logger.flush.
+     */
+    void reclaim() {
+        if (writer != null) {
+            writer.flush();
+        } else {
+            manager.returnPage(page, pageRef);
+        }
+        setPage(null, LogPageRef.NULL);
+    }
+}
@@ -0,0 +1,36 @@
+package com.lafaspot.logfast.logging;
+
+import com.lafaspot.logfast.logging.internal.PageEncoding;
+
+/**
+ * Format of the log pages, formats can be mixed in a single dump. LogDecoder reads all formats and expands them back to plain LogRecords.
+ *
+ * @author lafa
+ *
+ */
+public enum PageFormat {
+
+    /**
+     * Plain Avro LogRecord fragments, see LogPage.SCHEMA_STR. Readable with the Avro tools.
+     */
+    V1(PageEncoding.VERSION_1),
+
+    /**
+     * LogRecords with per page dictionaries, every LogContext serial is written once per page and the records refer to it by id. Read it with
+     * LogDecoder.
+     */
+    V2(PageEncoding.VERSION_2);
+
+    private final int version;
+
+    PageFormat(final int version) {
+        this.version = version;
+    }
+
+    /**
+     * @return the version written in the pages
+     */
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,187 @@
+package com.lafaspot.logfast.logging;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.internal.LogArguments;
+import com.lafaspot.logfast.logging.internal.PageEncoding;
+
+/**
+ * Repeat window of a logger, see Logger.setRepeatWindow. It keeps the last record written, its level, String data or template and arguments, and
+ * exception class, and counts the records equal to it within the window instead of writing them. Only immutable records are compared: String
+ * data, and templates whose arguments are primitives or Strings.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+final class RepeatFilter {
+    private static final int HASH_MULTIPLIER = 31;
+
+    private final long window;
+    // last record written, null if none
+    private String text;
+    private int level;
+    private int hash;
+    private Class<?> exceptionClass;
+    private boolean template;
+    private final LogArguments args = new LogArguments();
+    // repeats of the last record, and the time of the last record and of its last repeat
+    private long repeats;
+    private long first;
+    private long last;
+
+    /**
+     * @param window
+     *            milliseconds after a record during which its repeats are counted
+     */
+    RepeatFilter(final long window) {
+        this.window = window;
+    }
+
+    /**
+     * @param level
+     *            level of the record
+     * @param data
+     *            String data or template of the record
+     * @param templateArgs
+     *            arguments of a template record, null for a data record
+     * @param e
+     *            exception of the record, null if none
+     * @param now
+     *            time of the record
+     * @return true if the record repeats the last record within the window, it is counted and not written
+     */
+    boolean isRepeat(final int level, final String data, final LogArguments templateArgs, final Throwable e, final long now) {
+        if (text == null || level != this.level || now - first > window) {
+            return false;
+        }
+        if (hash(level, data, templateArgs, e) == hash && data.equals(text)
+                        && (e == null ? exceptionClass == null : e.getClass() == exceptionClass)
+                        && (templateArgs == null ? !template : template && sameArguments(templateArgs))) {
+            repeats++;
+            last = now;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Remember the record written after isRepeat returned false, once the repeats of the previous record were handed to the page.
+     *
+     * @param level
+     *            level of the record
+     * @param data
+     *            String data or template of the record, or any other data that is not compared
+     * @param templateArgs
+     *            arguments of a template record, null for a data record
+     * @param e
+     *            exception of the record, null if none
+     * @param now
+     *            time of the record
+     */
+    void remember(final int level, final Object data, final LogArguments templateArgs, final Throwable e, final long now) {
+        repeats = 0;
+        args.reset();
+        if (!(data instanceof String) || (templateArgs != null && !copyArguments(templateArgs))) {
+            text = null;
+            return;
+        }
+        text = (String) data;
+        this.level = level;
+        hash = hash(level, text, templateArgs, e);
+        exceptionClass = e == null ? null : e.getClass();
+        template = templateArgs != null;
+        first = now;
+        last = now;
+    }
+
+    /**
+     * @return repeats of the last record not written yet
+     */
+    long getRepeats() {
+        return repeats;
+    }
+
+    /**
+     * @return level of the last record
+     */
+    int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return time of the last record written, the record repeated
+     */
+    long getFirst() {
+        return first;
+    }
+
+    /**
+     * @return time of the last repeat
+     */
+    long getLast() {
+        return last;
+    }
+
+    /**
+     * The repeats were handed to the page.
+     */
+    void clearRepeats() {
+        repeats = 0;
+    }
+
+    private static int hash(final int level, final String data, final LogArguments templateArgs, final Throwable e) {
+        int h = level * HASH_MULTIPLIER + data.hashCode();
+        if (e != null) {
+            h = h * HASH_MULTIPLIER + e.getClass().hashCode();
+        }
+        if (templateArgs != null) {
+            for (int i = 0; i < templateArgs.size(); i++) {
+                final Object value = templateArgs.getObject(i);
+                h = h * HASH_MULTIPLIER + (value == null ? Long.hashCode(templateArgs.getLong(i)) : value.hashCode());
+            }
+        }
+        return h;
+    }
+
+    private boolean sameArguments(final LogArguments templateArgs) {
+        if (templateArgs.size() != args.size()) {
+            return false;
+        }
+        for (int i = 0; i < args.size(); i++) {
+            if (templateArgs.getType(i) != args.getType(i)) {
+                return false;
+            }
+            if (args.getType(i) == PageEncoding.ARG_STRING ? !args.getObject(i).equals(templateArgs.getObject(i))
+                            : args.getLong(i) != templateArgs.getLong(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if an argument is not immutable
+     */
+    private boolean copyArguments(final LogArguments templateArgs) {
+        for (int i = 0; i < templateArgs.size(); i++) {
+            final int type = templateArgs.getType(i);
+            if (type == PageEncoding.ARG_STRING) {
+                final Object value = templateArgs.getObject(i);
+                if (!(value instanceof String)) {
+                    return false;
+                }
+                args.add(value);
+            } else if (type == PageEncoding.ARG_DOUBLE) {
+                args.add(Double.longBitsToDouble(templateArgs.getLong(i)));
+            } else if (type == PageEncoding.ARG_LONG) {
+                args.add(templateArgs.getLong(i));
+            } else if (type == PageEncoding.ARG_BOOLEAN) {
+                args.add(Boolean.valueOf(templateArgs.getLong(i) != 0));
+            } else {
+                args.add((Object) null);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,62 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * File sink that starts a new file when the file would grow over a max size, the previous files are renamed file.1 to file.N, file.1 is the
+ * newest. A batch of pages is never split across files.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class RollingFileLogSink extends FileLogSink {
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    /**
+     * @param file
+     *            the current file
+     * @param maxFileBytes
+     *            size over which a new file is started
+     * @param maxFiles
+     *            number of files kept, including the current file
+     * @throws IOException
+     *             failure opening the file
+     */
+    public RollingFileLogSink(final Path file, final long maxFileBytes, final int maxFiles) throws IOException {
+        super(file);
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    @Override
+    protected boolean isRollover(final long newSize) {
+        return newSize > maxFileBytes;
+    }
+
+    @Override
+    protected void rollover(final Path current) throws IOException {
+        Files.deleteIfExists(rolled(current, maxFiles - 1));
+        for (int i = maxFiles - 2; i >= 1; i--) {
+            final Path older = rolled(current, i);
+            if (Files.exists(older)) {
+                Files.move(older, rolled(current, i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 1) {
+            Files.move(current, rolled(current, 1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(current);
+        }
+    }
+
+    private static Path rolled(final Path current, final int index) {
+        return current.resolveSibling(current.getFileName() + "." + index);
+    }
+}
@@ -0,0 +1,305 @@
+package com.lafaspot.logfast.logging;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.lafaspot.logfast.logging.internal.LogArguments;
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.LogPageRef;
+
+/**
+ * A page written by many threads, see LogPage.reserveFrame, without locks. Every record is encoded straight into a frame of the page reserved
+ * by its thread, the frame is published on its own so the threads never wait for each other. When the page is full the thread whose frame
+ * crossed the end of the page swaps in a new page, the full page is returned like the full pages of a Logger. The pages are always version 1
+ * pages, a record refers to no page dictionary so it can be encoded in any frame.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+class SharedPageWriter {
+    // Initial size of a buffer encoding records, it grows with the largest record.
+    private static final int SCRATCH_SIZE = 4 * 1024;
+    // Initial frame reserved for a record, it grows with the largest record up to SCRATCH_SIZE, larger records are encoded then copied.
+    private static final int FRAME_SIZE = 256;
+    // Placeholder of the page while a thread replaces it, so a single thread allocates the next page.
+    private static final SharedPage ROTATING = new SharedPage(null, LogPageRef.NULL);
+
+    private final LogManager manager;
+    // Context of the pages, null for pages shared by many contexts.
+    private final LogContext context;
+    private final boolean isDumpStackOn;
+    // Page shared by the threads, null when no page is available.
+    private final AtomicReference<SharedPage> current = new AtomicReference<SharedPage>();
+    // Encoding buffer lent to the threads without one of their own.
+    private final AtomicReference<Scratch> spare = new AtomicReference<Scratch>();
+
+    /**
+     * @param manager
+     *            the manager of the pages
+     * @param context
+     *            the context of all the records, null if the records have different contexts
+     */
+    SharedPageWriter(final LogManager manager, final LogContext context) {
+        this.manager = manager;
+        this.context = context;
+        isDumpStackOn = manager.isDumpStackOn();
+    }
+
+    /**
+     * Write a record to the page, see Logger.log.
+     *
+     * @param scratch
+     *            encoding state of the caller
+     * @param recordContext
+     *            context of the record, indexed for the pages shared by many contexts
+     * @param level
+     *            level of the record
+     * @param data
+     *            data of the record
+     * @param e
+     *            exception of the record or null
+     */
+    void log(final Scratch scratch, final LogContext recordContext, final int level, final Object data, final Throwable e) {
+        append(scratch, recordContext, level, data, e, null, null);
+    }
+
+    /**
+     * Write a template record to the page, see Logger.logTemplate.
+     *
+     * @param scratch
+     *            encoding state of the caller
+     * @param recordContext
+     *            context of the record, indexed for the pages shared by many contexts
+     * @param level
+     *            level of the record
+     * @param template
+     *            the message template
+     * @param args
+     *            the arguments of the template
+     */
+    void logTemplate(final Scratch scratch, final LogContext recordContext, final int level, final String template, final LogArguments args) {
+        append(scratch, recordContext, level, null, null, template, args);
+    }
+
+    /**
+     * Encode a record into a frame of the page, replace the page when it is full or was taken back by the manager. A record larger than the frame
+     * of the caller is encoded in the scratch page then copied to a frame of its size. Threads finding the page full wait for the thread
+     * replacing it, a record is dropped, and counted, only when the manager has no page left or the record is larger than a page.
+     */
+    private void append(final Scratch scratch, final LogContext recordContext, final int level, final Object data, final Throwable e,
+                    final String template, final LogArguments args) {
+        final LogPage record = scratch.begin();
+        try {
+            int frameSize = scratch.frameSize;
+            boolean encoded = false;
+            while (true) {
+                final SharedPage shared = current.get();
+                if (shared == ROTATING) {
+                    Thread.yield();
+                    continue;
+                }
+                if (shared == null) {
+                    rotate(null);
+                    if (current.get() == null) {
+                        // No LogPage no logs.
+                        manager.metrics().recordDropped();
+                        return;
+                    }
+                    continue;
+                }
+                final LogPage page = shared.page;
+                if (!page.tryRetain()) {
+                    // returned by another thread and reused since
+                    rotate(shared);
+                    continue;
+                }
+                try {
+                    if (shared.pageRef.get() == null || !page.isLeased(shared.pageId)) {
+                        // removed from the dump or evicted by the manager
+                        rotate(shared);
+                        continue;
+                    }
+                    final int frame = page.reserveFrame(frameSize);
+                    if (frame == LogPage.RECORD_TOO_LARGE) {
+                        manager.metrics().recordDropped();
+                        return;
+                    }
+                    if (frame == LogPage.PAGE_FILLED) {
+                        rotate(shared);
+                        continue;
+                    }
+                    if (frame == LogPage.PAGE_FULL) {
+                        // another thread replaces the page
+                        Thread.yield();
+                        continue;
+                    }
+                    int length = 0;
+                    try {
+                        if (encoded) {
+                            length = page.copyFrame(frame, record);
+                        } else {
+                            boolean logged = false;
+                            record.beginFrame(page, frame, frameSize);
+                            try {
+                                logged = encode(record, recordContext, level, data, e, template, args);
+                            } finally {
+                                length = record.endFrame(logged);
+                            }
+                        }
+                    } finally {
+                        // a record that failed or did not fit leaves padding, or gives the frame back
+                        page.commitFrame(frame, frameSize, length);
+                    }
+                    if (length > 0) {
+                        if (context == null && shared.pageRef.addContext(recordContext)) {
+                            manager.index(shared.pageRef, recordContext.getName());
+                        }
+                        manager.metrics().recordWritten(level, length);
+                        scratch.fit(length);
+                        return;
+                    }
+                    if (!encode(record, recordContext, level, data, e, template, args)) {
+                        manager.metrics().recordDropped();
+                        return;
+                    }
+                    encoded = true;
+                    frameSize = LogPage.frameSize(record.getCommittedSize());
+                } finally {
+                    manager.release(page);
+                }
+            }
+        } finally {
+            scratch.end(record);
+        }
+    }
+
+    private boolean encode(final LogPage record, final LogContext recordContext, final int level, final Object data, final Throwable e,
+                    final String template, final LogArguments args) {
+        return template != null ? record.log(recordContext, level, template, args) : record.log(recordContext, level, data, e, isDumpStackOn);
+    }
+
+    /**
+     * Replace the page, only if no other thread replaced it first. The page is returned to the manager, the threads still writing it hold it.
+     */
+    private void rotate(final SharedPage expected) {
+        if (!current.compareAndSet(expected, ROTATING)) {
+            return;
+        }
+        LogPage page = null;
+        try {
+            page = manager.allocPage(null, context, null, PageFormat.V1, LogManager.MAX_PAGE_SIZE);
+            if (page != null) {
+                page.shareFrames();
+            }
+        } finally {
+            current.set(page == null ? null : new SharedPage(page, page.getPageRef()));
+            if (expected != null) {
+                manager.returnPage(expected.page, expected.pageRef);
+            }
+        }
+    }
+
+    /**
+     * Return the page to the manager, the threads still writing it get a new page.
+     */
+    void flush() {
+        final SharedPage shared = current.getAndSet(null);
+        if (shared != null && shared != ROTATING) {
+            manager.returnPage(shared.page, shared.pageRef);
+        }
+    }
+
+    /**
+     * @return the reference of the current page, LogPageRef.NULL if none
+     */
+    LogPageRef getPageRef() {
+        final SharedPage shared = current.get();
+        return shared == null ? LogPageRef.NULL : shared.pageRef;
+    }
+
+    /**
+     * @return an encoding buffer for the exclusive use of the caller until returnScratch
+     */
+    Scratch borrowScratch() {
+        final Scratch scratch = spare.getAndSet(null);
+        return scratch == null ? new Scratch() : scratch;
+    }
+
+    /**
+     * @param scratch
+     *            a buffer returned by borrowScratch, kept for the next caller
+     */
+    void returnScratch(final Scratch scratch) {
+        spare.lazySet(scratch);
+    }
+
+    /**
+     * A page of the writer, with its reference and identifier when it was allocated, as the page is reused once returned.
+     */
+    private static final class SharedPage {
+        private final LogPage page;
+        private final LogPageRef pageRef;
+        private final long pageId;
+
+        SharedPage(final LogPage page, final LogPageRef pageRef) {
+            this.page = page;
+            this.pageRef = pageRef;
+            pageId = pageRef.getPageIdentifier();
+        }
+    }
+
+    /**
+     * Encoding state of a thread: the page encoding its records into the frames, or encoding the records too large for a frame before they are
+     * copied, the frame size fitting its records and the arguments of its template calls. A record logged while the state is in use, by the
+     * toString of the data of another record, gets its own page.
+     */
+    @NotThreadSafe
+    static final class Scratch {
+        private final LogPage page = new LogPage(0, SCRATCH_SIZE, LogPageRef.NULL);
+        private final LogArguments args = new LogArguments();
+        private boolean busy;
+        private int frameSize = FRAME_SIZE;
+
+        /**
+         * @return an empty page to encode a record
+         */
+        LogPage begin() {
+            if (busy) {
+                return new LogPage(0, SCRATCH_SIZE, LogPageRef.NULL);
+            }
+            busy = true;
+            return page;
+        }
+
+        /**
+         * @param record
+         *            the page returned by begin, reset for the next record
+         */
+        void end(final LogPage record) {
+            record.setNotActive();
+            if (record == page) {
+                busy = false;
+            }
+        }
+
+        /**
+         * @param length
+         *            bytes of a record written by this thread, the next frames fit it up to SCRATCH_SIZE
+         */
+        void fit(final int length) {
+            frameSize = Math.min(SCRATCH_SIZE, Math.max(frameSize, LogPage.frameSize(length)));
+        }
+
+        /**
+         * @return the arguments of a template call, reset
+         */
+        LogArguments arguments() {
+            final LogArguments arguments = busy ? new LogArguments() : args;
+            arguments.reset();
+            return arguments;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Sink replaying the records to an slf4j logger, on the drain thread, with the level of the record. It replaces LogManager.setLegacy, which
+ * calls slf4j on the logger threads.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class Slf4jLogSink implements LogSink, LogDecoder.RecordHandler {
+    private final org.slf4j.Logger logger;
+    private final LogDecoder decoder = new LogDecoder();
+    private final StringBuilder message = new StringBuilder();
+
+    /**
+     * Replay to the slf4j logger named logfast.
+     */
+    public Slf4jLogSink() {
+        this(org.slf4j.LoggerFactory.getLogger("logfast"));
+    }
+
+    /**
+     * @param logger
+     *            the slf4j logger
+     */
+    public Slf4jLogSink(final org.slf4j.Logger logger) {
+        this.logger = logger;
+    }
+
+    @Override
+    public void write(final List<ByteBuffer> pages) throws IOException {
+        for (final ByteBuffer page : pages) {
+            decoder.decode(page, this);
+        }
+    }
+
+    @Override
+    public void onRecord(final LogDecoder.Record rec) {
+        final int level = rec.getLevel();
+        if (!isEnabled(level)) {
+            return;
+        }
+        message.setLength(0);
+        message.append(rec.getName()).append(' ').append(rec.getData());
+        if (rec.getExceptionMessages() != null) {
+            message.append(' ').append(rec.getExceptionMessages());
+        }
+        if (rec.getExceptionStackTrace() != null) {
+            message.append(' ').append(rec.getExceptionStackTrace());
+        }
+        final String text = message.toString();
+        switch (level) {
+        case Logger.FATALINT:
+        case Logger.ERRORINT:
+            logger.error(text);
+            break;
+        case Logger.WARNINT:
+            logger.warn(text);
+            break;
+        case Logger.INFOINT:
+            logger.info(text);
+            break;
+        case Logger.DEBUGINT:
+            logger.debug(text);
+            break;
+        default:
+            logger.trace(text);
+            break;
+        }
+    }
+
+    private boolean isEnabled(final int level) {
+        switch (level) {
+        case Logger.FATALINT:
+        case Logger.ERRORINT:
+            return logger.isErrorEnabled();
+        case Logger.WARNINT:
+            return logger.isWarnEnabled();
+        case Logger.INFOINT:
+            return logger.isInfoEnabled();
+        case Logger.DEBUGINT:
+            return logger.isDebugEnabled();
+        default:
+            return logger.isTraceEnabled();
+        }
+    }
+}
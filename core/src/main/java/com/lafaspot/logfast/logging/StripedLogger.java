@@ -0,0 +1,74 @@
+package com.lafaspot.logfast.logging;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.SharedPageWriter.Scratch;
+import com.lafaspot.logfast.logging.internal.LogArguments;
+
+/**
+ * Logger of the shared pages mode, see LogManager.setSharedPages. It holds no page: the records are appended to the shared page of the stripe of
+ * the calling thread, encoded with a state lent by the stripe, so a short lived logger costs no page and no thread local.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+final class StripedLogger extends Logger {
+    private final LogManager manager;
+    private final LogContext context;
+    private final LogMetrics metrics;
+
+    /**
+     * @param context
+     *            the LogContext for the logger instance
+     * @param level
+     *            default Level for this logger instance
+     * @param manager
+     *            the manager instance that owns this logger instance
+     */
+    StripedLogger(final LogContext context, final Level level, final LogManager manager) {
+        super(context, level, manager);
+        this.manager = manager;
+        this.context = context;
+        metrics = manager.metrics();
+    }
+
+    @Override
+    void log(final int level, final Object data, final Throwable e) {
+        if (isLevel(level) && context != null && data != null && admit(level)) {
+            final long start = metrics.startLogCall();
+            final SharedPageWriter stripe = manager.stripe();
+            final Scratch scratch = stripe.borrowScratch();
+            try {
+                stripe.log(scratch, context, level, data, e);
+            } finally {
+                stripe.returnScratch(scratch);
+                metrics.recordLogCall(start);
+            }
+        }
+    }
+
+    @Override
+    void logTemplate(final int level, final String template, final LogArguments args) {
+        if (context != null && template != null) {
+            final long start = metrics.startLogCall();
+            final SharedPageWriter stripe = manager.stripe();
+            final Scratch scratch = stripe.borrowScratch();
+            try {
+                stripe.logTemplate(scratch, context, level, template, args);
+            } finally {
+                stripe.returnScratch(scratch);
+                metrics.recordLogCall(start);
+            }
+        }
+        args.reset();
+    }
+
+    /**
+     * The shared pages are not returned by the loggers, only the count of the dropped records is written.
+     */
+    @Override
+    public void flush() {
+        writeDropped();
+    }
+}
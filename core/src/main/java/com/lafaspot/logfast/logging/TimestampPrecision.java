@@ -0,0 +1,41 @@
+package com.lafaspot.logfast.logging;
+
+import com.lafaspot.logfast.logging.internal.PageEncoding;
+
+/**
+ * Precision of the record timestamps of version 2 pages, see PageFormat.V2. Version 1 records have no timestamp, the LogRecord schema is kept
+ * for the Avro tools.
+ *
+ * @author lafa
+ *
+ */
+public enum TimestampPrecision {
+
+    /**
+     * No timestamp.
+     */
+    NONE(0),
+
+    /**
+     * Milliseconds of a clock updated every millisecond by a daemon thread, a record does not read the system clock.
+     */
+    MILLIS(PageEncoding.FLAG_TIMESTAMPS),
+
+    /**
+     * Nanoseconds since the start of the page, System.nanoTime is read for every record.
+     */
+    NANOS(PageEncoding.FLAG_TIMESTAMPS | PageEncoding.FLAG_NANOS);
+
+    private final int flags;
+
+    TimestampPrecision(final int flags) {
+        this.flags = flags;
+    }
+
+    /**
+     * @return the flags written in the page header
+     */
+    public int getFlags() {
+        return flags;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Wall clock with a millisecond resolution that costs a volatile read. While the clock has users a daemon thread reads the system clock every
+ * millisecond, without users the clock reads the system clock on every call.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public final class CoarseClock {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // 0 while the ticker is stopped, a ticker only moves the time it set itself so a stopped ticker cannot write after the stop
+    private static final AtomicLong NOW = new AtomicLong();
+
+    // guarded by the class lock
+    private static int users;
+    private static Thread ticker;
+
+    private CoarseClock() {
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch, behind the system clock by up to a tick
+     */
+    public static long currentTimeMillis() {
+        final long now = NOW.get();
+        return now != 0 ? now : System.currentTimeMillis();
+    }
+
+    /**
+     * Add a user of the clock, the first user starts the ticker thread.
+     */
+    public static synchronized void retain() {
+        if (users++ == 0) {
+            NOW.set(System.currentTimeMillis());
+            ticker = new Thread(CoarseClock::tick, "logfast-clock");
+            ticker.setDaemon(true);
+            ticker.start();
+        }
+    }
+
+    /**
+     * Remove a user of the clock, the last user stops the ticker thread.
+     */
+    public static synchronized void release() {
+        if (users > 0 && --users == 0) {
+            NOW.set(0);
+            LockSupport.unpark(ticker);
+            ticker = null;
+        }
+    }
+
+    /**
+     * @return true if the ticker thread runs
+     */
+    static synchronized boolean isTicking() {
+        return ticker != null;
+    }
+
+    private static void tick() {
+        long now = NOW.get();
+        while (now != 0) {
+            LockSupport.parkNanos(TICK_NANOS);
+            final long time = System.currentTimeMillis();
+            // fails once the clock is stopped, or restarted by a new ticker
+            now = NOW.compareAndSet(now, time) ? time : 0;
+        }
+    }
+}
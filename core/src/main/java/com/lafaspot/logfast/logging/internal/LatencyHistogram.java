@@ -0,0 +1,106 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock free log-linear histogram of latencies in nanoseconds, in the style of HdrHistogram: every power of 2 is split in 8 linear buckets, so a
+ * value is kept with 3 significant bits, within 12.5%, from 0 to Long.MAX_VALUE in a fixed array. Recording is an array index computation, an
+ * atomic increment of the bucket and two LongAdder updates for the count and the sum, the percentiles are read from a racy but monotonic snapshot
+ * of the counts.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class LatencyHistogram {
+    // Linear buckets per power of 2, and the values below 2 * SUB_BUCKETS kept exactly.
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_VALUES = SUB_BUCKETS << 1;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos
+     *            latency, negative values are recorded as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return mean of the recorded values, 0 if none
+     */
+    public long getMean() {
+        final long recorded = count.sum();
+        return recorded == 0 ? 0 : sum.sum() / recorded;
+    }
+
+    /**
+     * @param percentile
+     *            percentile from 0 to 100
+     * @return the lowest value of the bucket holding the percentile, 0 if no value was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return valueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the lowest value of the bucket of the largest recorded value, 0 if none
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return valueOf(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucketOf(final long value) {
+        if (value < LINEAR_VALUES) {
+            return (int) value;
+        }
+        // the top SUB_BITS + 1 bits of the value, from SUB_BUCKETS to LINEAR_VALUES - 1, in the buckets of its power of 2
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long valueOf(final int bucket) {
+        if (bucket < LINEAR_VALUES) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (bucket - shift * SUB_BUCKETS) << shift;
+    }
+}
@@ -0,0 +1,173 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.Loggable;
+
+/**
+ * Reusable holder of the arguments of a template log call. Primitive arguments are kept unboxed, so the call does not allocate and the page
+ * stores them typed.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class LogArguments implements TemplateFormatter.Arguments {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private long[] longs = new long[INITIAL_CAPACITY];
+    private Object[] objects = new Object[INITIAL_CAPACITY];
+    private int size;
+    private final StringLogWriter writer = new StringLogWriter(null);
+
+    /**
+     * Remove all arguments.
+     */
+    public void reset() {
+        // do not retain the logged objects
+        for (int i = 0; i < size; i++) {
+            objects[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * @param value
+     *            long argument
+     * @return itself
+     */
+    public LogArguments add(final long value) {
+        ensureCapacity();
+        types[size] = PageEncoding.ARG_LONG;
+        longs[size++] = value;
+        return this;
+    }
+
+    /**
+     * @param value
+     *            double argument
+     * @return itself
+     */
+    public LogArguments add(final double value) {
+        ensureCapacity();
+        types[size] = PageEncoding.ARG_DOUBLE;
+        longs[size++] = Double.doubleToRawLongBits(value);
+        return this;
+    }
+
+    /**
+     * Add an argument, boxed integral numbers, doubles and booleans are stored unboxed.
+     *
+     * @param value
+     *            argument
+     * @return itself
+     */
+    public LogArguments add(final Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return add(((Number) value).longValue());
+        }
+        if (value instanceof Double) {
+            return add(((Double) value).doubleValue());
+        }
+        ensureCapacity();
+        if (value == null) {
+            types[size] = PageEncoding.ARG_NULL;
+        } else if (value instanceof Boolean) {
+            types[size] = PageEncoding.ARG_BOOLEAN;
+            longs[size] = ((Boolean) value).booleanValue() ? 1 : 0;
+        } else {
+            types[size] = PageEncoding.ARG_STRING;
+            objects[size] = value;
+        }
+        size++;
+        return this;
+    }
+
+    /**
+     * @param values
+     *            arguments
+     * @return itself
+     */
+    public LogArguments addAll(final Object[] values) {
+        if (values != null) {
+            for (final Object value : values) {
+                add(value);
+            }
+        }
+        return this;
+    }
+
+    private void ensureCapacity() {
+        if (size == types.length) {
+            types = Arrays.copyOf(types, size << 1);
+            longs = Arrays.copyOf(longs, size << 1);
+            objects = Arrays.copyOf(objects, size << 1);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index
+     *            argument index
+     * @return the argument type, see PageEncoding.ARG_*
+     */
+    public int getType(final int index) {
+        return types[index];
+    }
+
+    /**
+     * @param index
+     *            argument index
+     * @return the value of a long, boolean or the raw bits of a double argument
+     */
+    public long getLong(final int index) {
+        return longs[index];
+    }
+
+    /**
+     * @param index
+     *            argument index
+     * @return the value of a string argument
+     */
+    public Object getObject(final int index) {
+        return objects[index];
+    }
+
+    @Override
+    public void appendTo(final StringBuilder out, final int index) {
+        switch (types[index]) {
+        case PageEncoding.ARG_LONG:
+            out.append(longs[index]);
+            break;
+        case PageEncoding.ARG_DOUBLE:
+            out.append(Double.longBitsToDouble(longs[index]));
+            break;
+        case PageEncoding.ARG_BOOLEAN:
+            out.append(longs[index] != 0);
+            break;
+        case PageEncoding.ARG_STRING:
+            if (objects[index] instanceof Loggable) {
+                try {
+                    ((Loggable) objects[index]).writeTo(writer.setTarget(out));
+                } catch (final IOException e) {
+                    // should never happen, StringLogWriter does not throw
+                    out.append(objects[index]);
+                }
+            } else {
+                out.append(objects[index]);
+            }
+            break;
+        default:
+            out.append((Object) null);
+            break;
+        }
+    }
+}
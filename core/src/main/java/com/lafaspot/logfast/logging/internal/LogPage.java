@@ -1,19 +1,18 @@
 package com.lafaspot.logfast.logging.internal;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
-import org.apache.avro.Schema;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericData.Record;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.GenericRecord;
-import org.apache.avro.io.Encoder;
-import org.apache.avro.io.EncoderFactory;
-
 import com.lafaspot.logfast.logging.LogContext;
+import com.lafaspot.logfast.logging.Loggable;
 
 /**
  * LogPage.
@@ -27,14 +26,54 @@ public class LogPage {
     private final int pageSize;
     // Is this page full.
     private boolean isFull = false;
-    // ByteArray where the log data is stored.
-    private final ByteArrayOutputStream ostream;
-
-    // Avro stuff
-    private final Schema schema;
-    private final GenericDatumWriter<GenericRecord> writer;
-    private final Encoder encoder;
-    private final Record record;
+    // Heap or off heap buffer where the log data is stored.
+    private final PageBuffer ostream;
+    // Writer of the Loggable data.
+    private final PageWriter writer;
+    // Off heap slot used by this page or -1 for heap pages.
+    private final int slot;
+    // Page format, see PageEncoding.
+    private int version = PageEncoding.VERSION_1;
+    // Version 2 header flags, the bytes of the header and the base timestamp of the records.
+    private int flags;
+    private int headerSize;
+    private long baseMillis;
+    private long baseNanos;
+    // Version 2 context dictionary, serial to id.
+    private final PageDictionary contexts = new PageDictionary();
+    // Version 2 template dictionary, template to id.
+    private final PageDictionary templates = new PageDictionary();
+    // Stack traces of the page, the frames to id, and the UTF-8 text of every id.
+    private final PageDictionary stacks = new PageDictionary();
+    private final List<byte[]> stackTexts = new ArrayList<byte[]>();
+    // Stack of the record being logged, reused.
+    private final ThrowableStack stack = new ThrowableStack(EXCEPTION_DEPTH);
+    private byte[] pendingStack;
+    // Version 1 formatted template message, reused.
+    private final StringBuilder message = new StringBuilder();
+
+    // Exception class names and messages of the record being logged, kept to not call getMessage twice.
+    private final String[] exceptionNames = new String[EXCEPTION_DEPTH];
+    private final String[] exceptionMessages = new String[EXCEPTION_DEPTH];
+    // Bytes of complete records, published for the readers, and the storage holding them. The logger thread sets the storage before the length,
+    // readers get the length before the storage, so the storage they see always holds the committed bytes.
+    private volatile int committed;
+    private volatile ByteBuffer published;
+    // Bytes reserved by the threads writing frames, see reserveFrame, 0 for the pages written by a single thread.
+    private volatile int reserved;
+    // One bit per 8 bytes of a page written in frames, set once the frame starting there is written.
+    private volatile AtomicLongArray frames;
+    // View of the storage of the page whose frame this page is encoding a record into, and the storage it is a view of, see beginFrame.
+    private ByteBuffer frameView;
+    private ByteBuffer frameStorage;
+    // Holders of the page: its logger, its reference in the manager, the chain link of the next page and the readers on other threads. The
+    // page is given back to the manager when the last holder releases it.
+    private final AtomicInteger holders = new AtomicInteger();
+    // Lease of the logger, the page id shifted left by one with the low bit set while a record is written, RELEASED once the logger
+    // returned the page or the manager evicted it.
+    private final AtomicLong lease = new AtomicLong();
+    // Reference of the page in the manager.
+    private LogPageRef pageRef = LogPageRef.NULL;
     private LogPageRef nextPageRef;
     private boolean isActive;
     private long identifier;
@@ -48,15 +87,32 @@ public class LogPage {
      *            Page reference for the the last full page related to this one
      */
     public LogPage(final long pageId, final int pageSize, final LogPageRef nextPageRef) {
+        this(pageId, pageSize, new PageBuffer(pageSize), -1, nextPageRef);
+    }
+
+    /**
+     * Create a page on top of a fixed size storage, usually a slot of an off heap slab.
+     *
+     * @param pageId
+     *            Page Unique Identifier
+     * @param storage
+     *            the bytes from position to limit are used by this page
+     * @param slot
+     *            the slab slot of the storage
+     * @param nextPageRef
+     *            Page reference for the the last full page related to this one
+     */
+    public LogPage(final long pageId, final ByteBuffer storage, final int slot, final LogPageRef nextPageRef) {
+        this(pageId, storage.remaining(), new PageBuffer(storage), slot, nextPageRef);
+    }
+
+    private LogPage(final long pageId, final int pageSize, final PageBuffer ostream, final int slot, final LogPageRef nextPageRef) {
         this.pageSize = pageSize;
-        identifier = pageId;
-        ostream = new ByteArrayOutputStream(pageSize);
-        schema = new Schema.Parser().parse(SCHEMA_STR);
-        writer = new GenericDatumWriter<GenericRecord>(schema);
-        encoder = EncoderFactory.get().directBinaryEncoder(ostream, null);
-        record = new GenericData.Record(schema);
-        this.nextPageRef = nextPageRef;
-        isActive = true;
+        this.ostream = ostream;
+        writer = new PageWriter(ostream);
+        published = ostream.storage();
+        this.slot = slot;
+        setActive(pageId, nextPageRef);
     }
 
     /**
@@ -68,11 +124,48 @@ public class LogPage {
                     + "{ \"name\":\"eMessages\", \"type\":[ \"string\", \"null\"], \"default\":\"\" },"
                     + "{ \"name\":\"eStackTrace\", \"type\":[ \"string\", \"null\"], \"default\":\"\"}" + "] }";
 
+    private static final AtomicIntegerFieldUpdater<LogPage> COMMITTED = AtomicIntegerFieldUpdater.newUpdater(LogPage.class, "committed");
+    private static final AtomicIntegerFieldUpdater<LogPage> RESERVED = AtomicIntegerFieldUpdater.newUpdater(LogPage.class, "reserved");
+    private static final int STRING_BRANCH = PageEncoding.STRING_BRANCH;
+    private static final int NULL_BRANCH = PageEncoding.NULL_BRANCH;
+    private static final int STACK_BRANCH = PageEncoding.STACK_BRANCH;
+    // Fixed parts of eMessages, [className, message],
+    private static final String MESSAGE_START = "[";
+    private static final String MESSAGE_SEPARATOR = ", ";
+    private static final String MESSAGE_END = "],";
+
+    /**
+     * Result of reserveFrame, the page has no room left and another thread gets the next page.
+     */
+    public static final int PAGE_FULL = -1;
+
+    /**
+     * Result of reserveFrame, the frame of the caller did not fit in the rest of the page, the caller gets the next page.
+     */
+    public static final int PAGE_FILLED = -2;
+
+    /**
+     * Result of reserveFrame, the frame does not fit in an empty page.
+     */
+    public static final int RECORD_TOO_LARGE = -3;
+
+    /**
+     * Bytes of the frame header, the frame length and the record length as two ints.
+     */
+    public static final int FRAME_HEADER = 2 * Integer.BYTES;
+    // Frames start on 8 bytes boundaries, a bit of the frames bitmap per boundary.
+    private static final int FRAME_ALIGN = 8;
+    private static final int FRAME_SHIFT = 3;
+    private static final int WORD_SHIFT = 6;
+
     /**
      * Default page size.
      */
     public static final int DEFAULT_SIZE = 10;
     private static final int EXCEPTION_DEPTH = 10;
+    private static final long RELEASED = -1L;
+    // A new page is held by its logger and its reference in the manager.
+    private static final int ACTIVE_HOLDERS = 2;
 
     /**
      * @param context
@@ -85,54 +178,509 @@ public class LogPage {
      *            exception that create the problem
      * @param isDumpStackOn
      *            is true to enable dumping stack in the logs
+     * @return false if the record did not fit in the page, the page is full and the record must be logged on a new page
      */
-    public void log(final LogContext context, final int level, final Object data, final Throwable cause, final boolean isDumpStackOn) {
-        // reset log record
-        record.put("name", context.toString());
-        record.put("level", level);
-        record.put("data", data.toString());
-        record.put("eMessages", null);
-        record.put("eStackTrace", null);
-
-        // Calculate array of messages and put here
-
-        if (cause != null) {
-            final StringBuffer messages = new StringBuffer();
-            Throwable eHelper = cause;
-            int count = 0;
-            // iterate for 10 causes
-            while (eHelper != null && count < EXCEPTION_DEPTH) {
-                messages.append("[");
-                messages.append(eHelper.getClass().getName());
-                messages.append(", ");
-                messages.append(eHelper.getMessage());
-                messages.append("],");
-                eHelper = cause.getCause();
-                count++;
+    public boolean log(final LogContext context, final int level, final Object data, final Throwable cause, final boolean isDumpStackOn) {
+        checkNotFull();
+        final int start = ostream.size();
+        boolean written = false;
+        try {
+            final String serial = context.toString();
+            final int contextId = writeContext(serial);
+            final boolean withStack = cause != null && isDumpStackOn;
+            final int stackId = withStack ? writeStack(cause) : 0;
+            if (version != PageEncoding.VERSION_1) {
+                ostream.writeLong(PageEncoding.ENTRY_RECORD);
+                writeTimestamp();
+                ostream.writeLong(contextId < 0 ? contexts.size() : contextId);
+            }
+            // Write the LogRecord fields in schema order, same bytes as the Avro GenericDatumWriter for SCHEMA_STR.
+            ostream.writeLong(level);
+            if (data instanceof Loggable) {
+                writer.writeString((Loggable) data);
+            } else {
+                ostream.writeString(data.toString());
             }
-            record.put("eMessages", messages.toString());
+            if (cause != null) {
+                ostream.writeLong(STRING_BRANCH);
+                writeMessages(cause);
+                if (withStack) {
+                    writeStackReference(stackId);
+                } else {
+                    ostream.writeLong(NULL_BRANCH);
+                }
+            } else {
+                ostream.writeLong(NULL_BRANCH);
+                ostream.writeLong(NULL_BRANCH);
+            }
+            written = true;
+            if (withStack && stackId < 0) {
+                stacks.put(stack.copy());
+                stackTexts.add(pendingStack);
+            }
+            return commit(serial, contextId, null, 0);
+        } catch (final IOException e1) {
+            return rollback(start);
+        } finally {
+            if (!written) {
+                // toString or writeTo failed, drop the partial record
+                ostream.truncate(start);
+            }
+            stack.clear();
+            pendingStack = null;
+        }
+    }
 
-            if (isDumpStackOn) {
-                // TODO: Convert stack trace into a String. stack trace can't be
-                // null.
-                record.put("eStackTrace", "stack trace here");
+    /**
+     * Log a message template with its arguments. Version 2 pages keep the template once per page and the arguments typed, the message is
+     * formatted by the reader. Version 1 pages store the formatted message.
+     *
+     * @param context
+     *            - the LogContext
+     * @param level
+     *            the log level of the record
+     * @param template
+     *            the message template, see TemplateFormatter
+     * @param args
+     *            the arguments of the template
+     * @return false if the record did not fit in the page, the page is full and the record must be logged on a new page
+     */
+    public boolean log(final LogContext context, final int level, final String template, final LogArguments args) {
+        checkNotFull();
+        final int start = ostream.size();
+        boolean written = false;
+        try {
+            final String serial = context.toString();
+            final int contextId = writeContext(serial);
+            if (version == PageEncoding.VERSION_1) {
+                ostream.writeLong(level);
+                try {
+                    ostream.writeString(TemplateFormatter.format(message, template, args));
+                } finally {
+                    message.setLength(0);
+                }
+                ostream.writeLong(NULL_BRANCH);
+                ostream.writeLong(NULL_BRANCH);
+                written = true;
+                return commit(serial, contextId, null, 0);
+            }
+            final int templateId = templates.get(template);
+            if (templateId < 0) {
+                ostream.writeLong(PageEncoding.ENTRY_TEMPLATE);
+                ostream.writeString(template);
+            }
+            ostream.writeLong(PageEncoding.ENTRY_TEMPLATE_RECORD);
+            writeTimestamp();
+            ostream.writeLong(contextId < 0 ? contexts.size() : contextId);
+            ostream.writeLong(level);
+            ostream.writeLong(templateId < 0 ? templates.size() : templateId);
+            writeArguments(args);
+            written = true;
+            return commit(serial, contextId, template, templateId);
+        } catch (final IOException e1) {
+            return rollback(start);
+        } finally {
+            if (!written) {
+                // toString or writeTo failed, drop the partial record
+                ostream.truncate(start);
             }
         }
+    }
 
+    private void checkNotFull() {
         if (isFull) {
             // should never happen.
             throw new RuntimeException("LogPage is Full.");
         }
+    }
 
-        try {
-            writer.write(record, encoder);
-            if (ostream.size() >= pageSize) {
-                isFull = true;
+    /**
+     * Write the context of a record, the serial for version 1 pages, the dictionary entry of a new context for version 2 pages.
+     *
+     * @return the dictionary id of the context or -1 if the context is new
+     */
+    private int writeContext(final String serial) throws IOException {
+        if (version == PageEncoding.VERSION_1) {
+            ostream.writeString(serial);
+            return 0;
+        }
+        final int contextId = contexts.get(serial);
+        if (contextId < 0) {
+            ostream.writeLong(PageEncoding.ENTRY_CONTEXT);
+            ostream.writeString(serial);
+        }
+        return contextId;
+    }
+
+    /**
+     * Look up the stack of the record, a new stack is encoded once and for version 2 pages written as a dictionary entry.
+     *
+     * @return the dictionary id of the stack or -1 if the stack is new
+     */
+    private int writeStack(final Throwable cause) throws IOException {
+        stack.capture(cause);
+        final int stackId = stacks.get(stack);
+        if (stackId < 0) {
+            pendingStack = stack.toUtf8();
+            if (version != PageEncoding.VERSION_1) {
+                ostream.writeLong(PageEncoding.ENTRY_STACK);
+                ostream.writeLong(pendingStack.length);
+                ostream.write(pendingStack, 0, pendingStack.length);
             }
-        } catch (final IOException e1) {
-            // Ignore exception mark the Page full.
+        }
+        return stackId;
+    }
+
+    /**
+     * Write eStackTrace, the stack text for version 1 pages, the dictionary id for version 2 pages.
+     */
+    private void writeStackReference(final int stackId) throws IOException {
+        if (version == PageEncoding.VERSION_1) {
+            final byte[] text = stackId < 0 ? pendingStack : stackTexts.get(stackId);
+            ostream.writeLong(STRING_BRANCH);
+            ostream.writeLong(text.length);
+            ostream.write(text, 0, text.length);
+        } else {
+            ostream.writeLong(STACK_BRANCH);
+            ostream.writeLong(stackId < 0 ? stacks.size() : stackId);
+        }
+    }
+
+    private void writeTimestamp() throws IOException {
+        if ((flags & PageEncoding.FLAG_NANOS) != 0) {
+            ostream.writeLong(System.nanoTime() - baseNanos);
+        } else if ((flags & PageEncoding.FLAG_TIMESTAMPS) != 0) {
+            ostream.writeLong(CoarseClock.currentTimeMillis() - baseMillis);
+        }
+    }
+
+    private void writeArguments(final LogArguments args) throws IOException {
+        ostream.writeLong(args.size());
+        for (int i = 0; i < args.size(); i++) {
+            final int type = args.getType(i);
+            ostream.writeLong(type);
+            switch (type) {
+            case PageEncoding.ARG_LONG:
+            case PageEncoding.ARG_BOOLEAN:
+                ostream.writeLong(args.getLong(i));
+                break;
+            case PageEncoding.ARG_DOUBLE:
+                ostream.writeDoubleBits(args.getLong(i));
+                break;
+            case PageEncoding.ARG_STRING:
+                final Object value = args.getObject(i);
+                if (value instanceof Loggable) {
+                    writer.writeString((Loggable) value);
+                } else {
+                    ostream.writeString(value instanceof CharSequence ? (CharSequence) value : value.toString());
+                }
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+    /**
+     * The record is in the page, keep its new dictionary entries.
+     */
+    private boolean commit(final String serial, final int contextId, final String template, final int templateId) {
+        if (contextId < 0) {
+            contexts.put(serial);
+        }
+        if (template != null && templateId < 0) {
+            templates.put(template);
+        }
+        if (ostream.size() >= pageSize) {
             isFull = true;
         }
+        publish();
+        return true;
+    }
+
+    private void publish() {
+        final ByteBuffer storage = ostream.storage();
+        if (storage != published) {
+            // heap buffer grown by this record
+            published = storage;
+        }
+        COMMITTED.lazySet(this, ostream.size());
+    }
+
+    /**
+     * Fixed size page without room for the record, drop the partial record and mark the Page full. A record bigger than an empty page can't be
+     * logged, leave the page empty for the next records.
+     */
+    private boolean rollback(final int start) {
+        ostream.truncate(start);
+        isFull = start > headerSize;
+        return false;
+    }
+
+    /**
+     * Use this version 1 page for records written from any thread in frames, see reserveFrame, instead of logging records to it.
+     */
+    public void shareFrames() {
+        final int words = (published.capacity() >>> (FRAME_SHIFT + WORD_SHIFT)) + 1;
+        if (frames == null || frames.length() < words) {
+            frames = new AtomicLongArray(words);
+        }
+    }
+
+    /**
+     * @param recordLength
+     *            bytes of a record
+     * @return bytes of the frame holding the record
+     */
+    public static int frameSize(final int recordLength) {
+        return (FRAME_HEADER + recordLength + FRAME_ALIGN - 1) & -FRAME_ALIGN;
+    }
+
+    /**
+     * Reserve a frame of a page shared by many threads with a fetch-and-add, the frame is then written by the caller only and published by
+     * commitFrame, so the writers never wait for each other. The page does not grow, the reservation crossing the end of the page tells its
+     * writer to rotate the page while the other writers wait for the next page.
+     *
+     * @param size
+     *            bytes of the frame, see frameSize
+     * @return the offset of the frame, or PAGE_FULL, PAGE_FILLED or RECORD_TOO_LARGE
+     */
+    public int reserveFrame(final int size) {
+        final int capacity = published.capacity();
+        if (size > capacity) {
+            return RECORD_TOO_LARGE;
+        }
+        if (reserved > capacity) {
+            // do not push the reservations further past the end
+            return PAGE_FULL;
+        }
+        final int frame = RESERVED.getAndAdd(this, size);
+        if (frame + size > capacity) {
+            // only one reservation starts at or before the end and ends after it
+            return frame <= capacity ? PAGE_FILLED : PAGE_FULL;
+        }
+        return frame;
+    }
+
+    /**
+     * Encode the next record of this page straight into a frame reserved in another page, up to endFrame.
+     *
+     * @param page
+     *            the page of the frame
+     * @param frame
+     *            the value returned by reserveFrame
+     * @param size
+     *            the size given to reserveFrame
+     */
+    public void beginFrame(final LogPage page, final int frame, final int size) {
+        final ByteBuffer storage = page.published;
+        if (storage != frameStorage) {
+            // a view kept for the next records, the frames of a page are written without allocation
+            frameStorage = storage;
+            frameView = storage.duplicate();
+        }
+        ostream.window(frameView, frame + FRAME_HEADER, frame + size);
+    }
+
+    /**
+     * End the record started by beginFrame, the record logged by this page since beginFrame is in the frame.
+     *
+     * @param logged
+     *            true if the record was logged, log returned true
+     * @return the length of the record, 0 if it was not logged
+     */
+    public int endFrame(final boolean logged) {
+        final int length = ostream.endWindow();
+        published = ostream.storage();
+        committed = 0;
+        isFull = false;
+        return logged ? length : 0;
+    }
+
+    /**
+     * Copy a record encoded by another page into a frame of this page.
+     *
+     * @param frame
+     *            the value returned by reserveFrame
+     * @param record
+     *            the page holding the record, its bytes are the record
+     * @return the length of the record
+     */
+    public int copyFrame(final int frame, final LogPage record) {
+        final ByteBuffer bytes = record.getCommittedBytes();
+        final int length = bytes.remaining();
+        final ByteBuffer target = published.duplicate();
+        target.clear();
+        target.position(frame + FRAME_HEADER);
+        target.put(bytes);
+        return length;
+    }
+
+    /**
+     * Publish a frame for the readers, the frame holds a record or is padding. The unused end of the frame is given back when no frame was
+     * reserved after it.
+     *
+     * @param frame
+     *            the value returned by reserveFrame
+     * @param size
+     *            the size given to reserveFrame
+     * @param recordLength
+     *            bytes of the record written in the frame, 0 for padding
+     */
+    public void commitFrame(final int frame, final int size, final int recordLength) {
+        final int used = recordLength > 0 ? frameSize(recordLength) : 0;
+        int frameSize = size;
+        if (used < size && RESERVED.compareAndSet(this, frame + size, frame + used)) {
+            frameSize = used;
+        }
+        if (frameSize == 0) {
+            return;
+        }
+        final ByteBuffer storage = published;
+        storage.putInt(frame, frameSize);
+        storage.putInt(frame + Integer.BYTES, recordLength);
+        final long bit = 1L << (frame >>> FRAME_SHIFT);
+        // the bitmap update publishes the frame, the readers check the bit before reading the frame
+        final AtomicLongArray bitmap = frames;
+        final int word = frame >>> (FRAME_SHIFT + WORD_SHIFT);
+        long bits = bitmap.get(word);
+        while (!bitmap.compareAndSet(word, bits, bits | bit)) {
+            bits = bitmap.get(word);
+        }
+    }
+
+    private boolean isCommitted(final AtomicLongArray bitmap, final int frame) {
+        return (bitmap.get(frame >>> (FRAME_SHIFT + WORD_SHIFT)) & (1L << (frame >>> FRAME_SHIFT))) != 0;
+    }
+
+    /**
+     * Walk the frames of the page up to the first frame not committed yet.
+     *
+     * @param end
+     *            offset where the walk stops, Integer.MAX_VALUE for the first frame not committed
+     * @param into
+     *            buffer receiving the records, null to only count them
+     * @return the bytes of the records, the offset where the walk stopped in the high int
+     */
+    private long walkFrames(final int end, final ByteBuffer into) {
+        final int limit = Math.min(end, Math.min(reserved, published.capacity()));
+        final AtomicLongArray bitmap = frames;
+        final ByteBuffer storage = into == null ? published : published.duplicate();
+        int length = 0;
+        int frame = 0;
+        while (frame + FRAME_HEADER <= limit && isCommitted(bitmap, frame)) {
+            final int recordLength = storage.getInt(frame + Integer.BYTES);
+            if (into != null && recordLength > 0) {
+                storage.limit(frame + FRAME_HEADER + recordLength);
+                storage.position(frame + FRAME_HEADER);
+                into.put(storage);
+                storage.limit(storage.capacity());
+            }
+            length += recordLength;
+            frame += storage.getInt(frame);
+        }
+        return ((long) frame << Integer.SIZE) | length;
+    }
+
+    /**
+     * @return true if the records of the page are written in frames by many threads
+     */
+    private boolean isFramed() {
+        return reserved != 0;
+    }
+
+    /**
+     * Set the format of an empty page, version 2 pages start with the page header.
+     *
+     * @param version
+     *            PageEncoding.VERSION_1 or PageEncoding.VERSION_2
+     */
+    public void setFormat(final int version) {
+        setFormat(version, 0);
+    }
+
+    /**
+     * Set the format of an empty page, version 2 pages start with the page header.
+     *
+     * @param version
+     *            PageEncoding.VERSION_1 or PageEncoding.VERSION_2
+     * @param flags
+     *            PageEncoding.FLAG_* flags of version 2 pages
+     */
+    public void setFormat(final int version, final int flags) {
+        this.version = version;
+        if (version != PageEncoding.VERSION_1) {
+            try {
+                ostream.writeLong(PageEncoding.ENTRY_PAGE);
+                ostream.writeLong(version);
+                ostream.writeLong(flags);
+                if ((flags & PageEncoding.FLAG_NANOS) != 0) {
+                    // the one read of the system clock of the page
+                    baseMillis = System.currentTimeMillis();
+                    baseNanos = System.nanoTime();
+                    ostream.writeLong(baseMillis);
+                } else if ((flags & PageEncoding.FLAG_TIMESTAMPS) != 0) {
+                    baseMillis = CoarseClock.currentTimeMillis();
+                    ostream.writeLong(baseMillis);
+                }
+                this.flags = flags;
+                headerSize = ostream.size();
+                publish();
+            } catch (final IOException e) {
+                // should never happen, the page is empty.
+                isFull = true;
+            }
+        }
+    }
+
+    /**
+     * @return the page format, see PageEncoding
+     */
+    public int getFormat() {
+        return version;
+    }
+
+    /**
+     * Write eMessages, [className, message], for up to 10 causes as a single string, without building the string.
+     */
+    private void writeMessages(final Throwable cause) throws IOException {
+        int count = 0;
+        int length = 0;
+        Throwable eHelper = cause;
+        // iterate for 10 causes
+        while (eHelper != null && count < EXCEPTION_DEPTH) {
+            exceptionNames[count] = eHelper.getClass().getName();
+            exceptionMessages[count] = String.valueOf(eHelper.getMessage());
+            length += MESSAGE_START.length() + PageBuffer.utf8Length(exceptionNames[count]) + MESSAGE_SEPARATOR.length()
+                            + PageBuffer.utf8Length(exceptionMessages[count]) + MESSAGE_END.length();
+            eHelper = eHelper.getCause();
+            count++;
+        }
+        try {
+            ostream.writeLong(length);
+            for (int i = 0; i < count; i++) {
+                ostream.writeUtf8(MESSAGE_START, MESSAGE_START.length());
+                ostream.writeUtf8(exceptionNames[i], PageBuffer.utf8Length(exceptionNames[i]));
+                ostream.writeUtf8(MESSAGE_SEPARATOR, MESSAGE_SEPARATOR.length());
+                ostream.writeUtf8(exceptionMessages[i], PageBuffer.utf8Length(exceptionMessages[i]));
+                ostream.writeUtf8(MESSAGE_END, MESSAGE_END.length());
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                exceptionNames[i] = null;
+                exceptionMessages[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if the page has no record
+     */
+    public boolean isEmpty() {
+        if (isFramed()) {
+            return (int) walkFrames(Integer.MAX_VALUE, null) == 0;
+        }
+        return committed <= headerSize;
     }
 
     /**
@@ -146,27 +694,70 @@ public class LogPage {
      * @return the bytes of the log page
      */
     public byte[] getBytes() {
-        try {
-            encoder.flush();
-        } catch (final IOException e) {
-            // should never happen.
+        final ByteBuffer view = getCommittedBytes();
+        final byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * View of the complete records of the page, without copying them, the caller must not write into it. It can be called by any thread while
+     * the logger writes the page, the view is not changed by the records written after this call. The records of a page written in frames are
+     * copied out of their frames.
+     *
+     * @return the page bytes from position to limit
+     */
+    public ByteBuffer getCommittedBytes() {
+        if (isFramed()) {
+            // the frames up to the end of the first walk are complete, the second walk copies the same records
+            final long walked = walkFrames(Integer.MAX_VALUE, null);
+            final ByteBuffer records = ByteBuffer.allocate((int) walked);
+            walkFrames((int) (walked >>> Integer.SIZE), records);
+            records.flip();
+            return records;
+        }
+        final int length = committed;
+        final ByteBuffer view = published.duplicate();
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    /**
+     * @return the bytes of the complete records of the page, header included
+     */
+    public int getCommittedSize() {
+        if (isFramed()) {
+            return (int) walkFrames(Integer.MAX_VALUE, null);
         }
-        return ostream.toByteArray();
+        return committed;
     }
 
     /**
      *
      */
     public void setNotActive() {
-        try {
-            encoder.flush();
-        } catch (final IOException e) {
-            // should never happen.
-        }
         ostream.reset();
+        committed = 0;
+        final AtomicLongArray bitmap = frames;
+        if (bitmap != null) {
+            final int used = Math.min(reserved, published.capacity());
+            for (int word = 0; word <= used >>> (FRAME_SHIFT + WORD_SHIFT); word++) {
+                bitmap.lazySet(word, 0);
+            }
+        }
+        reserved = 0;
+        contexts.clear();
+        templates.clear();
+        stacks.clear();
+        stackTexts.clear();
+        version = PageEncoding.VERSION_1;
+        flags = 0;
+        headerSize = 0;
         isFull = false;
         isActive = false;
         nextPageRef = LogPageRef.NULL;
+        pageRef = LogPageRef.NULL;
     }
 
     /**
@@ -179,31 +770,140 @@ public class LogPage {
     }
 
     /**
-     * Visit all current pages and clean references below maxPages and reset the LogPages that are unreferenced.
+     * Keep this page and the maxPages previous pages of the chain, cut the older ones.
      *
      * @param maxPages
-     *            Number of page to keep
+     *            Number of previous pages to keep
+     * @return the link cut from the chain, its page must be released, LogPageRef.NULL if the chain is short enough
      */
-    public void removePageRefAboveLimit(final int maxPages) {
-        LogPage nPage = nextPageRef.get();
-        // Visit all current pages
-        if (nPage != null) {
-            nPage.removePageRefAboveLimit(maxPages - 1);
+    public LogPageRef removePageRefAboveLimit(final int maxPages) {
+        LogPage page = this;
+        for (int i = 0; i < maxPages && page != null; i++) {
+            page = page.nextPageRef.get();
         }
-        // clean references below maxPages and reset the LogPage
-        if (maxPages < 0) {
-            nextPageRef.clear();
-            nPage.setNotActive();
+        if (page == null) {
+            return LogPageRef.NULL;
         }
+        final LogPageRef cut = page.nextPageRef;
+        page.nextPageRef = LogPageRef.NULL;
+        return cut;
+    }
+
+    /**
+     * Unlink the previous page, called when the page is given back to the manager.
+     *
+     * @return the link to the previous page, its page must be released, LogPageRef.NULL if none
+     */
+    public LogPageRef detachNextPage() {
+        final LogPageRef next = nextPageRef;
+        nextPageRef = LogPageRef.NULL;
+        return next;
     }
 
     /**
+     * Hold the page, for instance to read its bytes on another thread, until release is called.
+     */
+    public void retain() {
+        holders.incrementAndGet();
+    }
+
+    /**
+     * Hold the page unless it was already released by its last holder, for the threads sharing a page without owning it.
      *
+     * @return false if the page has no holder left, it may be reused
+     */
+    public boolean tryRetain() {
+        int count;
+        do {
+            count = holders.get();
+            if (count == 0) {
+                return false;
+            }
+        } while (!holders.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Release a hold of the page.
+     *
+     * @return true if this was the last holder, the page must be given back to the manager
+     */
+    public boolean release() {
+        return holders.decrementAndGet() == 0;
+    }
+
+    /**
+     * Called by the logger before writing a record, so the manager does not evict the page under the write, see exitWrite.
+     *
+     * @param pageId
+     *            identifier of the page when it was given to the logger
+     * @return false if the page was evicted, it no longer belongs to the logger
+     */
+    public boolean enterWrite(final long pageId) {
+        return lease.compareAndSet(pageId << 1, (pageId << 1) | 1);
+    }
+
+    /**
+     * Called by the logger after writing a record.
+     *
+     * @param pageId
+     *            identifier of the page when it was given to the logger
+     */
+    public void exitWrite(final long pageId) {
+        lease.lazySet(pageId << 1);
+    }
+
+    /**
+     * @param pageId
+     *            identifier of the page when it was given to the logger
+     * @return true if the lease of the logger was not ended, the page was not returned, evicted or reused
+     */
+    public boolean isLeased(final long pageId) {
+        return lease.get() >> 1 == pageId;
+    }
+
+    /**
+     * End the lease of the logger, called by the logger returning the page or by the manager evicting it. A page being written is not
+     * released.
+     *
+     * @param pageId
+     *            identifier of the page when it was given to the logger
+     * @return true if the caller ended the lease, it must release the hold of the logger
+     */
+    public boolean releaseLease(final long pageId) {
+        return lease.compareAndSet(pageId << 1, RELEASED);
+    }
+
+    /**
+     * @param pageRef
+     *            reference of the page in the manager
+     */
+    public void setPageRef(final LogPageRef pageRef) {
+        this.pageRef = pageRef;
+    }
+
+    /**
+     * @return reference of the page in the manager
+     */
+    public LogPageRef getPageRef() {
+        return pageRef;
+    }
+
+    /**
+     * Reconfigure a page reset by setNotActive to be active again, so it can be reused. The page is held by its logger and by its reference in
+     * the manager.
+     *
+     * @param pageId
+     *            new Page Unique Identifier
      * @param nextPageRef
-     *            reconfigure the page to be active again, so it can be reused
+     *            Page reference for the the last full page related to this one
      */
-    public void setActive(final LogPageRef nextPageRef) {
+    public void setActive(final long pageId, final LogPageRef nextPageRef) {
+        identifier = pageId;
         this.nextPageRef = nextPageRef;
+        pageRef = LogPageRef.NULL;
+        holders.set(ACTIVE_HOLDERS);
+        lease.set(pageId << 1);
         isActive = true;
     }
 
@@ -214,6 +914,27 @@ public class LogPage {
         return isActive;
     }
 
+    /**
+     * @return the page size in bytes, the capacity of the page when it was created
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return the slab slot used by this page or -1 for heap pages
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return true if the page bytes are stored off heap
+     */
+    public boolean isDirect() {
+        return ostream.isDirect();
+    }
+
     /**
      * @return Return the Page Unique Identifier
      */
@@ -0,0 +1,64 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded free list of LogPages. Pages returned by the loggers are reset and kept here so the next rotation reuses the page buffer instead of
+ * allocating a new one.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class LogPagePool {
+    private final Queue<LogPage> freePages = new ConcurrentLinkedQueue<LogPage>();
+    private final AtomicInteger size = new AtomicInteger(0);
+    private final int maxPages;
+
+    /**
+     * @param maxPages
+     *            max number of pages kept in the pool, 0 disables the pool
+     */
+    public LogPagePool(final int maxPages) {
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * @return a reset page or null if the pool is empty
+     */
+    public LogPage acquire() {
+        final LogPage page = freePages.poll();
+        if (page != null) {
+            size.decrementAndGet();
+        }
+        return page;
+    }
+
+    /**
+     * Reset the page and keep it for reuse. The page is dropped if the pool is full.
+     *
+     * @param page
+     *            page that is not referenced by any logger
+     * @return true if the page was kept by the pool
+     */
+    public boolean release(final LogPage page) {
+        if (size.incrementAndGet() > maxPages) {
+            size.decrementAndGet();
+            return false;
+        }
+        page.setNotActive();
+        freePages.offer(page);
+        return true;
+    }
+
+    /**
+     * @return number of pages in the pool
+     */
+    public int size() {
+        return size.get();
+    }
+}
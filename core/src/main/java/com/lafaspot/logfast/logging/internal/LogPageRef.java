@@ -1,37 +1,43 @@
 package com.lafaspot.logfast.logging.internal;
 
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import com.lafaspot.logfast.logging.LogContext;
 
 /**
- * A Mix between a Strong reference for some time and soft reference after some time.
+ * A strong reference to a live page. The page is held from its creation until the reference is cleared, when the logger returns the page, when
+ * the manager evicts it or when the dump is cleared, never by the garbage collector. Set a byte budget, see LogManager.getMaxBytes, to bound
+ * the bytes of the live pages, without a budget they grow with the pages the loggers keep.
  *
  * @author lafa
  *
  */
-public class LogPageRef extends SoftReference<LogPage>implements Comparable<LogPageRef> {
+public class LogPageRef implements Comparable<LogPageRef> {
 
     /**
-     * A NULL softReference that can be used multiple times to save memory allocations.
+     * A NULL reference that can be used multiple times to save memory allocations.
      */
     public static final LogPageRef NULL = new LogPageRef(null);
-    @SuppressWarnings("unused")
-    private LogPage page;
+    private static final AtomicReferenceFieldUpdater<LogPageRef, LogPage> PAGE = AtomicReferenceFieldUpdater.newUpdater(LogPageRef.class,
+                    LogPage.class, "page");
+    private volatile LogPage page;
     @SuppressWarnings("unused")
     private final long timestamp;
     private final Long pageIdentifier;
+    private final String contextName;
+    // Context serial to context name of the records of a page shared by many contexts, null for the page of a single context.
+    private final ConcurrentHashMap<String, String> sharedContexts;
 
     /**
-     * Creates a new soft reference that refers to the given object and is registered with the given queue.
+     * Creates a new reference to the given page.
      *
      * @param referent
-     *            object the new soft reference will refer to
-     * @param q
-     *            the queue with which the reference is to be registered, or <span>null</span> if registration is not required
-     *
+     *            page the new reference will refer to
      */
-    public LogPageRef(final LogPage referent, final ReferenceQueue<? super LogPage> q) {
-        super(referent, q);
+    public LogPageRef(final LogPage referent) {
         this.timestamp = System.currentTimeMillis();
         this.page = referent;
         if (referent == null) {
@@ -39,29 +45,114 @@ public class LogPageRef extends SoftReference<LogPage>implements Comparable<LogP
         } else {
             this.pageIdentifier = referent.getIdentifier();
         }
+        contextName = null;
+        sharedContexts = null;
     }
 
     /**
-     * Creates a new soft reference that refers to the given object. The new reference is not registered with any queue.
+     * Creates a new reference to the page of a logger.
      *
      * @param referent
-     *            object the new soft reference will refer to
+     *            page the new reference will refer to
+     * @param contextName
+     *            name of the LogContext of the logger that writes the page
      */
-    public LogPageRef(final LogPage referent) {
-        super(referent);
+    public LogPageRef(final LogPage referent, final String contextName) {
         this.timestamp = System.currentTimeMillis();
         this.page = referent;
-        if (referent == null) {
-            this.pageIdentifier = 0L;
-        } else {
-            this.pageIdentifier = referent.getIdentifier();
-        }
+        this.pageIdentifier = referent.getIdentifier();
+        this.contextName = contextName;
+        sharedContexts = null;
     }
 
-    @Override
+    /**
+     * Creates a new reference to a page shared by the loggers of many contexts.
+     *
+     * @param referent
+     *            page the new reference will refer to
+     * @return the reference
+     */
+    public static LogPageRef shared(final LogPage referent) {
+        return new LogPageRef(referent, new ConcurrentHashMap<String, String>());
+    }
+
+    private LogPageRef(final LogPage referent, final ConcurrentHashMap<String, String> sharedContexts) {
+        this.timestamp = System.currentTimeMillis();
+        this.page = referent;
+        this.pageIdentifier = referent.getIdentifier();
+        contextName = null;
+        this.sharedContexts = sharedContexts;
+    }
+
+    /**
+     * @return true if the page is shared by the loggers of many contexts
+     */
+    public boolean isShared() {
+        return sharedContexts != null;
+    }
+
+    /**
+     * Remember the context of a record of a shared page.
+     *
+     * @param context
+     *            context of the record
+     * @return true if the context was not known, its name must be indexed
+     */
+    public boolean addContext(final LogContext context) {
+        return !sharedContexts.containsKey(context.toString()) && sharedContexts.putIfAbsent(context.toString(), context.getName()) == null;
+    }
+
+    /**
+     * @param serial
+     *            serial of a context, see LogContext.toString
+     * @return the name of the context with this serial in the shared page, null if none
+     */
+    public String getSharedContextName(final String serial) {
+        return sharedContexts == null ? null : sharedContexts.get(serial);
+    }
+
+    /**
+     * @return the names of the contexts of the records of a shared page, empty if the page is not shared
+     */
+    public Collection<String> getSharedContextNames() {
+        return sharedContexts == null ? Collections.<String>emptySet() : sharedContexts.values();
+    }
+
+    /**
+     * @return name of the LogContext of the logger that writes the page, null if unknown
+     */
+    public String getContextName() {
+        return contextName;
+    }
+
+    /**
+     * @return identifier of the page when the reference was created
+     */
+    public long getPageIdentifier() {
+        return pageIdentifier;
+    }
+
+    /**
+     * @return the page, null if the reference was cleared
+     */
+    public LogPage get() {
+        return page;
+    }
+
+    /**
+     * Clear the reference, see take.
+     */
     public void clear() {
-        page = null;
-        super.clear();
+        take();
+    }
+
+    /**
+     * Clear the reference, only one of the threads clearing it concurrently gets the page.
+     *
+     * @return the page, null if the reference was already cleared
+     */
+    public LogPage take() {
+        return PAGE.getAndSet(this, null);
     }
 
     @Override
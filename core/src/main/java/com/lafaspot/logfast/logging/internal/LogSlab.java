@@ -0,0 +1,180 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Off heap storage for LogPages. The memory is allocated once, as one or more direct slabs, and carved into fixed size page slots. Free slots are
+ * kept in a lock free stack.
+ *
+ * Slots are returned explicitly by free when the owner knows the page is gone, pages dropped without notice (evicted while a logger was still
+ * using them) return their slot once the garbage collector clears the page, see reclaim.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class LogSlab {
+    // Max bytes in a single direct ByteBuffer, kept well below Integer.MAX_VALUE.
+    private static final long MAX_SLAB_BYTES = 1024L * 1024 * 1024;
+    private static final int EMPTY = -1;
+    private static final int INDEX_BITS = 32;
+    private static final long INDEX_MASK = 0xFFFFFFFFL;
+
+    private final ByteBuffer[] slabs;
+    private final int slotSize;
+    private final int slotsPerSlab;
+    private final int slots;
+    // Treiber stack of free slots, head packs an ABA tag with the slot index.
+    private final AtomicLong head = new AtomicLong(pack(0, EMPTY));
+    private final int[] next;
+    private final AtomicInteger freeSlots = new AtomicInteger(0);
+    // slot owner, cleared by the GC when the page is no longer referenced
+    private final AtomicReferenceArray<SlotRef> owners;
+    private final ReferenceQueue<LogPage> queue = new ReferenceQueue<LogPage>();
+
+    /**
+     * @param totalBytes
+     *            bytes allocated off heap, rounded down to a multiple of slotSize
+     * @param slotSize
+     *            bytes per page slot
+     */
+    public LogSlab(final long totalBytes, final int slotSize) {
+        if (slotSize <= 0 || totalBytes < slotSize) {
+            throw new IllegalArgumentException("Off heap size must hold at least one page of " + slotSize + " bytes.");
+        }
+        this.slotSize = slotSize;
+        final long totalSlots = totalBytes / slotSize;
+        if (totalSlots > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many off heap pages: " + totalSlots);
+        }
+        slots = (int) totalSlots;
+        slotsPerSlab = (int) Math.max(1, Math.min(slots, MAX_SLAB_BYTES / slotSize));
+        slabs = new ByteBuffer[(slots + slotsPerSlab - 1) / slotsPerSlab];
+        for (int i = 0; i < slabs.length; i++) {
+            final int slabSlots = Math.min(slotsPerSlab, slots - i * slotsPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(slabSlots * slotSize);
+        }
+        next = new int[slots];
+        owners = new AtomicReferenceArray<SlotRef>(slots);
+        for (int slot = slots - 1; slot >= 0; slot--) {
+            push(slot);
+        }
+    }
+
+    private static long pack(final long tag, final int slot) {
+        return (tag << INDEX_BITS) | (slot & INDEX_MASK);
+    }
+
+    private void push(final int slot) {
+        long current;
+        do {
+            current = head.get();
+            next[slot] = (int) (current & INDEX_MASK);
+        } while (!head.compareAndSet(current, pack((current >>> INDEX_BITS) + 1, slot)));
+        freeSlots.incrementAndGet();
+    }
+
+    private int pop() {
+        long current;
+        int slot;
+        do {
+            current = head.get();
+            slot = (int) (current & INDEX_MASK);
+            if (slot == EMPTY) {
+                return EMPTY;
+            }
+        } while (!head.compareAndSet(current, pack((current >>> INDEX_BITS) + 1, next[slot])));
+        freeSlots.decrementAndGet();
+        return slot;
+    }
+
+    /**
+     * Create a page on a free slot.
+     *
+     * @param pageId
+     *            Page Unique Identifier
+     * @param nextPageRef
+     *            Page reference for the the last full page related to this one
+     * @return the page or null if there is no free slot
+     */
+    public LogPage allocPage(final long pageId, final LogPageRef nextPageRef) {
+        reclaim();
+        final int slot = pop();
+        if (slot == EMPTY) {
+            return null;
+        }
+        final ByteBuffer storage = slabs[slot / slotsPerSlab].duplicate();
+        final int offset = (slot % slotsPerSlab) * slotSize;
+        storage.limit(offset + slotSize).position(offset);
+        final LogPage page = new LogPage(pageId, storage, slot, nextPageRef);
+        owners.set(slot, new SlotRef(page, queue, slot));
+        return page;
+    }
+
+    /**
+     * Return the slot of a page that is no longer referenced.
+     *
+     * @param page
+     *            page allocated by this slab
+     */
+    public void free(final LogPage page) {
+        final int slot = page.getSlot();
+        final SlotRef ref = owners.get(slot);
+        if (ref != null && ref.get() == page) {
+            release(slot, ref);
+        }
+    }
+
+    /**
+     * Return the slots of the pages cleared by the garbage collector.
+     */
+    public void reclaim() {
+        Reference<? extends LogPage> ref;
+        while ((ref = queue.poll()) != null) {
+            final SlotRef slotRef = (SlotRef) ref;
+            release(slotRef.slot, slotRef);
+        }
+    }
+
+    private void release(final int slot, final SlotRef ref) {
+        // only one of free and reclaim wins the slot
+        if (owners.compareAndSet(slot, ref, null)) {
+            ref.clear();
+            push(slot);
+        }
+    }
+
+    /**
+     * @return number of free page slots
+     */
+    public int freeSlots() {
+        return freeSlots.get();
+    }
+
+    /**
+     * @return total number of page slots
+     */
+    public int slots() {
+        return slots;
+    }
+
+    /**
+     * Weak reference from a slot to the page using it.
+     */
+    private static final class SlotRef extends WeakReference<LogPage> {
+        private final int slot;
+
+        SlotRef(final LogPage page, final ReferenceQueue<LogPage> queue, final int slot) {
+            super(page, queue);
+            this.slot = slot;
+        }
+    }
+}
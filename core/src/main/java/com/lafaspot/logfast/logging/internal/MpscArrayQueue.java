@@ -0,0 +1,85 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounded lock free queue for many producers and a single consumer. Producers claim a slot with a compare and set on the producer index and
+ * never wait, offer fails when the queue is full. The consumer sees a claimed slot once the producer stored the element in it.
+ *
+ * @param <E>
+ *            element type
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class MpscArrayQueue<E> {
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong producerIndex = new AtomicLong();
+    private final AtomicLong consumerIndex = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            max number of elements, rounded up to a power of 2
+     */
+    public MpscArrayQueue(final int capacity) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        buffer = new AtomicReferenceArray<E>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Called by any thread.
+     *
+     * @param e
+     *            the element, not null
+     * @return false if the queue is full
+     */
+    public boolean offer(final E e) {
+        final int capacity = mask + 1;
+        while (true) {
+            final long index = producerIndex.get();
+            if (index - consumerIndex.get() >= capacity) {
+                return false;
+            }
+            if (producerIndex.compareAndSet(index, index + 1)) {
+                buffer.lazySet((int) index & mask, e);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Called by the consumer thread only.
+     *
+     * @return the oldest element, null if the queue is empty or the producer of the oldest element did not store it yet
+     */
+    public E poll() {
+        final long index = consumerIndex.get();
+        final int slot = (int) index & mask;
+        final E e = buffer.get(slot);
+        if (e == null) {
+            return null;
+        }
+        buffer.lazySet(slot, null);
+        consumerIndex.lazySet(index + 1);
+        return e;
+    }
+
+    /**
+     * @return true if no element was offered since the last poll
+     */
+    public boolean isEmpty() {
+        return producerIndex.get() == consumerIndex.get();
+    }
+
+    /**
+     * @return number of elements, approximate while producers are offering
+     */
+    public int size() {
+        return (int) (producerIndex.get() - consumerIndex.get());
+    }
+}
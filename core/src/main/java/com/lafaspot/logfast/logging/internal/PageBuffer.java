@@ -0,0 +1,410 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Storage of a LogPage. A heap buffer grows like a ByteArrayOutputStream, a direct buffer is a fixed slot of an off heap slab and fails the write
+ * with an IOException when the slot has no room left.
+ *
+ * The write methods implement the Avro binary encoding (zig-zag varints and length prefixed UTF-8) straight into the buffer, without the
+ * intermediate objects of the generic Avro writers.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class PageBuffer extends OutputStream {
+    private static final long SEVEN_BITS = 0x7FL;
+    private static final int CONTINUATION_BIT = 0x80;
+    private static final int VARINT_SHIFT = 7;
+    private static final int LONG_SIGN_SHIFT = 63;
+    private static final int MAX_VARLONG_SIZE = 10;
+
+    // UTF-8 encoding limits
+    private static final int MAX_ONE_BYTE = 0x80;
+    private static final int MAX_TWO_BYTES = 0x800;
+    private static final int TWO_BYTES_HEADER = 0xC0;
+    private static final int THREE_BYTES_HEADER = 0xE0;
+    private static final int FOUR_BYTES_HEADER = 0xF0;
+    private static final int SIX_BITS = 0x3F;
+    private static final int SHIFT_6 = 6;
+    private static final int SHIFT_12 = 12;
+    private static final int SHIFT_18 = 18;
+    // String.getBytes replaces malformed surrogates with a question mark
+    private static final byte REPLACEMENT = '?';
+
+    private ByteBuffer buffer;
+    private final boolean growable;
+    // Own storage while the buffer writes a window of another storage, and the start of the window, see window.
+    private ByteBuffer home;
+    private int base;
+
+    /**
+     * Create a growable heap buffer.
+     *
+     * @param initialSize
+     *            initial capacity in bytes
+     */
+    public PageBuffer(final int initialSize) {
+        buffer = ByteBuffer.allocate(initialSize);
+        growable = true;
+    }
+
+    /**
+     * Create a fixed size buffer on top of an existing, usually direct, buffer.
+     *
+     * @param storage
+     *            the bytes from position to limit are used by this page
+     */
+    public PageBuffer(final ByteBuffer storage) {
+        buffer = storage.slice();
+        growable = false;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        ensureRemaining(len);
+        buffer.put(b, off, len);
+    }
+
+    private void ensureRemaining(final int len) throws IOException {
+        if (buffer.remaining() >= len) {
+            return;
+        }
+        if (!growable || home != null) {
+            throw new IOException("Page buffer overflow.");
+        }
+        final int minCapacity = buffer.position() + len;
+        int newCapacity = buffer.capacity() << 1;
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(newCapacity);
+        buffer.flip();
+        grown.put(buffer);
+        buffer = grown;
+    }
+
+    /**
+     * Write an Avro int or long, zig-zag varint encoded.
+     *
+     * @param n
+     *            the value
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeLong(final long n) throws IOException {
+        ensureRemaining(MAX_VARLONG_SIZE);
+        long value = (n << 1) ^ (n >> LONG_SIGN_SHIFT);
+        while ((value & ~SEVEN_BITS) != 0) {
+            buffer.put((byte) ((value & SEVEN_BITS) | CONTINUATION_BIT));
+            value >>>= VARINT_SHIFT;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Write an Avro double, 8 bytes little endian.
+     *
+     * @param bits
+     *            the value of Double.doubleToRawLongBits
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeDoubleBits(final long bits) throws IOException {
+        ensureRemaining(Long.BYTES);
+        long value = bits;
+        for (int i = 0; i < Long.BYTES; i++) {
+            buffer.put((byte) value);
+            value >>>= Byte.SIZE;
+        }
+    }
+
+    /**
+     * Write an Avro string, the UTF-8 length followed by the UTF-8 bytes. The output is the same as String.getBytes(UTF_8), malformed
+     * surrogates are written as a question mark.
+     *
+     * @param str
+     *            the string
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeString(final CharSequence str) throws IOException {
+        final int length = utf8Length(str);
+        writeLong(length);
+        writeUtf8(str, length);
+    }
+
+    /**
+     * Write the UTF-8 bytes of a string without the length, used to write one Avro string out of many pieces.
+     *
+     * @param str
+     *            the string
+     * @param utf8Length
+     *            the value of utf8Length(str)
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeUtf8(final CharSequence str, final int utf8Length) throws IOException {
+        ensureRemaining(utf8Length);
+        encodeUtf8(str, 0);
+    }
+
+    /**
+     * Write the UTF-8 bytes of a string of unknown UTF-8 length, ASCII strings are written in a single pass.
+     *
+     * @param str
+     *            the string
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeUtf8(final CharSequence str) throws IOException {
+        final int len = str.length();
+        // UTF-8 has at least one byte per char
+        ensureRemaining(len);
+        int i = 0;
+        // ASCII fast path
+        for (char c; i < len && (c = str.charAt(i)) < MAX_ONE_BYTE; i++) {
+            buffer.put((byte) c);
+        }
+        if (i < len) {
+            ensureRemaining(utf8Length(str, i));
+            encodeUtf8(str, i);
+        }
+    }
+
+    /**
+     * Write the UTF-8 bytes of a char, a surrogate char is written as a question mark as it is not a complete code point.
+     *
+     * @param c
+     *            the char
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeUtf8(final char c) throws IOException {
+        if (c < MAX_ONE_BYTE) {
+            ensureRemaining(1);
+            buffer.put((byte) c);
+        } else {
+            final String str = String.valueOf(c);
+            writeUtf8(str, utf8Length(str));
+        }
+    }
+
+    private void encodeUtf8(final CharSequence str, final int from) {
+        final int len = str.length();
+        int i = from;
+        // ASCII fast path
+        for (char c; i < len && (c = str.charAt(i)) < MAX_ONE_BYTE; i++) {
+            buffer.put((byte) c);
+        }
+        for (; i < len; i++) {
+            final char c = str.charAt(i);
+            if (c < MAX_ONE_BYTE) {
+                buffer.put((byte) c);
+            } else if (c < MAX_TWO_BYTES) {
+                buffer.put((byte) (TWO_BYTES_HEADER | (c >> SHIFT_6)));
+                buffer.put((byte) (MAX_ONE_BYTE | (c & SIX_BITS)));
+            } else if (!Character.isSurrogate(c)) {
+                buffer.put((byte) (THREE_BYTES_HEADER | (c >> SHIFT_12)));
+                buffer.put((byte) (MAX_ONE_BYTE | ((c >> SHIFT_6) & SIX_BITS)));
+                buffer.put((byte) (MAX_ONE_BYTE | (c & SIX_BITS)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, str.charAt(++i));
+                buffer.put((byte) (FOUR_BYTES_HEADER | (cp >> SHIFT_18)));
+                buffer.put((byte) (MAX_ONE_BYTE | ((cp >> SHIFT_12) & SIX_BITS)));
+                buffer.put((byte) (MAX_ONE_BYTE | ((cp >> SHIFT_6) & SIX_BITS)));
+                buffer.put((byte) (MAX_ONE_BYTE | (cp & SIX_BITS)));
+            } else {
+                buffer.put(REPLACEMENT);
+            }
+        }
+    }
+
+    /**
+     * Start an Avro string of unknown length, one byte is reserved for the length, see endString.
+     *
+     * @return the position of the string, to be given to endString
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public int beginString() throws IOException {
+        ensureRemaining(1);
+        final int start = buffer.position();
+        buffer.put((byte) 0);
+        return start;
+    }
+
+    /**
+     * Write the length of a string started by beginString, the bytes are moved when the length needs more than the reserved byte.
+     *
+     * @param start
+     *            the value returned by beginString
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void endString(final int start) throws IOException {
+        final int end = buffer.position();
+        final int length = end - start - 1;
+        long value = (long) length << 1;
+        int lengthSize = 1;
+        while ((value & ~SEVEN_BITS) != 0) {
+            value >>>= VARINT_SHIFT;
+            lengthSize++;
+        }
+        if (lengthSize > 1) {
+            ensureRemaining(lengthSize - 1);
+            final int shift = lengthSize - 1;
+            if (buffer.hasArray()) {
+                final byte[] array = buffer.array();
+                final int offset = buffer.arrayOffset();
+                System.arraycopy(array, offset + start + 1, array, offset + start + 1 + shift, length);
+            } else {
+                for (int i = end - 1; i > start; i--) {
+                    buffer.put(i + shift, buffer.get(i));
+                }
+            }
+        }
+        // the zig-zag value of a positive length is length << 1, written in the reserved bytes
+        int index = start;
+        value = (long) length << 1;
+        while ((value & ~SEVEN_BITS) != 0) {
+            buffer.put(index++, (byte) ((value & SEVEN_BITS) | CONTINUATION_BIT));
+            value >>>= VARINT_SHIFT;
+        }
+        buffer.put(index, (byte) value);
+        buffer.position(end + lengthSize - 1);
+    }
+
+    /**
+     * @param str
+     *            the string
+     * @return number of bytes of the UTF-8 encoding of the string, see writeString
+     */
+    public static int utf8Length(final CharSequence str) {
+        return utf8Length(str, 0);
+    }
+
+    private static int utf8Length(final CharSequence str, final int from) {
+        final int len = str.length();
+        int bytes = len - from;
+        for (int i = from; i < len; i++) {
+            final char c = str.charAt(i);
+            if (c >= MAX_ONE_BYTE) {
+                if (c < MAX_TWO_BYTES) {
+                    bytes++;
+                } else if (!Character.isSurrogate(c)) {
+                    bytes += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(str.charAt(i + 1))) {
+                    // two chars, four bytes
+                    bytes += 2;
+                    i++;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of bytes written
+     */
+    public int size() {
+        return buffer.position() - base;
+    }
+
+    /**
+     * @return the current capacity
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * @return true if the bytes are stored off heap
+     */
+    public boolean isDirect() {
+        return buffer.isDirect();
+    }
+
+    /**
+     * Discard the bytes written after position, used to roll back a partial write.
+     *
+     * @param position
+     *            the new size of the buffer
+     */
+    public void truncate(final int position) {
+        buffer.position(base + position);
+    }
+
+    /**
+     * Discard all bytes.
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * Write the next bytes into a window of another storage instead of this buffer, the window does not grow. The sizes and positions are
+     * relative to the start of the window until endWindow.
+     *
+     * @param target
+     *            a view of the other storage, owned by this buffer until endWindow
+     * @param from
+     *            start of the window in the target
+     * @param to
+     *            end of the window in the target
+     */
+    void window(final ByteBuffer target, final int from, final int to) {
+        target.limit(to);
+        target.position(from);
+        if (home == null) {
+            home = buffer;
+        }
+        buffer = target;
+        base = from;
+    }
+
+    /**
+     * Go back to the own storage of the buffer, see window.
+     *
+     * @return number of bytes written in the window
+     */
+    int endWindow() {
+        final int length = size();
+        if (home != null) {
+            buffer = home;
+            home = null;
+            base = 0;
+        }
+        return length;
+    }
+
+    /**
+     * @return the current storage, replaced when a heap buffer grows
+     */
+    ByteBuffer storage() {
+        return buffer;
+    }
+
+    /**
+     * @return a copy of the bytes written
+     */
+    public byte[] toByteArray() {
+        final byte[] bytes = new byte[size()];
+        final ByteBuffer view = buffer.duplicate();
+        view.flip();
+        view.position(base);
+        view.get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Per page dictionary from a key to a small integer id, ids are given in insertion order starting at 0. Open addressing over arrays, so a
+ * lookup does not allocate and clear keeps the arrays for the next page.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class PageDictionary {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NOT_FOUND = -1;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param key
+     *            the key
+     * @return the id of the key or -1 if the key is not in the dictionary
+     */
+    public int get(final Object key) {
+        final int mask = keys.length - 1;
+        for (int i = mix(key.hashCode()) & mask;; i = (i + 1) & mask) {
+            final Object current = keys[i];
+            if (current == null) {
+                return NOT_FOUND;
+            }
+            if (current == key || current.equals(key)) {
+                return ids[i];
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            a key that is not in the dictionary
+     * @return the id given to the key
+     */
+    public int put(final Object key) {
+        // keep the load factor under 50%
+        if ((size + 1) << 1 > keys.length) {
+            resize();
+        }
+        insert(keys, ids, key, size);
+        return size++;
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all keys.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, null);
+            size = 0;
+        }
+    }
+
+    private void resize() {
+        final Object[] newKeys = new Object[keys.length << 1];
+        final int[] newIds = new int[newKeys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                insert(newKeys, newIds, keys[i], ids[i]);
+            }
+        }
+        keys = newKeys;
+        ids = newIds;
+    }
+
+    private static void insert(final Object[] keys, final int[] ids, final Object key, final int id) {
+        final int mask = keys.length - 1;
+        int i = mix(key.hashCode()) & mask;
+        while (keys[i] != null) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        ids[i] = id;
+    }
+
+    private static int mix(final int hash) {
+        return hash ^ (hash >>> (Integer.SIZE / 2));
+    }
+}
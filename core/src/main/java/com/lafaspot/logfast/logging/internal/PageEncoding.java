@@ -0,0 +1,109 @@
+package com.lafaspot.logfast.logging.internal;
+
+/**
+ * Constants of the page formats.
+ *
+ * Version 1 pages are a plain sequence of Avro LogRecord fragments, see LogPage.SCHEMA_STR.
+ *
+ * Version 2 pages are a sequence of entries, every entry starts with a negative varint tag. A version 1 record starts with the length of the
+ * context name, which is never negative, so both formats can be told apart and concatenated in a single dump.
+ * <ul>
+ * <li>ENTRY_PAGE: page version and FLAG_* flags, followed by the base timestamp in milliseconds since the epoch when FLAG_TIMESTAMPS is set.
+ * Starts every version 2 page and resets the page dictionaries.</li>
+ * <li>ENTRY_CONTEXT: a LogContext serial, the first one of a page gets id 0, the next one 1, and so on.</li>
+ * <li>ENTRY_RECORD: the timestamp delta when FLAG_TIMESTAMPS is set, context id followed by the level, data, eMessages and eStackTrace fields
+ * of the LogRecord. eStackTrace can also be STACK_BRANCH followed by a stack id.</li>
+ * <li>ENTRY_STACK: the text of a stack trace, ids are given in order like the contexts.</li>
+ * <li>ENTRY_TEMPLATE: a message template, ids are given in order like the contexts.</li>
+ * <li>ENTRY_TEMPLATE_RECORD: the timestamp delta when FLAG_TIMESTAMPS is set, context id, level, template id, number of arguments and the
+ * typed arguments. Every argument is an ARG_* type
+ * followed by the value: nothing for null, a varint for long and boolean, 8 little endian bytes for double and a string otherwise. The data of
+ * the record is the formatted template.</li>
+ * </ul>
+ * The timestamp delta of a record is a varint added to the base timestamp of the page, in milliseconds, or in nanoseconds when FLAG_NANOS is
+ * set.
+ *
+ * @author lafa
+ *
+ */
+public final class PageEncoding {
+    /**
+     * Plain LogRecord fragments.
+     */
+    public static final int VERSION_1 = 1;
+    /**
+     * Entries with per page dictionaries.
+     */
+    public static final int VERSION_2 = 2;
+
+    /**
+     * Page header entry.
+     */
+    public static final int ENTRY_PAGE = -1;
+    /**
+     * Context dictionary entry.
+     */
+    public static final int ENTRY_CONTEXT = -2;
+    /**
+     * Log record entry.
+     */
+    public static final int ENTRY_RECORD = -3;
+    /**
+     * Template dictionary entry.
+     */
+    public static final int ENTRY_TEMPLATE = -4;
+    /**
+     * Template log record entry.
+     */
+    public static final int ENTRY_TEMPLATE_RECORD = -5;
+    /**
+     * Stack trace dictionary entry.
+     */
+    public static final int ENTRY_STACK = -6;
+
+    /**
+     * Null template argument.
+     */
+    public static final byte ARG_NULL = 0;
+    /**
+     * Long template argument.
+     */
+    public static final byte ARG_LONG = 1;
+    /**
+     * Double template argument.
+     */
+    public static final byte ARG_DOUBLE = 2;
+    /**
+     * Boolean template argument.
+     */
+    public static final byte ARG_BOOLEAN = 3;
+    /**
+     * String template argument, any other object is written as its toString.
+     */
+    public static final byte ARG_STRING = 4;
+
+    /**
+     * The page has a base timestamp and every record a timestamp delta.
+     */
+    public static final int FLAG_TIMESTAMPS = 1;
+    /**
+     * The timestamp deltas are in nanoseconds.
+     */
+    public static final int FLAG_NANOS = 2;
+
+    /**
+     * Union branch for a string value of eMessages and eStackTrace.
+     */
+    public static final int STRING_BRANCH = 0;
+    /**
+     * Union branch for a null value of eMessages and eStackTrace.
+     */
+    public static final int NULL_BRANCH = 1;
+    /**
+     * Version 2 branch of eStackTrace for a stack dictionary id.
+     */
+    public static final int STACK_BRANCH = 2;
+
+    private PageEncoding() {
+    }
+}
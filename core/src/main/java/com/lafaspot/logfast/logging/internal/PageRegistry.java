@@ -0,0 +1,244 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Registry of the live pages of a LogManager, striped in shards picked by the hash of the calling thread so threads allocating pages do not
+ * contend on a single set. Every shard is a lock free ordered set, the iteration merges the shards back in page order.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class PageRegistry implements Iterable<LogPageRef> {
+    // Fibonacci hashing spreads the sequential thread ids across the shards
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+    private static final int MAX_SHARDS = 64;
+
+    private final List<ConcurrentSkipListSet<LogPageRef>> shards;
+    private final int shift;
+    // bounded sweeps, one at a time, resume in the shard and after the page where the previous sweep stopped
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private int sweepShard;
+    private LogPageRef sweepFrom;
+
+    /**
+     * Registry with a shard per processor, up to 64.
+     */
+    public PageRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param shardCount
+     *            number of shards, rounded up to a power of 2, up to 64
+     */
+    public PageRegistry(final int shardCount) {
+        final int count = Math.min(MAX_SHARDS, Integer.highestOneBit(Math.max(2, shardCount) - 1) << 1);
+        final List<ConcurrentSkipListSet<LogPageRef>> list = new ArrayList<ConcurrentSkipListSet<LogPageRef>>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(new ConcurrentSkipListSet<LogPageRef>());
+        }
+        shards = Collections.unmodifiableList(list);
+        shift = Long.SIZE - Integer.numberOfTrailingZeros(count);
+    }
+
+    /**
+     * @param pageRef
+     *            page to add, in the shard of the calling thread
+     */
+    public void add(final LogPageRef pageRef) {
+        shards.get(shardOf(Thread.currentThread(), shift)).add(pageRef);
+    }
+
+    /**
+     * @param thread
+     *            a thread
+     * @param shift
+     *            64 minus the log2 of the number of shards
+     * @return the shard of the thread
+     */
+    public static int shardOf(final Thread thread, final int shift) {
+        return (int) ((thread.getId() * GOLDEN_RATIO) >>> shift);
+    }
+
+    /**
+     * @param pageRef
+     *            page to remove, from any shard
+     * @return true if the page was removed by this call
+     */
+    public boolean remove(final LogPageRef pageRef) {
+        for (final ConcurrentSkipListSet<LogPageRef> shard : shards) {
+            if (shard.remove(pageRef)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param filter
+     *            returns true for the pages to remove
+     * @return true if any page was removed
+     */
+    public boolean removeIf(final Predicate<? super LogPageRef> filter) {
+        boolean removed = false;
+        for (final ConcurrentSkipListSet<LogPageRef> shard : shards) {
+            removed |= shard.removeIf(filter);
+        }
+        return removed;
+    }
+
+    /**
+     * Test a bounded number of pages, in page order within a shard, starting after the last page tested by the previous sweep. A sweep already
+     * running in another thread makes this call return at once.
+     *
+     * @param filter
+     *            returns true for the pages to remove
+     * @param maxVisits
+     *            max number of pages tested
+     * @return number of pages removed
+     */
+    public int sweep(final Predicate<? super LogPageRef> filter, final int maxVisits) {
+        if (!sweeping.compareAndSet(false, true)) {
+            return 0;
+        }
+        try {
+            int visits = 0;
+            int removed = 0;
+            // every shard is entered once at most, an empty registry ends the sweep
+            for (int entered = 0; visits < maxVisits && entered <= shards.size(); entered++) {
+                final ConcurrentSkipListSet<LogPageRef> shard = shards.get(sweepShard);
+                final Iterator<LogPageRef> it = (sweepFrom == null ? shard : shard.tailSet(sweepFrom, false)).iterator();
+                while (visits < maxVisits && it.hasNext()) {
+                    final LogPageRef pageRef = it.next();
+                    visits++;
+                    sweepFrom = pageRef;
+                    if (filter.test(pageRef)) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+                if (visits < maxVisits) {
+                    // end of the shard
+                    sweepShard = (sweepShard + 1) & (shards.size() - 1);
+                    sweepFrom = null;
+                }
+            }
+            return removed;
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * Remove the first pages of every shard, the oldest ones, up to the first page kept by the filter.
+     *
+     * @param filter
+     *            returns true for the pages to remove
+     * @return number of pages removed
+     */
+    public int removeOldest(final Predicate<? super LogPageRef> filter) {
+        int removed = 0;
+        for (final ConcurrentSkipListSet<LogPageRef> shard : shards) {
+            final Iterator<LogPageRef> it = shard.iterator();
+            while (it.hasNext() && filter.test(it.next())) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return number of pages, exact when no page is added or removed concurrently
+     */
+    public int size() {
+        int size = 0;
+        for (final ConcurrentSkipListSet<LogPageRef> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return number of shards
+     */
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /**
+     * The pages in page order, a k-way merge of the shards. Like the iterators of the shards it is weakly consistent.
+     *
+     * @return the pages in page order
+     */
+    @Override
+    public Iterator<LogPageRef> iterator() {
+        return new MergeIterator(shards);
+    }
+
+    /**
+     * Merge of the ordered iterators of the shards, the head of every shard in a heap.
+     */
+    private static final class MergeIterator implements Iterator<LogPageRef> {
+        private final PriorityQueue<Head> heads;
+
+        MergeIterator(final List<ConcurrentSkipListSet<LogPageRef>> shards) {
+            heads = new PriorityQueue<Head>(shards.size());
+            for (final ConcurrentSkipListSet<LogPageRef> shard : shards) {
+                final Iterator<LogPageRef> it = shard.iterator();
+                if (it.hasNext()) {
+                    heads.add(new Head(it));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public LogPageRef next() {
+            final Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            final LogPageRef next = head.current;
+            if (head.it.hasNext()) {
+                head.current = head.it.next();
+                heads.add(head);
+            }
+            return next;
+        }
+    }
+
+    /**
+     * Current page of a shard iterator.
+     */
+    private static final class Head implements Comparable<Head> {
+        private final Iterator<LogPageRef> it;
+        private LogPageRef current;
+
+        Head(final Iterator<LogPageRef> it) {
+            this.it = it;
+            current = it.next();
+        }
+
+        @Override
+        public int compareTo(final Head other) {
+            return current.compareTo(other.current);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.io.IOException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.LogWriter;
+import com.lafaspot.logfast.logging.Loggable;
+
+/**
+ * LogWriter that encodes a Loggable as one Avro string straight into a PageBuffer.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class PageWriter implements LogWriter {
+    // Long.MIN_VALUE has 19 digits and the sign
+    private static final int MAX_LONG_DIGITS = 20;
+    private static final int RADIX = 10;
+
+    private final PageBuffer ostream;
+    private final byte[] digits = new byte[MAX_LONG_DIGITS];
+
+    /**
+     * @param ostream
+     *            the page buffer
+     */
+    public PageWriter(final PageBuffer ostream) {
+        this.ostream = ostream;
+    }
+
+    /**
+     * Write the text of a Loggable as an Avro string.
+     *
+     * @param loggable
+     *            the object to write
+     * @throws IOException
+     *             fixed size buffer without room left
+     */
+    public void writeString(final Loggable loggable) throws IOException {
+        final int start = ostream.beginString();
+        loggable.writeTo(this);
+        ostream.endString(start);
+    }
+
+    @Override
+    public PageWriter append(final CharSequence csq) throws IOException {
+        ostream.writeUtf8(csq == null ? "null" : csq);
+        return this;
+    }
+
+    @Override
+    public PageWriter append(final CharSequence csq, final int start, final int end) throws IOException {
+        ostream.writeUtf8((csq == null ? "null" : csq).subSequence(start, end));
+        return this;
+    }
+
+    @Override
+    public PageWriter append(final char c) throws IOException {
+        ostream.writeUtf8(c);
+        return this;
+    }
+
+    @Override
+    public PageWriter append(final long value) throws IOException {
+        // digits from the end, negative values avoid the overflow of Long.MIN_VALUE
+        int pos = MAX_LONG_DIGITS;
+        long n = value < 0 ? value : -value;
+        do {
+            digits[--pos] = (byte) ('0' - (n % RADIX));
+            n /= RADIX;
+        } while (n != 0);
+        if (value < 0) {
+            digits[--pos] = '-';
+        }
+        ostream.write(digits, pos, MAX_LONG_DIGITS - pos);
+        return this;
+    }
+}
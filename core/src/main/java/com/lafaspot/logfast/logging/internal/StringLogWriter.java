@@ -0,0 +1,70 @@
+package com.lafaspot.logfast.logging.internal;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.lafaspot.logfast.logging.LogWriter;
+
+/**
+ * LogWriter appending to a StringBuilder, used to get the text of a Loggable, for instance in Loggable.toString.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class StringLogWriter implements LogWriter {
+    private StringBuilder out;
+
+    /**
+     * @param out
+     *            where to append the text
+     */
+    public StringLogWriter(final StringBuilder out) {
+        this.out = out;
+    }
+
+    /**
+     * @param out
+     *            where to append the text from now on
+     * @return itself
+     */
+    public StringLogWriter setTarget(final StringBuilder out) {
+        this.out = out;
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final CharSequence csq) {
+        out.append(csq);
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final CharSequence csq, final int start, final int end) {
+        out.append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final char c) {
+        out.append(c);
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final long value) {
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final double value) {
+        out.append(value);
+        return this;
+    }
+
+    @Override
+    public StringLogWriter append(final boolean value) {
+        out.append(value);
+        return this;
+    }
+}
@@ -0,0 +1,57 @@
+package com.lafaspot.logfast.logging.internal;
+
+/**
+ * Formats message templates, every {} in the template is replaced by the next argument, the same as SLF4J. Extra arguments are ignored and
+ * placeholders without argument are kept.
+ *
+ * @author lafa
+ *
+ */
+public final class TemplateFormatter {
+    /**
+     * Placeholder for an argument.
+     */
+    public static final String PLACEHOLDER = "{}";
+
+    /**
+     * Source of the arguments of a template.
+     */
+    public interface Arguments {
+        /**
+         * @return number of arguments
+         */
+        int size();
+
+        /**
+         * @param out
+         *            where to append the text of the argument
+         * @param index
+         *            argument index
+         */
+        void appendTo(StringBuilder out, int index);
+    }
+
+    private TemplateFormatter() {
+    }
+
+    /**
+     * @param out
+     *            where to append the message
+     * @param template
+     *            the message template
+     * @param arguments
+     *            the arguments
+     * @return out
+     */
+    public static StringBuilder format(final StringBuilder out, final String template, final Arguments arguments) {
+        int from = 0;
+        int index = 0;
+        int at;
+        while (index < arguments.size() && (at = template.indexOf(PLACEHOLDER, from)) >= 0) {
+            out.append(template, from, at);
+            arguments.appendTo(out, index++);
+            from = at + PLACEHOLDER.length();
+        }
+        return out.append(template, from, template.length());
+    }
+}
@@ -0,0 +1,125 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * The stack of an exception and of its causes, the class names and the frames without the messages, so the many exceptions thrown by the same
+ * code have equal stacks. A capture is reused for every record, the copy kept as a page dictionary key.
+ *
+ * @author lafa
+ *
+ */
+@NotThreadSafe
+public class ThrowableStack {
+    private static final int HASH_MULTIPLIER = 31;
+    private static final String CAUSED_BY = "Caused by: ";
+    private static final String AT = "\tat ";
+
+    private final String[] classNames;
+    private final StackTraceElement[][] frames;
+    private int depth;
+    private int hash;
+
+    /**
+     * @param maxDepth
+     *            max number of exceptions of the cause chain
+     */
+    public ThrowableStack(final int maxDepth) {
+        classNames = new String[maxDepth];
+        frames = new StackTraceElement[maxDepth][];
+    }
+
+    private ThrowableStack(final ThrowableStack other) {
+        classNames = Arrays.copyOf(other.classNames, other.depth);
+        frames = Arrays.copyOf(other.frames, other.depth);
+        depth = other.depth;
+        hash = other.hash;
+    }
+
+    /**
+     * Capture the stack of an exception and of its causes, up to the max depth.
+     *
+     * @param cause
+     *            the exception
+     */
+    public void capture(final Throwable cause) {
+        clear();
+        int h = 0;
+        for (Throwable t = cause; t != null && depth < classNames.length; t = t.getCause()) {
+            final String className = t.getClass().getName();
+            final StackTraceElement[] stack = t.getStackTrace();
+            h = h * HASH_MULTIPLIER + className.hashCode();
+            for (final StackTraceElement frame : stack) {
+                h = h * HASH_MULTIPLIER + frame.hashCode();
+            }
+            classNames[depth] = className;
+            frames[depth] = stack;
+            depth++;
+        }
+        hash = h;
+    }
+
+    /**
+     * Drop the references to the captured frames.
+     */
+    public void clear() {
+        Arrays.fill(classNames, 0, depth, null);
+        Arrays.fill(frames, 0, depth, null);
+        depth = 0;
+        hash = 0;
+    }
+
+    /**
+     * @return an immutable copy of the captured stack
+     */
+    public ThrowableStack copy() {
+        return new ThrowableStack(this);
+    }
+
+    /**
+     * The stack in the format of Throwable.printStackTrace without the messages, one line per exception and per frame.
+     *
+     * @return the UTF-8 bytes of the stack
+     */
+    public byte[] toUtf8() {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            if (i > 0) {
+                text.append(CAUSED_BY);
+            }
+            text.append(classNames[i]).append('\n');
+            for (final StackTraceElement frame : frames[i]) {
+                text.append(AT).append(frame).append('\n');
+            }
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ThrowableStack)) {
+            return false;
+        }
+        final ThrowableStack other = (ThrowableStack) obj;
+        if (hash != other.hash || depth != other.depth) {
+            return false;
+        }
+        for (int i = 0; i < depth; i++) {
+            if (!classNames[i].equals(other.classNames[i]) || !Arrays.equals(frames[i], other.frames[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Lock free token bucket. The bucket keeps the time it is full again instead of a token count, a token moves that time forward by the token
+ * interval, so a single compare-and-set takes a token and refills the bucket.
+ *
+ * @author lafa
+ *
+ */
+@ThreadSafe
+public class TokenBucket {
+    // Nanoseconds to refill one token.
+    private final long interval;
+    // Nanoseconds to refill the whole bucket.
+    private final long capacity;
+    // Time when the bucket is full again, in System.nanoTime.
+    private final AtomicLong fullTime;
+
+    /**
+     * @param tokensPerSecond
+     *            tokens refilled per second, more than 0
+     * @param burst
+     *            max tokens in the bucket, at least 1
+     */
+    public TokenBucket(final double tokensPerSecond, final int burst) {
+        interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / tokensPerSecond));
+        capacity = interval * Math.max(1, burst);
+        fullTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * @return true if a token was taken, false if the bucket is empty
+     */
+    public boolean tryAcquire() {
+        final long now = System.nanoTime();
+        long full;
+        long next;
+        do {
+            full = fullTime.get();
+            next = (full - now > 0 ? full : now) + interval;
+            if (next - now > capacity) {
+                return false;
+            }
+        } while (!fullTime.compareAndSet(full, next));
+        return true;
+    }
+
+    /**
+     * Give back a token taken by tryAcquire and not used. A full bucket stays full.
+     */
+    public void refund() {
+        fullTime.getAndAdd(-interval);
+    }
+}
@@ -0,0 +1,107 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Properties;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.lafaspot.logfast.logging.Logger.Level;
+
+/**
+ * Bytes allocated by Logger.info per call in steady state, against the budget committed in allocation-budget.properties. The allocations of the
+ * calling thread are read from the ThreadMXBean of the JVM, after a warm up that lets the JIT compile the log path and fills the page pool. The
+ * tests are skipped on a JVM without thread allocation counters.
+ *
+ * @author lafa
+ *
+ */
+public class AllocationTest {
+    private static final int WARMUP_CALLS = 200000;
+    private static final int MEASURED_CALLS = 100000;
+
+    private final LogContext context = new LogContext("email=123@lafaspot.com") {
+    };
+    private final Properties budget = new Properties();
+    private com.sun.management.ThreadMXBean threads;
+
+    /**
+     * Load the budget.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @BeforeClass
+    public void setup() throws Exception {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                        || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            throw new SkipException("Thread allocation counters are not supported by this JVM");
+        }
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        try (InputStream in = AllocationTest.class.getResourceAsStream("/allocation-budget.properties")) {
+            budget.load(in);
+        }
+    }
+
+    /**
+     * A disabled level does not allocate.
+     */
+    @Test
+    public void testDisabledLevel() {
+        final LogManager manager = new LogManager(Level.WARN, 10);
+        final Logger logger = manager.getLogger(context);
+        final LogDataUtil data = new LogDataUtil().set(AllocationTest.class, "requestId", "disabled");
+        assertBudget("disabled", 0, () -> logger.info(data, null));
+    }
+
+    /**
+     * An enabled level with LogDataUtil data.
+     */
+    @Test
+    public void testEnabledLevel() {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        manager.setMinPageSize(1024 * 1024);
+        final Logger logger = manager.getLogger(context);
+        final LogDataUtil data = new LogDataUtil().set(AllocationTest.class, "requestId", "enabled");
+        assertBudget("enabled", 0, () -> logger.info(data, null));
+    }
+
+    /**
+     * An enabled level with LogDataUtil data and an exception. The stack of the exception is found in the page dictionary, but
+     * Throwable.getStackTrace copies the frames on every call, the budget is per call and per frame.
+     */
+    @Test
+    public void testEnabledLevelWithException() {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        manager.setMinPageSize(1024 * 1024);
+        final Logger logger = manager.getLogger(context);
+        final LogDataUtil data = new LogDataUtil().set(AllocationTest.class, "requestId", "exception");
+        final Exception e = new Exception("failure");
+        assertBudget("exception", e.getStackTrace().length, () -> logger.info(data, e));
+    }
+
+    /**
+     * @param frames
+     *            stack frames copied by every call, the budget of name.frame is allowed per frame
+     */
+    private void assertBudget(final String name, final int frames, final Runnable call) {
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            call.run();
+        }
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run();
+        }
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        final double perCall = Double.parseDouble(budget.getProperty(name)) + frames * Double.parseDouble(budget.getProperty(name + ".frame", "0"));
+        final long allowed = (long) (perCall * MEASURED_CALLS);
+        Assert.assertTrue(allocated <= allowed, name + " allocates " + allocated + " bytes in " + MEASURED_CALLS + " calls, budget " + allowed);
+    }
+}
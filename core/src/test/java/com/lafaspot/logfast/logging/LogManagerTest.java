@@ -0,0 +1,1035 @@
+package com.lafaspot.logfast.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.tool.BinaryFragmentToJsonTool;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.logfast.logging.Logger.Level;
+import com.lafaspot.logfast.logging.internal.LogPage;
+import com.lafaspot.logfast.logging.internal.LogPageRef;
+
+/**
+ * LogManager testcases
+ *
+ * @author lafa
+ *
+ */
+public class LogManagerTest {
+    // the same stack for the samples of every manager
+    private static final Exception SAMPLE_FAILURE = new Exception("failure");
+
+    private final LogContext context = new LogContext("email=123@lafaspot.com") {
+    };
+
+    /**
+     * Pages returned by a logger are reused by the next allocation.
+     */
+    @Test
+    public void testPagePool() {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        final LogDataUtil data = new LogDataUtil();
+
+        final Logger logger1 = manager.getLogger(context);
+        logger1.info(data.set(LogManagerTest.class, "first"), null);
+        final int firstSize = manager.getBytes().length;
+        logger1.flush();
+        Assert.assertEquals(manager.stats().pooledPages(), 1, "pooled");
+        Assert.assertEquals(manager.getBytes().length, 0, "returned page is not dumped");
+
+        final Logger logger2 = manager.getLogger(context);
+        logger2.info(data.set(LogManagerTest.class, "other"), null);
+        Assert.assertEquals(manager.stats().pooledPages(), 0, "pooled");
+        Assert.assertEquals(manager.stats().recycledPages(), 1, "recycled");
+        Assert.assertEquals(manager.stats().createdPages(), 2, "created");
+        // the reused page only holds the new record
+        Assert.assertEquals(manager.getBytes().length, firstSize, "reset page");
+    }
+
+    /**
+     * The pool never keeps more pages than the manager max size.
+     */
+    @Test
+    public void testPagePoolBound() {
+        final LogManager manager = new LogManager(Level.INFO, 2);
+        final LogDataUtil data = new LogDataUtil().set(LogManagerTest.class, "bound");
+        final Logger[] loggers = new Logger[4];
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i] = manager.getLogger(context);
+            loggers[i].info(data, null);
+        }
+        for (final Logger logger : loggers) {
+            logger.flush();
+        }
+        Assert.assertEquals(manager.stats().pooledPages(), 2, "pooled");
+    }
+
+    /**
+     * Off heap pages are limited by the slots allocated at startup.
+     */
+    @Test
+    public void testOffHeapSlots() {
+        final LogManager manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE, 3L * 1024 * 1024);
+        final LogDataUtil data = new LogDataUtil().set(LogManagerTest.class, "offheap");
+        Assert.assertEquals(manager.stats().freeOffHeapPages(), 3, "free slots");
+
+        final Logger[] loggers = new Logger[4];
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i] = manager.getLogger(context);
+            loggers[i].info(data, null);
+        }
+        Assert.assertEquals(manager.stats().freeOffHeapPages(), 0, "free slots");
+        Assert.assertEquals(manager.stats().createdPages(), 3, "no slot, no page");
+        final int recordSize = manager.getBytes().length / 3;
+
+        // returned pages keep their slot in the pool and are reused
+        loggers[0].flush();
+        loggers[3].info(data, null);
+        Assert.assertEquals(manager.stats().recycledPages(), 1, "recycled");
+        Assert.assertEquals(manager.getBytes().length, recordSize * 3, "dump");
+    }
+
+    /**
+     * A record that does not fit in an off heap page is logged on the next page.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testOffHeapPageOverflow() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, LogPage.DEFAULT_SIZE, 2L * 1024 * 1024);
+        final char[] chars = new char[100 * 1024];
+        Arrays.fill(chars, 'x');
+        final String big = new String(chars);
+        final Logger logger = manager.getLogger(context);
+        for (int i = 0; i < 10; i++) {
+            logger.info(big, null);
+        }
+        Assert.assertEquals(manager.stats().createdPages(), 1, "created");
+        logger.info("last " + big, null);
+        Assert.assertEquals(manager.stats().createdPages(), 2, "created");
+
+        final String json = binaryToJson(manager.getBytes());
+        Assert.assertTrue(json.startsWith("{\"name\":\"{email=123@lafaspot.com}\",\"level\":4,\"data\":\"last xxx"), json);
+        Assert.assertEquals(json.indexOf('\n'), json.length() - 1, "one record");
+    }
+
+    /**
+     * Version 2 pages write every context once per page and decode to the same records as version 1 pages.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testPageFormatV2() throws Exception {
+        final LogManager managerV1 = new LogManager(Level.INFO, 10);
+        managerV1.setMinPageSize(1024 * 1024);
+        final LogManager managerV2 = new LogManager(Level.INFO, 10);
+        managerV2.setMinPageSize(1024 * 1024);
+        managerV2.setPageFormat(PageFormat.V2);
+        Assert.assertEquals(managerV2.getPageFormat(), PageFormat.V2, "format");
+        logSample(managerV1);
+        logSample(managerV2);
+
+        final byte[] v1 = managerV1.getBytes();
+        final byte[] v2 = managerV2.getBytes();
+        Assert.assertTrue(v2.length * 2 < v1.length, "v2 " + v2.length + " v1 " + v1.length);
+        final LogDecoder decoder = new LogDecoder();
+        Assert.assertEquals(decoder.toFragments(v2), v1, "v2 expands to v1");
+        Assert.assertEquals(decoder.toFragments(v1), v1, "v1 is unchanged");
+
+        // both formats in a single dump
+        final byte[] mixed = new byte[v1.length + v2.length + v1.length];
+        System.arraycopy(v1, 0, mixed, 0, v1.length);
+        System.arraycopy(v2, 0, mixed, v1.length, v2.length);
+        System.arraycopy(v1, 0, mixed, v1.length + v2.length, v1.length);
+        final byte[] fragments = decoder.toFragments(mixed);
+        Assert.assertEquals(fragments.length, v1.length * 3, "mixed");
+        final String json = binaryToJson(fragments);
+        final String recordB = "\"name\":\"{sledid=1/email=b@lafaspot.com/farm=gq1/host=logfast-test-host.lafaspot.com}\",\"level\":2,";
+        Assert.assertTrue(json.contains(recordB + "\"data\":\"class"), json);
+    }
+
+    /**
+     * The stack of an exception is written once per version 2 page, the records refer to it.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testStackTraces() throws Exception {
+        final LogManager managerV1 = new LogManager(Level.INFO, 10);
+        managerV1.setMinPageSize(1024 * 1024);
+        final LogManager managerV2 = new LogManager(Level.INFO, 10);
+        managerV2.setMinPageSize(1024 * 1024);
+        managerV2.setPageFormat(PageFormat.V2);
+        final int records = 20;
+        final Exception[] failures = new Exception[records];
+        for (int i = 0; i < records; i++) {
+            // new exceptions thrown by the same code have the same stack
+            failures[i] = new IllegalStateException("other " + i, SAMPLE_FAILURE);
+        }
+        for (final LogManager manager : Arrays.asList(managerV1, managerV2)) {
+            final Logger logger = manager.getLogger(context);
+            for (final Exception failure : failures) {
+                logger.warn("failed", failure);
+            }
+        }
+
+        final StringBuilder expected = new StringBuilder("java.lang.IllegalStateException\n");
+        for (final StackTraceElement frame : failures[0].getStackTrace()) {
+            expected.append("\tat ").append(frame).append('\n');
+        }
+        expected.append("Caused by: java.lang.Exception\n");
+        for (final StackTraceElement frame : SAMPLE_FAILURE.getStackTrace()) {
+            expected.append("\tat ").append(frame).append('\n');
+        }
+        final byte[] v1 = managerV1.getBytes();
+        final byte[] v2 = managerV2.getBytes();
+        Assert.assertTrue(v2.length * 4 < v1.length, "v2 " + v2.length + " v1 " + v1.length);
+        final List<String> stacks = new ArrayList<String>();
+        new LogDecoder().decode(v2, rec -> stacks.add(rec.getExceptionStackTrace()));
+        Assert.assertEquals(stacks.size(), records, "records");
+        for (final String stack : stacks) {
+            Assert.assertEquals(stack, expected.toString(), "stack");
+        }
+        Assert.assertEquals(new LogDecoder().toFragments(v2), v1, "v2 expands to v1");
+    }
+
+    /**
+     * Version 2 records carry a timestamp, a delta from the base timestamp of their page.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testTimestamps() throws Exception {
+        final long tick = 1000;
+        for (final TimestampPrecision precision : TimestampPrecision.values()) {
+            final LogManager manager = new LogManager(Level.INFO, 10);
+            manager.setPageFormat(PageFormat.V2);
+            Assert.assertEquals(manager.getTimestampPrecision(), TimestampPrecision.MILLIS, "default");
+            manager.setTimestampPrecision(precision);
+            Assert.assertEquals(manager.getTimestampPrecision(), precision, "precision");
+            final Logger logger = manager.getLogger(context);
+            final long before = System.currentTimeMillis();
+            logger.info("first", null);
+            Thread.sleep(20);
+            logger.info("second {}", 2L);
+            final long after = System.currentTimeMillis();
+
+            final List<Long> nanos = new ArrayList<Long>();
+            new LogDecoder().decode(manager.getBytes(), rec -> {
+                nanos.add(rec.getTimestampNanos());
+                Assert.assertEquals(rec.getTimestamp(), Math.floorDiv(rec.getTimestampNanos(), 1000000L), "millis");
+            });
+            Assert.assertEquals(nanos.size(), 2, "records");
+            // releases the clock thread of the millisecond timestamps
+            manager.close();
+            if (precision == TimestampPrecision.NONE) {
+                Assert.assertEquals(nanos, Arrays.asList(0L, 0L), "no timestamp");
+                continue;
+            }
+            for (final long time : nanos) {
+                // the coarse clock lags the system clock by up to a tick
+                Assert.assertTrue(time / 1000000L >= before - tick && time / 1000000L <= after, time + " in " + before + ".." + after);
+            }
+            Assert.assertTrue(nanos.get(1) - nanos.get(0) >= 10000000L, "ordered " + nanos);
+            if (precision == TimestampPrecision.MILLIS) {
+                Assert.assertEquals(nanos.get(0) % 1000000L, 0, "milliseconds");
+            }
+            final LogDecoder.Record[] v1 = new LogDecoder.Record[1];
+            new LogDecoder().decode(new LogDecoder().toFragments(manager.getBytes()), rec -> v1[0] = rec);
+            Assert.assertEquals(v1[0].getTimestamp(), 0, "version 1 records have no timestamp");
+        }
+
+        final byte[] unknownFlags = { 0x01, 0x04, 0x08 };
+        try {
+            new LogDecoder().toFragments(unknownFlags);
+            Assert.fail("expected failure");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("flags"), e.getMessage());
+        }
+    }
+
+    /**
+     * Template log calls are formatted when the page is read, version 1 pages store the formatted message.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testTemplates() throws Exception {
+        final LogManager managerV1 = new LogManager(Level.INFO, 10);
+        managerV1.setMinPageSize(1024 * 1024);
+        final LogManager managerV2 = new LogManager(Level.INFO, 10);
+        managerV2.setMinPageSize(1024 * 1024);
+        managerV2.setPageFormat(PageFormat.V2);
+        logTemplates(managerV1);
+        logTemplates(managerV2);
+
+        final byte[] v1 = managerV1.getBytes();
+        final byte[] v2 = managerV2.getBytes();
+        Assert.assertTrue(v2.length < v1.length, "v2 " + v2.length + " v1 " + v1.length);
+        final LogDecoder decoder = new LogDecoder();
+        Assert.assertEquals(decoder.toFragments(v2), v1, "v2 expands to v1");
+
+        final StringBuilder messages = new StringBuilder();
+        decoder.decode(v2, new LogDecoder.RecordHandler() {
+            @Override
+            public void onRecord(final LogDecoder.Record rec) {
+                messages.append(rec.getData()).append('\n');
+            }
+        });
+        final String expected = "id=0\nuser=bob count=0\nd=1.5 b=true n=null s=text f=2.5 i=7 l=-9 {}\nonly null\n"
+                + "range -1..2\nratio 0.5 of 4\na b c\nid=1\n";
+        Assert.assertTrue(messages.toString().startsWith(expected), messages.toString());
+        Assert.assertTrue(messages.toString().contains("id=99\nuser=bob count=99\n"), "last records");
+        Assert.assertFalse(messages.toString().contains("debug") || messages.toString().contains("extra"), "level");
+
+        final byte[] unknownArgument = { 0x01, 0x04, 0x00, 0x03, 0x02, 'a', 0x07, 0x02, 't', 0x09, 0x00, 0x08, 0x00, 0x02, 0x14 };
+        try {
+            decoder.toFragments(unknownArgument);
+            Assert.fail("expected failure");
+        } catch (final IOException e) {
+            Assert.assertTrue(e.getMessage().contains("argument"), e.getMessage());
+        }
+    }
+
+    /**
+     * Loggable data is written straight into the page, with the same bytes as its toString.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testLoggable() throws Exception {
+        final Loggable loggable = new Loggable() {
+            @Override
+            public void writeTo(final LogWriter writer) throws IOException {
+                writer.append("user=").append("j\u00fcrgen").append(" id=").append(42L).append(' ').append(false);
+                // boxed numbers are written unboxed
+                writer.append(" n=").append((Object) Integer.valueOf(7)).append(' ').append((Object) Double.valueOf(0.5));
+            }
+
+            @Override
+            public String toString() {
+                return "user=j\u00fcrgen id=42 false n=7 0.5";
+            }
+        };
+        final Loggable failing = new Loggable() {
+            @Override
+            public void writeTo(final LogWriter writer) throws IOException {
+                writer.append("partial");
+                throw new IllegalStateException("failure");
+            }
+        };
+        for (final PageFormat format : PageFormat.values()) {
+            final LogManager loggableManager = new LogManager(Level.INFO, 10);
+            final LogManager stringManager = new LogManager(Level.INFO, 10);
+            loggableManager.setPageFormat(format);
+            stringManager.setPageFormat(format);
+            final Logger logger = loggableManager.getLogger(context);
+            final Logger stringLogger = stringManager.getLogger(context);
+            for (int i = 0; i < 10; i++) {
+                logger.info(loggable, null);
+                logger.warn("{} at {}", loggable, i);
+                stringLogger.info(loggable.toString(), null);
+                stringLogger.warn("{} at {}", loggable.toString(), i);
+                try {
+                    logger.info(failing, null);
+                    Assert.fail("expected failure");
+                } catch (final IllegalStateException e) {
+                    Assert.assertEquals(e.getMessage(), "failure");
+                }
+            }
+            final LogDecoder decoder = new LogDecoder();
+            Assert.assertEquals(decoder.toFragments(loggableManager.getBytes()), decoder.toFragments(stringManager.getBytes()), format.name());
+        }
+        final LogManager v1 = new LogManager(Level.INFO, 10);
+        v1.getLogger(context).info("{} and {}", loggable, new LogDataUtil().set(Runnable.class, "x", null));
+        final String json = binaryToJson(v1.getBytes());
+        Assert.assertTrue(json.contains(" id=42 false n=7 0.5 and interface java.lang.Runnable x null\""), json);
+    }
+
+    /**
+     * The records of a context name are found through the index, the index forgets the pages removed by the manager.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testContextIndex() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 4);
+        manager.setPageFormat(PageFormat.V2);
+        final Logger loggerA = manager.getLogger(new SledContext("email=a@lafaspot.com"));
+        final Logger loggerB = manager.getLogger(new SledContext("email=b@lafaspot.com"));
+        final Logger loggerA2 = manager.getLogger(new SledContext("email=a@lafaspot.com"));
+        loggerA.info("a1", null);
+        loggerB.info("b1", null);
+        loggerA2.info("a2", null);
+        Assert.assertEquals(manager.stats().indexedNames(), 2, "names");
+
+        final StringBuilder records = new StringBuilder();
+        new LogDecoder().decode(manager.getBytes("email=a@lafaspot.com"), new LogDecoder.RecordHandler() {
+            @Override
+            public void onRecord(final LogDecoder.Record rec) {
+                records.append(rec.getData()).append(' ');
+            }
+        });
+        Assert.assertEquals(records.toString(), "a1 a2 ", "records of a");
+        Assert.assertEquals(manager.getBytes("email=unknown@lafaspot.com").length, 0, "unknown name");
+
+        // B stops logging, its page leaves the index with the flush and the page list with the next cleanup
+        loggerB.flush();
+        Assert.assertEquals(manager.stats().indexedNames(), 1, "names after flush");
+        for (int i = 0; i < 10; i++) {
+            loggerA.flush();
+            loggerA.info("a", null);
+        }
+        Assert.assertEquals(manager.getBytes("email=b@lafaspot.com").length, 0, "b removed");
+        Assert.assertEquals(manager.stats().indexedNames(), 1, "names after cleanup");
+        Assert.assertTrue(manager.getBytes("email=a@lafaspot.com").length > 0, "a still live");
+    }
+
+    /**
+     * Short lived loggers of the shared pages mode write to a page per stripe, their records are still found by context name.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testSharedPages() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        manager.setSharedPages(true);
+        Assert.assertTrue(manager.isSharedPages(), "shared pages");
+        final int tasks = 1000;
+        final Thread[] threads = new Thread[tasks];
+        for (int t = 0; t < tasks; t++) {
+            final int task = t;
+            // a logger per task, like a logger per virtual thread
+            threads[t] = new Thread(() -> {
+                final Logger logger = manager.getLogger(new SledContext("email=" + task + "@lafaspot.com"));
+                logger.info("task " + task, null);
+                logger.warn("task {} done", (long) task);
+                logger.flush();
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(manager.stats().createdPages() <= Runtime.getRuntime().availableProcessors() * 2L, "pages");
+        Assert.assertEquals(manager.stats().indexedNames(), tasks, "names");
+
+        final List<String> all = new ArrayList<String>();
+        new LogDecoder().decode(manager.getBytes(), rec -> all.add(rec.getData()));
+        Assert.assertEquals(all.size(), tasks * 2, "records");
+
+        final List<String> records = new ArrayList<String>();
+        new LogDecoder().decode(manager.getBytes("email=7@lafaspot.com"), rec -> {
+            Assert.assertEquals(rec.getName(), "{sledid=1/email=7@lafaspot.com/farm=gq1/host=logfast-test-host.lafaspot.com}", "name");
+            records.add(rec.getData());
+        });
+        Assert.assertEquals(records, Arrays.asList("task 7", "task 7 done"), "records of a name");
+        Assert.assertEquals(manager.getBytes("email=unknown@lafaspot.com").length, 0, "unknown name");
+
+        // threads racing on the pages of the stripes, the full pages are drained and replaced without dropping a record
+        final LogManager busy = new LogManager(Level.INFO, 100);
+        busy.setSharedPages(true);
+        final ByteArrayOutputStream drained = new ByteArrayOutputStream();
+        busy.startDrain(new LogSink() {
+            @Override
+            public void write(final List<ByteBuffer> pages) {
+                for (final ByteBuffer page : pages) {
+                    final byte[] bytes = new byte[page.remaining()];
+                    page.get(bytes);
+                    drained.write(bytes, 0, bytes.length);
+                }
+            }
+        }, 1024);
+        final int writers = 8;
+        final int perWriter = 20000;
+        final Thread[] busyThreads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final long writer = t;
+            busyThreads[t] = new Thread(() -> {
+                final Logger logger = busy.getLogger(new SledContext("email=" + writer + "@lafaspot.com"));
+                for (int i = 0; i < perWriter; i++) {
+                    logger.info("writer {} record {}", writer, (long) i);
+                }
+            });
+            busyThreads[t].start();
+        }
+        for (final Thread thread : busyThreads) {
+            thread.join();
+        }
+        busy.stopDrain();
+        final int[] count = new int[1];
+        new LogDecoder().decode(drained.toByteArray(), rec -> count[0]++);
+        new LogDecoder().decode(busy.getBytes(), rec -> count[0]++);
+        Assert.assertEquals(count[0], writers * perWriter, "racing records");
+        Assert.assertEquals(busy.metrics().getDroppedRecords(), 0, "dropped");
+
+        // new loggers get a page per logger again
+        manager.setSharedPages(false);
+        final Logger own = manager.getLogger(context);
+        own.info("own page", null);
+        Assert.assertEquals(own.getCurrentPage().getContextName(), context.getName(), "own page");
+    }
+
+    /**
+     * The streaming exports write the same bytes as getBytes, for heap and off heap pages.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testWriteTo() throws Exception {
+        for (final long offHeapBytes : new long[] { 0, 64L * 1024 * 1024 }) {
+            final LogManager manager = new LogManager(Level.INFO, 64, offHeapBytes);
+            for (int i = 0; i < 40; i++) {
+                logSample(manager);
+            }
+            final byte[] expected = manager.getBytes();
+
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            Assert.assertEquals(manager.writeTo(stream), expected.length, "stream size");
+            Assert.assertEquals(stream.toByteArray(), expected, "stream");
+
+            final ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+            Assert.assertEquals(manager.writeTo(Channels.newChannel(channelOut)), expected.length, "channel size");
+            Assert.assertEquals(channelOut.toByteArray(), expected, "channel");
+
+            final File file = File.createTempFile("logfast", ".bin");
+            try {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    Assert.assertEquals(manager.writeTo(raf.getChannel()), expected.length, "file size");
+                }
+                Assert.assertEquals(Files.readAllBytes(file.toPath()), expected, "file");
+            } finally {
+                Assert.assertTrue(file.delete(), "delete");
+            }
+        }
+    }
+
+    /**
+     * The container export has the Avro header, the schema and one deflate block of LogRecords per page.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testContainerExport() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 64);
+        manager.setMinPageSize(1024 * 1024);
+        logSample(manager);
+        manager.setPageFormat(PageFormat.V2);
+        logSample(manager);
+        final byte[] expected = new LogDecoder().toFragments(manager.getBytes());
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Assert.assertEquals(manager.writeContainerTo(out), out.size(), "size");
+        final ByteArrayOutputStream records = new ByteArrayOutputStream();
+        long count = 0;
+        int blocks = 0;
+        try (DataFileStream<GenericRecord> stream = new DataFileStream<GenericRecord>(new ByteArrayInputStream(out.toByteArray()),
+                        new GenericDatumReader<GenericRecord>())) {
+            Assert.assertEquals(stream.getSchema(), new Schema.Parser().parse(LogPage.SCHEMA_STR), "schema");
+            Assert.assertEquals(stream.getMetaString("avro.codec"), "deflate", "codec");
+            while (stream.hasNext()) {
+                count += stream.getBlockCount();
+                final ByteBuffer block = stream.nextBlock();
+                records.write(block.array(), block.arrayOffset() + block.position(), block.remaining());
+                blocks++;
+            }
+        }
+        Assert.assertEquals(records.toByteArray(), expected, "records");
+        Assert.assertEquals(count, 400, "count");
+        Assert.assertEquals(blocks, 4, "one block per page");
+        Assert.assertTrue(out.size() * 10 < expected.length, "compressed " + out.size() + " of " + expected.length);
+
+        // the records read with the schema of the container are the decoded records
+        final List<String> decoded = new ArrayList<String>();
+        new LogDecoder().decode(expected, rec -> decoded.add(recordLine(rec.getName(), rec.getLevel(), rec.getData(), rec.getExceptionMessages(),
+                        rec.getExceptionStackTrace())));
+        final List<String> read = new ArrayList<String>();
+        try (DataFileStream<GenericRecord> stream = new DataFileStream<GenericRecord>(new ByteArrayInputStream(out.toByteArray()),
+                        new GenericDatumReader<GenericRecord>())) {
+            for (final GenericRecord rec : stream) {
+                read.add(recordLine(rec.get("name"), rec.get("level"), rec.get("data"), rec.get("eMessages"), rec.get("eStackTrace")));
+            }
+        }
+        Assert.assertEquals(read.size(), 400, "read");
+        Assert.assertEquals(read, decoded, "read records");
+    }
+
+    private static String recordLine(final Object name, final Object level, final Object data, final Object messages, final Object stack) {
+        // Avro strings are read as Utf8, compared by their text
+        return name + " " + level + " " + data + " " + messages + " " + stack;
+    }
+
+    /**
+     * An error hands the recent pages of the logger to the sink, later errors only the new records.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testFlightRecorder() throws Exception {
+        final char[] filler = new char[200 * 1024];
+        Arrays.fill(filler, 'x');
+        final String big = new String(filler);
+        for (final PageFormat format : PageFormat.values()) {
+            final LogManager manager = new LogManager(Level.TRACE, 64);
+            manager.setPageFormat(format);
+            final List<String> dumped = new ArrayList<String>();
+            final int[] dumps = new int[1];
+            final List<ByteBuffer> pagesOfDump = new ArrayList<ByteBuffer>();
+            manager.setFlightRecorder(Level.ERROR, pages -> {
+                dumps[0]++;
+                pagesOfDump.clear();
+                pagesOfDump.addAll(pages);
+                for (final ByteBuffer page : pages) {
+                    new LogDecoder().decode(page, rec -> dumped.add(rec.getLevel() + ":" + rec.getData().length()));
+                }
+            }, Runnable::run);
+            final Logger logger = manager.getLogger(context);
+            for (int i = 0; i < 30; i++) {
+                logger.debug(big + i, null);
+            }
+            logger.error("failure", null);
+            Assert.assertEquals(dumps[0], 1, "dumps");
+            Assert.assertEquals(pagesOfDump.size(), 4, "current page and 3 full pages");
+            Assert.assertTrue(dumped.size() > 10 && dumped.size() < 30, dumped.toString());
+            Assert.assertEquals(dumped.get(dumped.size() - 1), "2:7", "trigger record last");
+
+            dumped.clear();
+            logger.trace("after", null);
+            logger.info("not a trigger", null);
+            Assert.assertEquals(dumps[0], 1, "info does not trigger");
+            logger.fatal("again", null);
+            Assert.assertEquals(dumps[0], 2, "dumps");
+            Assert.assertEquals(dumped.subList(dumped.size() - 3, dumped.size()), Arrays.asList("6:5", "4:13", "1:5"), "new records");
+            if (format == PageFormat.V1) {
+                Assert.assertEquals(dumped.size(), 3, "only the new records");
+            }
+
+            // flush and reuse, the pages of the last dump were unpinned
+            manager.clearFlightRecorder();
+            logger.flush();
+            logger.error("off", null);
+            Assert.assertEquals(dumps[0], 2, "recorder off");
+            Assert.assertEquals(manager.stats().recycledPages(), 1, "page reused");
+        }
+    }
+
+    /**
+     * The pages of a logger start at 4 Kilobytes and double on every rotation up to 1 Megabyte, a record larger than a fixed size page moves the
+     * logger to a 1 Megabyte page.
+     */
+    @Test
+    public void testAdaptivePageSizes() {
+        final LogManager manager = new LogManager(Level.INFO, 64);
+        Assert.assertEquals(manager.getMinPageSize(), 4096, "min page size");
+        final Logger logger = manager.getLogger(context);
+        logger.info("first", null);
+        Assert.assertEquals(logger.getCurrentPage().get().getPageSize(), 4096, "first page");
+        Assert.assertEquals(manager.stats().ownedBytes(), 4096, "owned bytes");
+
+        int expected = 4096;
+        LogPage page = logger.getCurrentPage().get();
+        for (int i = 0; i < 100000 && expected < 1024 * 1024; i++) {
+            logger.info("a record of a logger writing more and more", null);
+            final LogPage current = logger.getCurrentPage().get();
+            if (current != page) {
+                expected *= 2;
+                Assert.assertEquals(current.getPageSize(), expected, "next page");
+                page = current;
+            }
+        }
+        Assert.assertEquals(expected, 1024 * 1024, "max page size");
+
+        manager.setMinPageSize(5000);
+        Assert.assertEquals(manager.getMinPageSize(), 8192, "rounded up to a power of 2");
+
+        final LogManager budget = new LogManager(Level.INFO, 64, 0, 2 * 1024 * 1024);
+        final Logger budgetLogger = budget.getLogger(context);
+        final char[] large = new char[10000];
+        Arrays.fill(large, 'x');
+        budgetLogger.info(new String(large), null);
+        Assert.assertEquals(budgetLogger.getCurrentPage().get().getPageSize(), 1024 * 1024, "large record page");
+        Assert.assertTrue(new String(budget.getBytes(), StandardCharsets.UTF_8).contains(new String(large)), "large record kept");
+        Assert.assertEquals(budget.stats().pooledPages(), 1, "empty small page pooled");
+        Assert.assertEquals(budget.stats().ownedBytes(), 1024 * 1024 + 4096, "owned bytes");
+    }
+
+    /**
+     * The metrics count the records by level, the dropped records, the evictions by cause and the latencies, and are registered as an MXBean.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 64, 0, 2 * 4096);
+        manager.setLatencyTracking(true);
+        final LogMetrics metrics = manager.metrics();
+        final Logger logger = manager.getLogger(context);
+        for (int i = 0; i < 10; i++) {
+            logger.info("metrics {}", i);
+        }
+        logger.warn("metrics", null);
+        logger.debug("disabled", null);
+        Assert.assertEquals(metrics.getRecords(Level.INFO), 10, "info records");
+        Assert.assertEquals(metrics.getRecords(Level.WARN), 1, "warn records");
+        Assert.assertEquals(metrics.getRecords(Level.DEBUG), 0, "debug records");
+        Assert.assertEquals(metrics.getBytes(Level.INFO) + metrics.getBytes(Level.WARN), manager.getBytes().length, "bytes");
+        Assert.assertEquals(metrics.logCallLatency().getCount(), 11, "log calls");
+        Assert.assertEquals(metrics.allocPageLatency().getCount(), 1, "allocPage calls");
+
+        // the third page evicts the oldest page of the budget
+        manager.getLogger(context).info("second", null);
+        manager.getLogger(context).info("third", null);
+        Assert.assertEquals(metrics.getEvictions(LogMetrics.BYTE_BUDGET), 1, "evicted");
+        Assert.assertTrue(metrics.getPageFillRatio() > 0 && metrics.getPageFillRatio() < 1, "fill ratio " + metrics.getPageFillRatio());
+
+        final LogManager noRoom = new LogManager(Level.INFO, 64, 0, 1024);
+        noRoom.getLogger(context).info("no page", null);
+        Assert.assertEquals(noRoom.metrics().getDroppedRecords(), 1, "dropped");
+
+        final ObjectName name = manager.registerMXBean("testMetrics");
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assert.assertEquals(server.getAttribute(name, "HeapBytes"), 2L * 4096, "heap bytes");
+            Assert.assertEquals(server.getAttribute(name, "DroppedRecords"), 0L, "dropped");
+            Assert.assertNotNull(server.getAttribute(name, "LogCallLatency"), "latency");
+        } finally {
+            manager.unregisterMXBean("testMetrics");
+        }
+    }
+
+    /**
+     * A byte budget evicts the oldest pages to make room for new pages, the page bytes never exceed the budget.
+     */
+    @Test
+    public void testByteBudget() {
+        final long page = 1024 * 1024;
+        final LogManager manager = new LogManager(Level.INFO, 64, 0, 3 * page);
+        manager.setMinPageSize(1024 * 1024);
+        Assert.assertEquals(manager.getMaxBytes(), 3 * page, "budget");
+        final LogDataUtil data = new LogDataUtil().set(LogManagerTest.class, "budget");
+        final Logger[] loggers = new Logger[4];
+        for (int i = 0; i < loggers.length; i++) {
+            loggers[i] = manager.getLogger(context);
+            loggers[i].info(data, null);
+            Assert.assertTrue(manager.stats().ownedBytes() <= 3 * page, "owned bytes");
+        }
+        final int recordSize = manager.getBytes().length / 3;
+        Assert.assertEquals(manager.stats().ownedBytes(), 3 * page, "owned bytes");
+        Assert.assertEquals(manager.stats().evictedPages(), 1, "oldest page evicted");
+        Assert.assertEquals(manager.stats().recycledPages(), 1, "evicted page reused");
+        Assert.assertEquals(manager.stats().activePages(), 3, "active");
+
+        // the logger of the evicted page moves to a new page, evicting the next oldest page
+        loggers[0].info(data, null);
+        Assert.assertEquals(manager.stats().evictedPages(), 2, "evicted");
+        Assert.assertEquals(manager.getBytes().length, recordSize * 3, "dump");
+        Assert.assertEquals(manager.stats().ownedBytes(), 3 * page, "owned bytes");
+
+        for (final Logger logger : loggers) {
+            logger.flush();
+        }
+        Assert.assertEquals(manager.stats().pooledPages(), 3, "pooled");
+        Assert.assertEquals(manager.stats().ownedBytes(), 3 * page, "pooled bytes are owned");
+        Assert.assertEquals(manager.getBytes().length, 0, "dump");
+    }
+
+    /**
+     * A page evicted while its logger writes a record is taken back on the next record of the logger.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testByteBudgetEvictionDuringWrite() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 64, 0, 1024 * 1024);
+        manager.setMinPageSize(1024 * 1024);
+        final Logger outer = manager.getLogger(context);
+        final Logger inner = manager.getLogger(context);
+        outer.info((Loggable) writer -> {
+            // the only page is being written, it is evicted but not taken back, the inner record is dropped
+            inner.info("inner", null);
+            writer.append("outer");
+        }, null);
+        Assert.assertEquals(manager.stats().evictedPages(), 1, "evicted");
+        Assert.assertEquals(manager.getBytes().length, 0, "evicted page is not dumped");
+        Assert.assertEquals(manager.stats().createdPages(), 1, "created");
+
+        inner.info("no page", null);
+        Assert.assertEquals(manager.stats().createdPages(), 1, "budget used by the outer logger");
+
+        outer.info("again", null);
+        Assert.assertEquals(manager.stats().recycledPages(), 1, "evicted page taken back and reused");
+        final String json = binaryToJson(manager.getBytes());
+        Assert.assertTrue(json.contains("\"data\":\"again\""), json);
+        Assert.assertEquals(manager.stats().ownedBytes(), 1024 * 1024, "owned bytes");
+    }
+
+    /**
+     * Flushed pages are written by the drain thread to the file sinks and reused.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testDrain() throws Exception {
+        final Path dir = Files.createTempDirectory("logfast");
+        try {
+            final Path file = dir.resolve("drain.bin");
+            final LogManager manager = new LogManager(Level.INFO, 64);
+            manager.startDrain(new FileLogSink(file), 16);
+            try {
+                manager.startDrain(new Slf4jLogSink(), 16);
+                Assert.fail("expected failure");
+            } catch (final IllegalStateException e) {
+                Assert.assertNotNull(e.getMessage());
+            }
+            // the pages are all taken before the first one is drained, none is reused
+            final Logger[] loggers = new Logger[3];
+            for (int i = 0; i < loggers.length; i++) {
+                loggers[i] = manager.getLogger(new SledContext("email=" + i + "@lafaspot.com"));
+                for (int j = 0; j < 10; j++) {
+                    loggers[i].info("record " + j, null);
+                }
+            }
+            for (final Logger logger : loggers) {
+                logger.flush();
+            }
+            // an empty page is not drained
+            manager.getLogger(context).flush();
+            // the drain thread is joined, the pages it wrote are back in the pool
+            manager.stopDrain();
+            Assert.assertEquals(manager.stats().drainedPages(), 3, "drained");
+            Assert.assertEquals(manager.stats().droppedPages(), 0, "dropped");
+            Assert.assertEquals(manager.stats().queuedPages(), 0, "queued");
+            Assert.assertEquals(manager.stats().recycledPages(), 0, "no page reused");
+            Assert.assertEquals(manager.stats().pooledPages(), 3, "recycled into the pool");
+            final int[] records = new int[1];
+            new LogDecoder().decode(Files.readAllBytes(file), rec -> records[0]++);
+            Assert.assertEquals(records[0], 30, "records");
+
+            // a new file per batch, 2 files kept
+            final Path rolling = dir.resolve("rolling.bin");
+            manager.startDrain(new RollingFileLogSink(rolling, 1, 2), 16);
+            for (int i = 0; i < 3; i++) {
+                final Logger logger = manager.getLogger(context);
+                logger.warn("rolling " + i, null);
+                logger.flush();
+                final long drained = 4 + i;
+                for (int wait = 0; wait < 1000 && manager.stats().drainedPages() < drained; wait++) {
+                    Thread.sleep(5);
+                }
+            }
+            manager.stopDrain();
+            Assert.assertEquals(manager.stats().drainedPages(), 6, "drained");
+            Assert.assertTrue(Files.exists(rolling), "current");
+            Assert.assertTrue(Files.exists(dir.resolve("rolling.bin.1")), "previous");
+            Assert.assertFalse(Files.exists(dir.resolve("rolling.bin.2")), "only 2 files");
+            Assert.assertTrue(binaryToJson(Files.readAllBytes(rolling)).contains("rolling 2"), "newest");
+
+            manager.startDrain(new Slf4jLogSink(), 16);
+            final Logger logger = manager.getLogger(context);
+            logger.error("replayed", new Exception("failure"));
+            logger.flush();
+            manager.stopDrain();
+            Assert.assertEquals(manager.stats().drainedPages(), 7, "drained");
+
+            // a sink failing with a RuntimeException drops its batch, the drain goes on
+            final AtomicInteger writes = new AtomicInteger();
+            manager.startDrain(pages -> {
+                if (writes.getAndIncrement() == 0) {
+                    throw new IllegalStateException("sink failure");
+                }
+            }, 16);
+            for (int i = 0; i < 2; i++) {
+                final Logger failing = manager.getLogger(context);
+                failing.warn("failing " + i, null);
+                failing.flush();
+                for (int wait = 0; wait < 1000 && manager.stats().drainedPages() + manager.stats().droppedPages() < 8 + i; wait++) {
+                    Thread.sleep(5);
+                }
+            }
+            manager.stopDrain();
+            Assert.assertEquals(manager.stats().droppedPages(), 1, "dropped by the failure");
+            Assert.assertEquals(manager.stats().drainedPages(), 8, "drained after the failure");
+
+            // a failed rollover keeps appending to the current file and is retried by the next batch
+            final Path retried = dir.resolve("retried.bin");
+            final AtomicInteger rollovers = new AtomicInteger();
+            final FileLogSink sink = new FileLogSink(retried) {
+                @Override
+                protected boolean isRollover(final long newSize) {
+                    return true;
+                }
+
+                @Override
+                protected void rollover(final Path current) throws IOException {
+                    if (rollovers.getAndIncrement() == 0) {
+                        throw new IOException("rollover failure");
+                    }
+                    Files.delete(current);
+                }
+            };
+            sink.write(Arrays.asList(ByteBuffer.wrap(new byte[] { 1, 2, 3 })));
+            try {
+                sink.write(Arrays.asList(ByteBuffer.wrap(new byte[] { 4 })));
+                Assert.fail("expected failure");
+            } catch (final IOException e) {
+                Assert.assertEquals(e.getMessage(), "rollover failure");
+            }
+            Assert.assertEquals(Files.readAllBytes(retried), new byte[] { 1, 2, 3 }, "current file");
+            sink.write(Arrays.asList(ByteBuffer.wrap(new byte[] { 5, 6 })));
+            sink.close();
+            Assert.assertEquals(Files.readAllBytes(retried), new byte[] { 5, 6 }, "new file");
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (final Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * Pages offered while the drain stops are written or refused, none is left in the queue.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testDrainStop() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 64);
+        final AtomicInteger written = new AtomicInteger();
+        final LogDrain drain = new LogDrain(manager, pages -> written.addAndGet(pages.size()), 1024);
+        drain.start();
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                while (!stopped.get()) {
+                    if (drain.offer(new LogPage(0, 4 * 1024, LogPageRef.NULL))) {
+                        accepted.getAndIncrement();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        Thread.sleep(50);
+        drain.stop();
+        stopped.set(true);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(accepted.get() > 0, "accepted");
+        Assert.assertEquals(written.get(), accepted.get(), "every accepted page written");
+        Assert.assertEquals(drain.getQueuedPages(), 0, "queue empty");
+    }
+
+    /**
+     * Malformed pages fail with an IOException.
+     */
+    @Test
+    public void testDecoderErrors() {
+        final byte[][] malformed = { { 0x05, 0x02 }, { 0x01, 0x04, 0x00, 0x05, 0x00 }, { 0x01, 0x10, 0x00 }, { 0x09 }, { 0x08, 'a' },
+            { (byte) 0x80 } };
+        for (final byte[] bytes : malformed) {
+            try {
+                new LogDecoder().toFragments(bytes);
+                Assert.fail("expected failure");
+            } catch (final IOException e) {
+                Assert.assertNotNull(e.getMessage(), "message");
+            }
+        }
+    }
+
+    private void logSample(final LogManager manager) {
+        final LogContext contextA = new SledContext("email=a@lafaspot.com");
+        final LogContext contextB = new SledContext("email=b@lafaspot.com");
+        final LogDataUtil data = new LogDataUtil();
+        final Logger loggerA = manager.getLogger(contextA);
+        final Logger loggerB = manager.getLogger(contextB);
+        for (int i = 0; i < 100; i++) {
+            loggerA.info("count=" + i, null);
+            loggerB.error(data.set(LogManagerTest.class, Integer.valueOf(i)), i % 10 == 0 ? SAMPLE_FAILURE : null);
+        }
+    }
+
+    private void logTemplates(final LogManager manager) {
+        final Logger logger = manager.getLogger(new SledContext("email=t@lafaspot.com"));
+        for (int i = 0; i < 100; i++) {
+            logger.info("id={}", i);
+            logger.warn("user={} count={}", "bob", i);
+            if (i == 0) {
+                logger.error("d={} b={} n={} s={} f={} i={} l={} {}", 1.5d, true, null, new StringBuilder("text"), 2.5f, 7, -9L);
+                logger.fatal("only {}", (Object[]) null);
+                logger.info("range {}..{}", -1L, 2L);
+                logger.info("ratio {} of {}", 0.5, 4);
+                logger.info("{} {} {}", "a", "b", "c");
+                logger.trace("extra {}", 1, 2, 3);
+                logger.debug("debug {}", 1);
+                logger.debug("debug {} {}", "a", 2);
+                logger.debug("debug {}", "a", "b");
+            }
+        }
+    }
+
+    /**
+     * Context with a long serial.
+     */
+    private static class SledContext extends LogContext {
+        SledContext(final String name) {
+            super(name);
+        }
+
+        @Override
+        public String getSerial() {
+            return "{sledid=1/" + getName() + "/farm=gq1/host=logfast-test-host.lafaspot.com}";
+        }
+    }
+
+    private String binaryToJson(final byte[] avro) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final PrintStream p = new PrintStream(new BufferedOutputStream(baos));
+        new BinaryFragmentToJsonTool().run(new ByteArrayInputStream(avro), p, null, Arrays.asList("--no-pretty", LogPage.SCHEMA_STR, "-"));
+        return baos.toString("utf-8").replace("\r", "");
+    }
+}
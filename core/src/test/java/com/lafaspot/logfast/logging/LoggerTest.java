@@ -6,11 +6,15 @@ import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Time;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.avro.Schema;
 import org.apache.avro.tool.BinaryFragmentToJsonTool;
@@ -177,7 +181,7 @@ public class LoggerTest {
         final Schema schema = new Schema.Parser().parse(LogPage.SCHEMA_STR);
         final String json = binaryToJson(bytes, "--no-pretty", schema.toString());
         @SuppressWarnings("checkstyle:linelength")
-        String s = "{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":1,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest [10, 20] 5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"stack trace here\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":3,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"stack trace here\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":2,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"stack trace here\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":4,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"stack trace here\"}}\n";
+        String s = "{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":1,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest [10, 20] 5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"STACK\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":3,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"STACK\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":2,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"STACK\"}}\n{\"name\":\"{sledid=1291298/email=123@lafaspot.com}\",\"level\":4,\"data\":\"class com.lafaspot.logfast.logging.LoggerTest 912398 0.5\",\"eMessages\":{\"string\":\"[java.lang.Exception, null],\"},\"eStackTrace\":{\"string\":\"STACK\"}}\n".replace("STACK", stackJson(e));
         Assert.assertEquals(json, s, "expect: " + json + "\n But got: " + s);
     }
 
@@ -219,6 +223,7 @@ public class LoggerTest {
     @Test
     public void testMultipleLoggerExample() throws UnsupportedEncodingException, Exception {
         final LogManager manager = new LogManager(Level.DEBUG, 10);
+        manager.setMinPageSize(1024 * 1024);
         // utility to serialize data
         final LogDataUtil data = new LogDataUtil();
         final LogContext context = new LogContext("email=123@lafaspot.com") {
@@ -227,6 +232,9 @@ public class LoggerTest {
         // some exception to log with stack
         final Exception e = new Exception();
         e.fillInStackTrace();
+        // a fixed stack, the page counts depend on the size of the records
+        e.setStackTrace(new StackTraceElement[] { new StackTraceElement(LoggerTest.class.getName(), "testMultipleLoggerExample", "LoggerTest.java",
+                        1) });
 
         final Logger logger1 = manager.getLogger(context);
         final Logger logger2 = manager.getLogger(context);
@@ -254,9 +262,9 @@ public class LoggerTest {
         logger4.flush();
 
         // Something wrong here should less or equal to 10
-        Assert.assertEquals(manager.stats().activePages(), 12, "active");
-        Assert.assertEquals(manager.stats().deletedPages(), 52, "deleted");
-        Assert.assertEquals(manager.stats().createdPages(), 64, "created");
+        Assert.assertEquals(manager.stats().activePages(), 4, "active");
+        Assert.assertEquals(manager.stats().deletedPages(), 96, "deleted");
+        Assert.assertEquals(manager.stats().createdPages(), 100, "created");
 
         for (int i = 0; i < 100; i++) {
             final Logger logger = manager.getLogger(context);
@@ -267,9 +275,9 @@ public class LoggerTest {
             logger.flush();
         }
 
-        Assert.assertEquals(manager.stats().activePages(), 10, "active");
-        Assert.assertEquals(manager.stats().deletedPages(), 154, "deleted");
-        Assert.assertEquals(manager.stats().createdPages(), 164, "created");
+        Assert.assertEquals(manager.stats().activePages(), 2, "active");
+        Assert.assertEquals(manager.stats().deletedPages(), 198, "deleted");
+        Assert.assertEquals(manager.stats().createdPages(), 200, "created");
 
         for (int i = 0; i < 100; i++) {
             final Logger logger = manager.getLogger(context);
@@ -285,9 +293,9 @@ public class LoggerTest {
             logger5.warn(data.set(LoggerTest.class, new Time(912398), new Date(0)), e);
         }
 
-        Assert.assertEquals(manager.stats().activePages(), 6, "active");
-        Assert.assertEquals(manager.stats().deletedPages(), 259, "deleted");
-        Assert.assertEquals(manager.stats().createdPages(), 265, "created");
+        Assert.assertEquals(manager.stats().activePages(), 9, "active");
+        Assert.assertEquals(manager.stats().deletedPages(), 292, "deleted");
+        Assert.assertEquals(manager.stats().createdPages(), 301, "created");
 
         // This is not part of the example
         final byte[] bytes = manager.getBytes();
@@ -308,6 +316,304 @@ public class LoggerTest {
         Assert.assertEquals(Level.fromNumeric(8), Level.INFO, "Expected default level as info");
     }
 
+    /**
+     * Level overrides by context name and prefix, and the default level of the manager, apply to the existing loggers.
+     */
+    @Test
+    public void testLevelOverrides() {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        final Logger first = manager.getLogger(new LogContext("email=1@lafaspot.com") {
+        });
+        final Logger second = manager.getLogger(new LogContext("email=2@lafaspot.com") {
+        });
+        Assert.assertFalse(first.isDebug(), "default level");
+        first.debug("dropped", null);
+        Assert.assertEquals(manager.getBytes().length, 0, "debug off");
+
+        manager.setLevel("email=1@lafaspot.com", Level.DEBUG);
+        Assert.assertTrue(first.isDebug(), "name level");
+        Assert.assertFalse(second.isDebug(), "other name");
+        first.debug("kept", null);
+        Assert.assertTrue(new String(manager.getBytes()).contains("kept"), "debug on");
+
+        manager.setLevelByPrefix("email=", Level.TRACE);
+        manager.setLevelByPrefix("email=2", Level.WARN);
+        Assert.assertFalse(first.isTrace(), "name level wins");
+        Assert.assertTrue(second.isWarn(), "longest prefix");
+        Assert.assertFalse(second.isInfo(), "longest prefix");
+
+        manager.setLevelByPrefix("email=", null);
+        manager.setLevelByPrefix("email=2", null);
+        manager.setLevel(Level.ERROR);
+        Assert.assertFalse(second.isWarn(), "manager level");
+        Assert.assertEquals(second.getLevel(), Logger.ERRORINT, "manager level");
+        second.setLevel(Level.DEBUG);
+        Assert.assertTrue(second.isDebug(), "logger level");
+        manager.setLevel("email=1@lafaspot.com", null);
+        Assert.assertFalse(first.isWarn(), "override removed");
+        Assert.assertTrue(first.isError(), "override removed");
+    }
+
+    /**
+     * Rate limits by context name and by logger, and sampling by level, drop records before they reach a page and log the number of dropped
+     * records.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testRateLimitAndSampling() throws Exception {
+        final LogManager manager = new LogManager(Level.DEBUG, 10);
+        manager.setMinPageSize(1024 * 1024);
+        final Logger hot = manager.getLogger(new LogContext("email=hot@lafaspot.com") {
+        });
+        final Logger other = manager.getLogger(new LogContext("email=other@lafaspot.com") {
+        });
+        manager.setRateLimit("email=hot@lafaspot.com", 1, 5);
+        for (int i = 0; i < 100; i++) {
+            hot.info("hot record", null);
+            other.info("other record", null);
+        }
+        Assert.assertEquals(count(manager, "hot record"), 5, "burst of the context");
+        Assert.assertEquals(count(manager, "other record"), 100, "other context");
+        manager.setRateLimit("email=hot@lafaspot.com", 0, 0);
+        hot.info("hot record", null);
+        Assert.assertEquals(count(manager, "95 records dropped"), 1, "dropped records logged");
+        Assert.assertEquals(count(manager, "hot record"), 6, "limit removed");
+
+        other.setRateLimit(1, 2);
+        for (int i = 0; i < 10; i++) {
+            other.info("limited {}", i);
+        }
+        Assert.assertEquals(count(manager, "limited"), 2, "burst of the logger");
+
+        manager.setSampling(Level.DEBUG, 0);
+        for (int i = 0; i < 10; i++) {
+            hot.debug("debug record", null);
+        }
+        Assert.assertTrue(hot.isDebug(), "level unchanged");
+        Assert.assertEquals(count(manager, "debug record"), 0, "debug records dropped");
+        manager.setSampling(Level.DEBUG, 1);
+        hot.debug("debug record", null);
+        Assert.assertEquals(count(manager, "10 records dropped"), 1, "dropped records logged");
+        Assert.assertEquals(count(manager, "debug record"), 1, "sampling removed");
+
+        // a record dropped by the context limit does not spend the token of the logger
+        hot.setRateLimit(1, 2);
+        manager.setRateLimit("email=hot@lafaspot.com", 1, 1);
+        for (int i = 0; i < 10; i++) {
+            hot.info("both limits", null);
+        }
+        manager.setRateLimit("email=hot@lafaspot.com", 0, 0);
+        for (int i = 0; i < 10; i++) {
+            hot.info("both limits", null);
+        }
+        Assert.assertEquals(count(manager, "both limits"), 2, "token of the logger refunded");
+
+        // the count of the records dropped before a flush is written by the flush
+        final LogManager drained = new LogManager(Level.INFO, 10);
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        drained.startDrain(new LogSink() {
+            @Override
+            public void write(final List<ByteBuffer> pages) {
+                for (final ByteBuffer page : pages) {
+                    final byte[] bytes = new byte[page.remaining()];
+                    page.get(bytes);
+                    sink.write(bytes, 0, bytes.length);
+                }
+            }
+        }, 16);
+        final Logger quiet = drained.getLogger(new LogContext("email=quiet@lafaspot.com") {
+        });
+        quiet.setRateLimit(1, 1);
+        for (int i = 0; i < 4; i++) {
+            quiet.info("quiet record", null);
+        }
+        quiet.flush();
+        drained.stopDrain();
+        Assert.assertTrue(new String(sink.toByteArray(), StandardCharsets.UTF_8).contains("3 records dropped"), "dropped records flushed");
+    }
+
+    /**
+     * Repeats of a record within the repeat window are counted and written as a single record.
+     */
+    @Test
+    public void testRepeatWindow() {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        manager.setMinPageSize(1024 * 1024);
+        final Logger logger = manager.getLogger(new LogContext("email=123@lafaspot.com") {
+        });
+        logger.setRepeatWindow(60000);
+        final Exception e = new IllegalStateException("refused");
+        for (int i = 0; i < 100; i++) {
+            logger.error("connection refused", e);
+        }
+        Assert.assertEquals(count(manager, "connection refused"), 1, "repeats not written");
+        for (int i = 0; i < 3; i++) {
+            logger.info("retry {} of {}", 1, "server");
+        }
+        Assert.assertEquals(count(manager, "previous record repeated 99 times"), 1, "repeats written before the next record");
+        logger.info("retry {} of {}", 2, "server");
+        Assert.assertEquals(count(manager, "previous record repeated 2 times"), 1, "template repeats");
+        logger.error("connection refused", new IllegalArgumentException("refused"));
+        logger.error("connection refused", new IllegalArgumentException("refused"));
+        Assert.assertEquals(count(manager, "connection refused"), 2, "other exception class");
+
+        logger.setRepeatWindow(0);
+        logger.error("connection refused", e);
+        logger.error("connection refused", e);
+        Assert.assertEquals(count(manager, "previous record repeated 1 times"), 1, "repeats written when the window is removed");
+        Assert.assertEquals(count(manager, "connection refused"), 4, "window removed");
+    }
+
+    /**
+     * The pages of loggers dropped without a flush are taken back by the reclaim thread once the loggers are unreachable.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testUnreachableLogger() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 10);
+        final LogContext context = new LogContext("email=123@lafaspot.com") {
+        };
+        logAndDrop(manager.getLogger(context));
+        logAndDrop(manager.getConcurrentLogger(context));
+        Assert.assertTrue(manager.getBytes().length > 0, "pages in the dump");
+
+        for (int i = 0; i < 100 && manager.stats().reclaimedLoggers() < 2; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(manager.stats().reclaimedLoggers(), 2, "reclaimed");
+        Assert.assertEquals(manager.getBytes().length, 0, "pages returned");
+        Assert.assertEquals(manager.stats().pooledPages(), 2, "pages pooled");
+
+        // a flushed logger is not tracked any more
+        final Logger logger = manager.getLogger(context);
+        logger.info("flushed", null);
+        logger.flush();
+        System.gc();
+        Thread.sleep(10);
+        Assert.assertEquals(manager.stats().reclaimedLoggers(), 2, "flushed logger");
+    }
+
+    /**
+     * Threads sharing a ConcurrentLogger append complete records to shared pages, every record is drained once.
+     *
+     * @throws Exception
+     *             failure
+     */
+    @Test
+    public void testConcurrentLogger() throws Exception {
+        final LogManager manager = new LogManager(Level.INFO, 100);
+        final ByteArrayOutputStream drained = new ByteArrayOutputStream();
+        manager.startDrain(new LogSink() {
+            @Override
+            public void write(final List<ByteBuffer> pages) {
+                for (final ByteBuffer page : pages) {
+                    final byte[] bytes = new byte[page.remaining()];
+                    page.get(bytes);
+                    drained.write(bytes, 0, bytes.length);
+                }
+            }
+        }, 1024);
+        final Logger logger = manager.getConcurrentLogger(new LogContext("email=shared@lafaspot.com") {
+        });
+        final int threads = 8;
+        final int perThread = 20000;
+        final Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long thread = t;
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    if (i % 2 == 0) {
+                        logger.info("thread " + thread + " record " + i, null);
+                    } else {
+                        logger.info("thread {} record {}", thread, (long) i);
+                    }
+                }
+            });
+            writers[t].start();
+        }
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        logger.flush();
+        manager.stopDrain();
+        Assert.assertEquals(manager.getBytes().length, 0, "all pages returned");
+        Assert.assertEquals(manager.stats().drainedPages(), manager.stats().createdPages(), "drained");
+        Assert.assertTrue(manager.stats().createdPages() < threads * perThread * 64 / (1024 * 1024) + 2, "shared pages");
+
+        final Set<String> records = new HashSet<String>();
+        new LogDecoder().decode(drained.toByteArray(), rec -> {
+            Assert.assertEquals(rec.getName(), "{email=shared@lafaspot.com}", "name");
+            Assert.assertTrue(records.add(rec.getData()), rec.getData());
+        });
+        Assert.assertEquals(records.size(), threads * perThread, "records");
+        Assert.assertTrue(records.contains("thread 7 record 19999"), "last");
+        Assert.assertEquals(manager.metrics().getDroppedRecords(), 0, "dropped");
+
+        // a page evicted by the budget is replaced on the next record
+        final LogManager budget = new LogManager(Level.INFO, 10, 0, 1024 * 1024);
+        final Logger shared = budget.getConcurrentLogger(context2);
+        shared.info("first", null);
+        budget.getLogger(context2).info("evicts the shared page", null);
+        Assert.assertEquals(budget.stats().evictedPages(), 1, "evicted");
+        shared.info("second", null);
+        Assert.assertEquals(budget.stats().evictedPages(), 2, "evicted");
+        final List<String> data = new ArrayList<String>();
+        new LogDecoder().decode(budget.getBytes(), rec -> data.add(rec.getData()));
+        Assert.assertEquals(data, Arrays.asList("second"), "records");
+
+        // a record larger than its frame is copied to a frame of its size, a failed record leaves padding between the frames
+        final LogManager frames = new LogManager(Level.INFO, 10);
+        final Logger framed = frames.getConcurrentLogger(context2);
+        final char[] large = new char[10000];
+        Arrays.fill(large, 'x');
+        framed.info(new String(large), null);
+        try {
+            framed.info(new Object() {
+                @Override
+                public String toString() {
+                    throw new IllegalStateException("toString");
+                }
+            }, null);
+            Assert.fail("expected failure");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "toString");
+        }
+        framed.info("small", null);
+        final List<Integer> lengths = new ArrayList<Integer>();
+        new LogDecoder().decode(frames.getBytes(), rec -> lengths.add(rec.getData().length()));
+        Assert.assertEquals(lengths, Arrays.asList(large.length, "small".length()), "records");
+        Assert.assertEquals(frames.metrics().getDroppedRecords(), 0, "dropped");
+    }
+
+    /**
+     * Stack trace of an exception without cause as written by the JSON encoder.
+     */
+    private static String stackJson(final Throwable e) {
+        final StringBuilder json = new StringBuilder(e.getClass().getName()).append("\\n");
+        for (final StackTraceElement frame : e.getStackTrace()) {
+            json.append("\\tat ").append(frame).append("\\n");
+        }
+        return json.toString();
+    }
+
+    private static void logAndDrop(final Logger logger) {
+        logger.info("dropped without a flush", null);
+    }
+
+    private static int count(final LogManager manager, final String text) {
+        final String dump = new String(manager.getBytes(), StandardCharsets.UTF_8);
+        int count = 0;
+        for (int i = dump.indexOf(text); i >= 0; i = dump.indexOf(text, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
     private String binaryToJson(final byte[] avro, final String... options) throws UnsupportedEncodingException, Exception {
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
         final PrintStream p = new PrintStream(new BufferedOutputStream(baos));
@@ -0,0 +1,47 @@
+package com.lafaspot.logfast.logging.internal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * CoarseClock testcases
+ *
+ * @author lafa
+ *
+ */
+public class CoarseClockTest {
+
+    /**
+     * The ticker runs while the clock has users, the clock reads the system clock without them.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testUsers() throws InterruptedException {
+        final boolean ticking = CoarseClock.isTicking();
+        CoarseClock.retain();
+        CoarseClock.retain();
+        Assert.assertTrue(CoarseClock.isTicking(), "ticking");
+        final long before = System.currentTimeMillis();
+        Thread.sleep(20);
+        final long now = CoarseClock.currentTimeMillis();
+        // a tick behind the system clock at most, a loaded machine may delay the ticker a few ticks
+        Assert.assertTrue(now > before && now <= System.currentTimeMillis(), now + " after " + before);
+
+        CoarseClock.release();
+        Assert.assertTrue(CoarseClock.isTicking(), "one user left");
+        CoarseClock.release();
+        Assert.assertEquals(CoarseClock.isTicking(), ticking, "released");
+        if (!ticking) {
+            final long system = System.currentTimeMillis();
+            Assert.assertTrue(CoarseClock.currentTimeMillis() >= system, "reads the system clock");
+            // a release without user is ignored
+            CoarseClock.release();
+            CoarseClock.retain();
+            Assert.assertTrue(CoarseClock.isTicking(), "restarted");
+            CoarseClock.release();
+            Assert.assertFalse(CoarseClock.isTicking(), "stopped");
+        }
+    }
+}
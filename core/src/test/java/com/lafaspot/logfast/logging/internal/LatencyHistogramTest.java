@@ -0,0 +1,87 @@
+package com.lafaspot.logfast.logging.internal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * LatencyHistogram testcases
+ *
+ * @author lafa
+ *
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Small values are kept exactly, larger ones at the lowest value of their bucket, within 12.5%.
+     */
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 16; value++) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            Assert.assertEquals(histogram.getMax(), value, "exact " + value);
+        }
+        for (final long value : new long[] { 16, 17, 31, 32, 1000, 123456789, Long.MAX_VALUE }) {
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            final long bucket = histogram.getMax();
+            Assert.assertTrue(bucket <= value && value - bucket <= value / 8, value + " in bucket " + bucket);
+        }
+        final LatencyHistogram negative = new LatencyHistogram();
+        negative.record(-5);
+        Assert.assertEquals(negative.getMax(), 0, "negative recorded as 0");
+        Assert.assertEquals(negative.getCount(), 1, "count");
+    }
+
+    /**
+     * The percentiles, the mean and the max of the values 1 to 1000.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 0, "empty");
+        Assert.assertEquals(histogram.getMean(), 0, "empty");
+        Assert.assertEquals(histogram.getMax(), 0, "empty");
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        Assert.assertEquals(histogram.getCount(), 1000, "count");
+        Assert.assertEquals(histogram.getMean(), 500, "mean");
+        Assert.assertEquals(histogram.getValueAtPercentile(0), 1, "min");
+        for (final double percentile : new double[] { 50, 90, 99, 100 }) {
+            final long expected = (long) (percentile * 10);
+            final long value = histogram.getValueAtPercentile(percentile);
+            Assert.assertTrue(value <= expected && expected - value <= expected / 8, "p" + percentile + " " + value);
+        }
+        Assert.assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100), "max");
+    }
+
+    /**
+     * Every value recorded by concurrent threads is counted.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int perThread = 100000;
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final long value = 100L << t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(value);
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(histogram.getCount(), threads.length * perThread, "count");
+        Assert.assertEquals(histogram.getMean(), (100 + 200 + 400 + 800) / 4, "mean");
+        Assert.assertEquals(histogram.getValueAtPercentile(25), 96, "bucket of 100");
+        Assert.assertEquals(histogram.getMax(), 768, "bucket of 800");
+    }
+}
@@ -0,0 +1,181 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.Encoder;
+import org.apache.avro.io.EncoderFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.logfast.logging.LogContext;
+
+/**
+ * LogPage and PageBuffer testcases
+ *
+ * @author lafa
+ *
+ */
+public class LogPageTest {
+
+    private final LogContext context = new LogContext("email=123@lafaspot.com") {
+    };
+
+    /**
+     * Encoder of the expected bytes, the Avro binary encoder.
+     */
+    private static Encoder avroEncoder(final ByteArrayOutputStream out) {
+        return EncoderFactory.get().directBinaryEncoder(out, null);
+    }
+
+    /**
+     * @throws IOException
+     *             failure
+     */
+    @Test
+    public void testVarints() throws IOException {
+        final long[] values = { 0, 1, -1, 63, 64, -64, -65, 8191, 8192, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE };
+        final PageBuffer buffer = new PageBuffer(1);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final Encoder encoder = avroEncoder(expected);
+        for (final long value : values) {
+            buffer.writeLong(value);
+            encoder.writeLong(value);
+        }
+        encoder.flush();
+        Assert.assertEquals(buffer.toByteArray(), expected.toByteArray());
+    }
+
+    /**
+     * @throws IOException
+     *             failure
+     */
+    @Test
+    public void testStrings() throws IOException {
+        final String[] values = { "", "ascii", "caf\u00e9", "\u20ac100", "\ud83d\ude00 emoji",
+                "bad \ud83d surrogate", "bad \ude00 low", "end \ud83d" };
+        final PageBuffer buffer = new PageBuffer(1);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final Encoder encoder = avroEncoder(expected);
+        for (final String value : values) {
+            buffer.writeString(value);
+            encoder.writeString(value);
+            Assert.assertEquals(PageBuffer.utf8Length(value), value.getBytes(StandardCharsets.UTF_8).length, value);
+        }
+        encoder.flush();
+        Assert.assertEquals(buffer.toByteArray(), expected.toByteArray());
+    }
+
+    /**
+     * Strings written by the PageWriter, of unknown length, are the same as writeString for heap and direct buffers.
+     *
+     * @throws IOException
+     *             failure
+     */
+    @Test
+    public void testPageWriter() throws IOException {
+        final int[] lengths = { 0, 63, 64, 8191, 8192, 20000 };
+        final PageBuffer heap = new PageBuffer(1);
+        final PageBuffer direct = new PageBuffer(ByteBuffer.allocateDirect(64 * 1024));
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final Encoder encoder = avroEncoder(expected);
+        for (final int length : lengths) {
+            final StringBuilder str = new StringBuilder();
+            while (str.length() < length) {
+                str.append((char) ('a' + str.length() % 26));
+            }
+            for (final PageBuffer buffer : new PageBuffer[] { heap, direct }) {
+                final PageWriter writer = new PageWriter(buffer);
+                final String value = str.toString();
+                writer.writeString(w -> w.append(value));
+            }
+            encoder.writeString(str.toString());
+            encoder.writeString(str.toString());
+        }
+        encoder.flush();
+        final long[] longs = { 0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+        final StringBuilder text = new StringBuilder();
+        for (final long value : longs) {
+            text.append(value).append(',');
+        }
+        text.append("caf\u00e9 \u20ac x\ud83d\ude00?null12.5true");
+        heap.reset();
+        new PageWriter(heap).writeString(w -> {
+            for (final long value : longs) {
+                w.append(value).append(',');
+            }
+            w.append("caf\u00e9").append(' ').append('\u20ac').append(" x\ud83d\ude00").append('\ud83d').append((CharSequence) null)
+                            .append("012", 1, 2).append(2.5).append(true);
+        });
+        final ByteArrayOutputStream expectedText = new ByteArrayOutputStream();
+        final Encoder textEncoder = avroEncoder(expectedText);
+        textEncoder.writeString(text.toString());
+        textEncoder.flush();
+        Assert.assertEquals(heap.toByteArray(), expectedText.toByteArray(), "text");
+    }
+
+    /**
+     * Strings of unknown length that do not fit in a direct buffer fail.
+     */
+    @Test
+    public void testPageWriterOverflow() {
+        final PageBuffer buffer = new PageBuffer(ByteBuffer.allocateDirect(65));
+        try {
+            new PageWriter(buffer).writeString(w -> w.append("0123456789012345678901234567890123456789012345678901234567890123"));
+            Assert.fail("expected failure");
+        } catch (final IOException e) {
+            Assert.assertEquals(e.getMessage(), "Page buffer overflow.");
+        }
+    }
+
+    /**
+     * The records written by the page are the LogRecords of LogPage.SCHEMA_STR written by the Avro GenericDatumWriter.
+     *
+     * @throws IOException
+     *             failure
+     */
+    @Test
+    public void testRecord() throws IOException {
+        final LogPage page = new LogPage(1, 64 * 1024, LogPageRef.NULL);
+        final Exception cause = new IllegalStateException("root");
+        final Exception e = new Exception("top \u00e9", cause);
+        Assert.assertTrue(page.log(context, 2, "data", e, true));
+        Assert.assertTrue(page.log(context, 4, "more", null, true));
+        Assert.assertTrue(page.log(context, 3, "nostack", e, false));
+
+        final StringBuilder stack = new StringBuilder("java.lang.Exception\n");
+        for (final StackTraceElement frame : e.getStackTrace()) {
+            stack.append("\tat ").append(frame).append('\n');
+        }
+        stack.append("Caused by: java.lang.IllegalStateException\n");
+        for (final StackTraceElement frame : cause.getStackTrace()) {
+            stack.append("\tat ").append(frame).append('\n');
+        }
+        final String messages = "[java.lang.Exception, top \u00e9],[java.lang.IllegalStateException, root],";
+        final Schema schema = new Schema.Parser().parse(LogPage.SCHEMA_STR);
+        final GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<GenericRecord>(schema);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        final Encoder encoder = avroEncoder(expected);
+        writer.write(logRecord(schema, 2, "data", messages, stack.toString()), encoder);
+        writer.write(logRecord(schema, 4, "more", null, null), encoder);
+        writer.write(logRecord(schema, 3, "nostack", messages, null), encoder);
+        encoder.flush();
+        Assert.assertEquals(page.getBytes(), expected.toByteArray());
+    }
+
+    private GenericRecord logRecord(final Schema schema, final int level, final String data, final String messages, final String stack) {
+        final GenericRecord logRecord = new GenericData.Record(schema);
+        logRecord.put("name", context.toString());
+        logRecord.put("level", level);
+        logRecord.put("data", data);
+        logRecord.put("eMessages", messages);
+        logRecord.put("eStackTrace", stack);
+        return logRecord;
+    }
+}
@@ -0,0 +1,115 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.logfast.logging.LogContext;
+
+/**
+ * LogSlab testcases
+ *
+ * @author lafa
+ *
+ */
+public class LogSlabTest {
+    private static final int SLOT_SIZE = 4 * 1024;
+    private static final int RECORDS = 20;
+    private final LogContext context = new LogContext("email=123@lafaspot.com") {
+    };
+
+    /**
+     * Every slot is handed once until it is freed, the slots do not overlap.
+     */
+    @Test
+    public void testSlots() {
+        final LogSlab slab = new LogSlab(4L * SLOT_SIZE + 100, SLOT_SIZE);
+        Assert.assertEquals(slab.slots(), 4, "slots");
+        Assert.assertEquals(slab.freeSlots(), 4, "free");
+        final List<LogPage> pages = new ArrayList<LogPage>();
+        final Set<Integer> slots = new HashSet<Integer>();
+        LogPage page;
+        while ((page = slab.allocPage(pages.size() + 1, LogPageRef.NULL)) != null) {
+            Assert.assertTrue(page.isDirect(), "direct");
+            Assert.assertTrue(slots.add(page.getSlot()), "slot handed twice");
+            pages.add(page);
+        }
+        Assert.assertEquals(pages.size(), 4, "pages");
+        Assert.assertEquals(slab.freeSlots(), 0, "free");
+
+        // the records of a page do not touch the other slots, every page reads the bytes of a heap page with the same records
+        for (final LogPage written : pages) {
+            for (int i = 0; i < RECORDS; i++) {
+                Assert.assertTrue(written.log(context, 2, "slot " + written.getSlot() + " record " + i, null, false), "logged");
+            }
+        }
+        for (final LogPage written : pages) {
+            final LogPage expected = new LogPage(0, SLOT_SIZE, LogPageRef.NULL);
+            for (int i = 0; i < RECORDS; i++) {
+                expected.log(context, 2, "slot " + written.getSlot() + " record " + i, null, false);
+            }
+            Assert.assertEquals(written.getBytes(), expected.getBytes(), "slot " + written.getSlot());
+        }
+
+        slab.free(pages.get(2));
+        Assert.assertEquals(slab.freeSlots(), 1, "free");
+        slab.free(pages.get(2));
+        Assert.assertEquals(slab.freeSlots(), 1, "freed once");
+        final LogPage reused = slab.allocPage(5, LogPageRef.NULL);
+        Assert.assertEquals(reused.getSlot(), pages.get(2).getSlot(), "reused slot");
+        Assert.assertNull(slab.allocPage(6, LogPageRef.NULL), "no free slot");
+    }
+
+    /**
+     * Threads taking and returning slots concurrently never share a slot and leave every slot free.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testConcurrentSlots() throws InterruptedException {
+        final int slotCount = 8;
+        final int threadCount = 8;
+        final int perThread = 50000;
+        final LogSlab slab = new LogSlab((long) slotCount * SLOT_SIZE, SLOT_SIZE);
+        final AtomicIntegerArray inUse = new AtomicIntegerArray(slotCount);
+        final AtomicInteger shared = new AtomicInteger();
+        final AtomicInteger taken = new AtomicInteger();
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final LogPage page = slab.allocPage(i, LogPageRef.NULL);
+                    if (page == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    taken.incrementAndGet();
+                    if (!inUse.compareAndSet(page.getSlot(), 0, 1)) {
+                        shared.incrementAndGet();
+                    }
+                    inUse.set(page.getSlot(), 0);
+                    slab.free(page);
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(shared.get(), 0, "slot handed to two threads");
+        Assert.assertTrue(taken.get() > 0, "taken");
+        Assert.assertEquals(slab.freeSlots(), slotCount, "free");
+        final Set<Integer> slots = new HashSet<Integer>();
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(slab.allocPage(i, LogPageRef.NULL).getSlot());
+        }
+        Assert.assertEquals(slots.size(), slotCount, "distinct slots");
+    }
+}
@@ -0,0 +1,78 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * MpscArrayQueue testcases
+ *
+ * @author lafa
+ *
+ */
+public class MpscArrayQueueTest {
+
+    /**
+     * The queue is bounded and keeps the order of a producer.
+     */
+    @Test
+    public void testBounded() {
+        final MpscArrayQueue<Integer> queue = new MpscArrayQueue<Integer>(3);
+        Assert.assertTrue(queue.isEmpty(), "empty");
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i), "offer " + i);
+        }
+        Assert.assertFalse(queue.offer(4), "full");
+        Assert.assertEquals(queue.size(), 4, "size");
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(queue.poll(), Integer.valueOf(i), "poll");
+        }
+        Assert.assertNull(queue.poll(), "empty");
+        Assert.assertTrue(queue.isEmpty(), "empty");
+    }
+
+    /**
+     * Every element offered by concurrent producers is polled once, in order for each producer.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 100000;
+        final MpscArrayQueue<long[]> queue = new MpscArrayQueue<long[]>(64);
+        final AtomicInteger failed = new AtomicInteger();
+        final Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    final long[] element = { producer, i };
+                    while (!queue.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        final int[] next = new int[producers];
+        for (int received = 0; received < producers * perProducer;) {
+            final long[] element = queue.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            if (element[1] != next[(int) element[0]]++) {
+                failed.incrementAndGet();
+            }
+            received++;
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(failed.get(), 0, "order");
+        Assert.assertTrue(queue.isEmpty(), "empty");
+    }
+}
@@ -0,0 +1,58 @@
+package com.lafaspot.logfast.logging.internal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * PageDictionary testcases
+ *
+ * @author lafa
+ *
+ */
+public class PageDictionaryTest {
+
+    /**
+     * Ids are given in insertion order and kept when the dictionary grows.
+     */
+    @Test
+    public void testIds() {
+        final PageDictionary dictionary = new PageDictionary();
+        Assert.assertEquals(dictionary.get("missing"), -1, "missing");
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            final String key = "key" + i;
+            Assert.assertEquals(dictionary.get(key), -1, "new key");
+            Assert.assertEquals(dictionary.put(key), i, "id");
+        }
+        Assert.assertEquals(dictionary.size(), count, "size");
+        for (int i = 0; i < count; i++) {
+            // an equal key, not the inserted instance
+            Assert.assertEquals(dictionary.get(new StringBuilder("key").append(i).toString()), i, "id after resize");
+        }
+
+        dictionary.clear();
+        Assert.assertEquals(dictionary.size(), 0, "cleared");
+        Assert.assertEquals(dictionary.get("key1"), -1, "cleared");
+        Assert.assertEquals(dictionary.put("key1"), 0, "ids start again at 0");
+        Assert.assertEquals(dictionary.get("key1"), 0, "id");
+    }
+
+    /**
+     * Keys with the same hash are told apart by equals.
+     */
+    @Test
+    public void testCollisions() {
+        final PageDictionary dictionary = new PageDictionary();
+        // "Aa" and "BB" have the same hashCode
+        final String[] keys = { "Aa", "BB", "AaAa", "AaBB", "BBAa", "BBBB" };
+        Assert.assertEquals(keys[0].hashCode(), keys[1].hashCode());
+        Assert.assertEquals(keys[2].hashCode(), keys[5].hashCode());
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(dictionary.put(keys[i]), i, keys[i]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            Assert.assertEquals(dictionary.get(keys[i]), i, keys[i]);
+        }
+        Assert.assertEquals(dictionary.get("AaAaAa"), -1, "missing with a colliding hash");
+    }
+}
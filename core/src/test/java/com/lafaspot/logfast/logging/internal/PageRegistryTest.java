@@ -0,0 +1,123 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * PageRegistry testcases
+ *
+ * @author lafa
+ *
+ */
+public class PageRegistryTest {
+
+    /**
+     * Pages added by many threads are iterated in page order.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testOrderedIteration() throws InterruptedException {
+        final PageRegistry registry = new PageRegistry(6);
+        Assert.assertEquals(registry.shardCount(), 8, "shards");
+        final int threads = 8;
+        final int perThread = 500;
+        final Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            adders[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    registry.add(new LogPageRef(new LogPage(first + i * threads + 1, 16, LogPageRef.NULL)));
+                }
+            });
+            adders[t].start();
+        }
+        for (final Thread adder : adders) {
+            adder.join();
+        }
+        Assert.assertEquals(registry.size(), threads * perThread, "size");
+        long expected = 1;
+        for (final LogPageRef pageRef : registry) {
+            Assert.assertEquals(pageRef.get().getIdentifier().longValue(), expected++, "order");
+        }
+
+        Assert.assertTrue(registry.removeIf(pageRef -> pageRef.get().getIdentifier() % 2 == 0), "removed");
+        Assert.assertFalse(registry.removeIf(pageRef -> pageRef.get().getIdentifier() % 2 == 0), "nothing left to remove");
+        Assert.assertEquals(registry.size(), threads * perThread / 2, "size");
+        final List<Long> ids = new ArrayList<Long>();
+        for (final LogPageRef pageRef : registry) {
+            ids.add(pageRef.get().getIdentifier());
+        }
+        Assert.assertEquals(ids.get(0).longValue(), 1L, "first");
+        Assert.assertEquals(ids.get(ids.size() - 1).longValue(), threads * perThread - 1L, "last");
+
+        final LogPageRef first = registry.iterator().next();
+        Assert.assertTrue(registry.remove(first), "removed");
+        Assert.assertFalse(registry.remove(first), "already removed");
+        Assert.assertEquals(registry.iterator().next().get().getIdentifier().longValue(), 3L, "new first");
+
+        final Iterator<LogPageRef> empty = new PageRegistry(1).iterator();
+        Assert.assertFalse(empty.hasNext(), "empty");
+        try {
+            empty.next();
+            Assert.fail("expected failure");
+        } catch (final NoSuchElementException e) {
+            Assert.assertNull(e.getMessage());
+        }
+    }
+
+    /**
+     * Bounded sweeps resume where the previous one stopped and visit every page, the oldest pages are removed from the head of every shard.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testBoundedCleanup() throws InterruptedException {
+        final PageRegistry registry = new PageRegistry(4);
+        final int threads = 4;
+        final int perThread = 100;
+        final Thread[] adders = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            adders[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    registry.add(new LogPageRef(new LogPage(first + i * threads + 1, 16, LogPageRef.NULL)));
+                }
+            });
+            adders[t].start();
+        }
+        for (final Thread adder : adders) {
+            adder.join();
+        }
+        final int pages = threads * perThread;
+        final Set<Long> visited = new HashSet<Long>();
+        int removed = 0;
+        for (int sweep = 0; sweep < pages / 10; sweep++) {
+            final int[] visits = new int[1];
+            removed += registry.sweep(pageRef -> {
+                visits[0]++;
+                Assert.assertTrue(visited.add(pageRef.get().getIdentifier()), "visited twice " + pageRef.get().getIdentifier());
+                return pageRef.get().getIdentifier() % 2 == 0;
+            }, 10);
+            Assert.assertEquals(visits[0], 10, "visits");
+        }
+        Assert.assertEquals(visited.size(), pages, "every page visited");
+        Assert.assertEquals(removed, pages / 2, "removed");
+        Assert.assertEquals(registry.size(), pages / 2, "size");
+        Assert.assertEquals(new PageRegistry(2).sweep(pageRef -> true, 10), 0, "empty");
+
+        // the odd pages up to 101 are left, the head of every shard is removed up to the first page kept
+        Assert.assertEquals(registry.removeOldest(pageRef -> pageRef.get().getIdentifier() <= 101), 51, "oldest");
+        Assert.assertEquals(registry.iterator().next().get().getIdentifier().longValue(), 103L, "new first");
+        Assert.assertEquals(registry.size(), pages / 2 - 51, "size");
+    }
+}
@@ -0,0 +1,51 @@
+package com.lafaspot.logfast.logging.internal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * TemplateFormatter testcases
+ *
+ * @author lafa
+ *
+ */
+public class TemplateFormatterTest {
+
+    /**
+     * Every placeholder takes the next argument, extra arguments are ignored and placeholders without argument are kept.
+     */
+    @Test
+    public void testFormat() {
+        Assert.assertEquals(format("no placeholder"), "no placeholder");
+        Assert.assertEquals(format("no placeholder", "extra"), "no placeholder");
+        Assert.assertEquals(format("{}", "only"), "only");
+        Assert.assertEquals(format("a={} b={}", "x", "y"), "a=x b=y");
+        Assert.assertEquals(format("{}{}", "x", "y"), "xy");
+        Assert.assertEquals(format("a={} b={} c={}", "x"), "a=x b={} c={}");
+        Assert.assertEquals(format("a={} b={}", "x", "y", "z"), "a=x b=y");
+        Assert.assertEquals(format("{} at the start and the end {}", "x", "y"), "x at the start and the end y");
+        Assert.assertEquals(format("open { and close } are kept {}", "x"), "open { and close } are kept x");
+        // an argument holding a placeholder is not formatted again
+        Assert.assertEquals(format("{} {}", "{}", "x"), "{} x");
+    }
+
+    /**
+     * Arguments are appended by type.
+     */
+    @Test
+    public void testArgumentTypes() {
+        final LogArguments args = new LogArguments();
+        args.add(-9L).add(1.5d).add(true).add((Object) null).add(Integer.valueOf(7)).add(new StringBuilder("sb"));
+        Assert.assertEquals(args.size(), 6, "size");
+        Assert.assertEquals(args.getType(4), PageEncoding.ARG_LONG, "boxed integer stored unboxed");
+        Assert.assertEquals(TemplateFormatter.format(new StringBuilder("> "), "{} {} {} {} {} {}", args).toString(), "> -9 1.5 true null 7 sb");
+
+        args.reset();
+        Assert.assertEquals(args.size(), 0, "reset");
+        Assert.assertEquals(TemplateFormatter.format(new StringBuilder(), "{}", args.addAll(null)).toString(), "{}", "null varargs");
+    }
+
+    private static String format(final String template, final Object... values) {
+        return TemplateFormatter.format(new StringBuilder(), template, new LogArguments().addAll(values)).toString();
+    }
+}
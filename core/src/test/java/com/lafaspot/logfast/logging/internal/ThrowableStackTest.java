@@ -0,0 +1,74 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.nio.charset.StandardCharsets;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * ThrowableStack testcases
+ *
+ * @author lafa
+ *
+ */
+public class ThrowableStackTest {
+
+    /**
+     * Exceptions thrown by the same code have equal stacks whatever their messages, a copy keeps the stack of its capture.
+     */
+    @Test
+    public void testEquality() {
+        final ThrowableStack stack = new ThrowableStack(4);
+        final ThrowableStack[] copies = new ThrowableStack[2];
+        for (int i = 0; i < copies.length; i++) {
+            stack.capture(failure("message " + i, null));
+            copies[i] = stack.copy();
+        }
+        Assert.assertEquals(copies[0], copies[1], "same code");
+        Assert.assertEquals(copies[0].hashCode(), copies[1].hashCode(), "hash");
+
+        stack.capture(new IllegalStateException("other code"));
+        Assert.assertNotEquals(stack, copies[0], "other code");
+        Assert.assertEquals(copies[0], copies[1], "copies are not changed by a capture");
+        stack.capture(new IllegalArgumentException("message 0"));
+        Assert.assertNotEquals(stack, copies[0], "other class");
+
+        stack.clear();
+        Assert.assertEquals(stack.hashCode(), 0, "cleared");
+        Assert.assertEquals(stack.toUtf8().length, 0, "cleared");
+        Assert.assertNotEquals(stack, copies[0], "cleared");
+        Assert.assertEquals(stack, new ThrowableStack(1), "empty stacks");
+    }
+
+    /**
+     * The stack is printed like Throwable.printStackTrace without the messages, the causes up to the max depth.
+     */
+    @Test
+    public void testCauses() {
+        final Exception root = new Exception("root");
+        final RuntimeException failure = failure("top", root);
+        final StringBuilder expected = new StringBuilder(IllegalStateException.class.getName()).append('\n');
+        for (final StackTraceElement frame : failure.getStackTrace()) {
+            expected.append("\tat ").append(frame).append('\n');
+        }
+        final String top = expected.toString();
+        expected.append("Caused by: ").append(Exception.class.getName()).append('\n');
+        for (final StackTraceElement frame : root.getStackTrace()) {
+            expected.append("\tat ").append(frame).append('\n');
+        }
+
+        final ThrowableStack stack = new ThrowableStack(2);
+        stack.capture(failure);
+        Assert.assertEquals(new String(stack.toUtf8(), StandardCharsets.UTF_8), expected.toString(), "stack with cause");
+        Assert.assertFalse(expected.toString().contains("root") || expected.toString().contains("top"), "no messages");
+
+        final ThrowableStack shallow = new ThrowableStack(1);
+        shallow.capture(failure);
+        Assert.assertEquals(new String(shallow.toUtf8(), StandardCharsets.UTF_8), top, "max depth");
+        Assert.assertNotEquals(shallow, stack.copy(), "depth");
+    }
+
+    private static RuntimeException failure(final String message, final Throwable cause) {
+        return new IllegalStateException(message, cause);
+    }
+}
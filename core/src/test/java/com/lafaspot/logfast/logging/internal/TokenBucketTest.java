@@ -0,0 +1,87 @@
+package com.lafaspot.logfast.logging.internal;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * TokenBucket testcases
+ *
+ * @author lafa
+ *
+ */
+public class TokenBucketTest {
+
+    /**
+     * A new bucket is full, the burst is taken at once and the bucket refills at its rate.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testBurstAndRefill() throws InterruptedException {
+        final TokenBucket bucket = new TokenBucket(100, 3);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(bucket.tryAcquire(), "burst " + i);
+        }
+        Assert.assertFalse(bucket.tryAcquire(), "empty");
+        // a token every 10 milliseconds
+        Thread.sleep(50);
+        Assert.assertTrue(bucket.tryAcquire(), "refilled");
+
+        final TokenBucket slow = new TokenBucket(1, 0);
+        Assert.assertTrue(slow.tryAcquire(), "burst of at least 1");
+        Assert.assertFalse(slow.tryAcquire(), "empty");
+    }
+
+    /**
+     * A refunded token is taken again, a full bucket does not grow past its burst.
+     */
+    @Test
+    public void testRefund() {
+        final TokenBucket bucket = new TokenBucket(1, 2);
+        Assert.assertTrue(bucket.tryAcquire(), "first");
+        Assert.assertTrue(bucket.tryAcquire(), "second");
+        Assert.assertFalse(bucket.tryAcquire(), "empty");
+        bucket.refund();
+        Assert.assertTrue(bucket.tryAcquire(), "refunded");
+        Assert.assertFalse(bucket.tryAcquire(), "empty");
+
+        final TokenBucket full = new TokenBucket(1, 2);
+        full.refund();
+        full.refund();
+        Assert.assertTrue(full.tryAcquire(), "first");
+        Assert.assertTrue(full.tryAcquire(), "second");
+        Assert.assertFalse(full.tryAcquire(), "burst unchanged by the refunds");
+    }
+
+    /**
+     * Threads racing on an empty bucket take the burst exactly once.
+     *
+     * @throws InterruptedException
+     *             failure
+     */
+    @Test
+    public void testConcurrentAcquire() throws InterruptedException {
+        final int burst = 1000;
+        final TokenBucket bucket = new TokenBucket(1, burst);
+        final AtomicInteger acquired = new AtomicInteger();
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < burst; i++) {
+                    if (bucket.tryAcquire()) {
+                        acquired.getAndIncrement();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // a token is refilled every second, the test may take one
+        Assert.assertTrue(acquired.get() >= burst && acquired.get() <= burst + 1, "acquired " + acquired.get());
+    }
+}